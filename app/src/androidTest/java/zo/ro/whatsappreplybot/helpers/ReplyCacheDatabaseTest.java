@@ -0,0 +1,140 @@
+package zo.ro.whatsappreplybot.helpers;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import zo.ro.whatsappreplybot.apis.CachingReplyEngine;
+import zo.ro.whatsappreplybot.apis.ReplyEngine;
+import zo.ro.whatsappreplybot.apis.ReplyProvider;
+
+import static org.junit.Assert.*;
+
+/**
+ * Expiry and eviction of the reply cache run in SQL, so they are checked against a real
+ * SQLite database. The database is in memory, the user's cache is never touched.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ReplyCacheDatabaseTest {
+
+    private static final String PREFERENCES_NAME = "reply_cache_test";
+    private static final String DEFAULT_REPLY = "I'll get back to you soon.";
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+    private ReplyExecutors replyExecutors;
+    private SharedPreferences sharedPreferences;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        dbHelper = new DatabaseHelper(context, null);
+        replyExecutors = new ReplyExecutors();
+        sharedPreferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        sharedPreferences.edit().clear().commit();
+    }
+
+    @After
+    public void tearDown() {
+        replyExecutors.shutdown();
+        dbHelper.close();
+        sharedPreferences.edit().clear().commit();
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    @Test
+    public void expiredEntriesAreMissedAndTrimmed() {
+        dbHelper.putCachedReply("old", "old reply", 1_000);
+        dbHelper.putCachedReply("new", "new reply", 5_000);
+
+        assertEquals("old reply", dbHelper.getCachedReply("old", 1_000, 6_000));
+        assertNull(dbHelper.getCachedReply("old", 1_001, 6_000));
+
+        assertEquals(1, dbHelper.trimReplyCache(2_000, ReplyCache.MAX_ENTRIES));
+        assertNull(dbHelper.getCachedReply("old", 0, 6_000));
+        assertEquals("new reply", dbHelper.getCachedReply("new", 2_000, 6_000));
+    }
+
+    @Test
+    public void trimmingKeepsTheMostRecentlyUsed() {
+        dbHelper.putCachedReply("a", "reply a", 1_000);
+        dbHelper.putCachedReply("b", "reply b", 2_000);
+        dbHelper.putCachedReply("c", "reply c", 3_000);
+        // A hit makes the oldest entry the most recently used one
+        assertEquals("reply a", dbHelper.getCachedReply("a", 0, 4_000));
+
+        assertEquals(1, dbHelper.trimReplyCache(0, 2));
+        assertEquals("reply a", dbHelper.getCachedReply("a", 0, 5_000));
+        assertNull(dbHelper.getCachedReply("b", 0, 5_000));
+        assertEquals("reply c", dbHelper.getCachedReply("c", 0, 5_000));
+    }
+
+    @Test
+    public void failedRepliesAreNeverCached() throws InterruptedException {
+        assertEquals(2, countGenerated(null, new String[]{"Alice", "hi"}, new String[]{"Alice", "hi"}));
+        // The same engine does cache a generated reply
+        assertEquals(1, countGenerated("Hello!", new String[]{"Alice", "hi"}, new String[]{"Alice", "Hi!!"}));
+    }
+
+    @Test
+    public void repliesNamingTheSenderAreNotServedToOthers() throws InterruptedException {
+        assertEquals(2, countGenerated("Hi Alice!", new String[]{"Alice", "hi"}, new String[]{"Bob", "hi"}));
+    }
+
+    @Test
+    public void nearDuplicatesAreOnlyReusedForTheSameSender() throws InterruptedException {
+        sharedPreferences.edit().putString("similar_reply_threshold", "100").commit();
+
+        // Longer than ReplyCache.MAX_MESSAGE_LENGTH, so only the near-duplicate index can answer
+        String message = "Are you still coming to the birthday party at the community hall tonight after work?";
+        assertEquals(2, countGenerated("Yes, see you there!",
+                new String[]{"Alice", message},
+                new String[]{"Alice", message.toLowerCase(Locale.ROOT)},
+                new String[]{"Bob", message}));
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * Sends the messages one after another through a caching engine whose wrapped engine
+     * always answers with the given reply.
+     *
+     * @param reply    null to have the wrapped engine fail with the default reply
+     * @param messages sender and text of each message
+     * @return how many messages reached the wrapped engine
+     */
+    private int countGenerated(String reply, String[]... messages) throws InterruptedException {
+        AtomicInteger generated = new AtomicInteger();
+        ReplyEngine delegate = (sender, message, listener) -> {
+            generated.incrementAndGet();
+            if (reply == null) {
+                listener.onReplyFailed(DEFAULT_REPLY);
+            } else {
+                listener.onReplyGenerated(reply);
+            }
+        };
+        ReplyEngine engine = new CachingReplyEngine(delegate, new ReplyCache(dbHelper, replyExecutors),
+                new NearDuplicateIndex(), ReplyProvider.CHATGPT, sharedPreferences);
+
+        for (String[] message : messages) {
+            CountDownLatch answered = new CountDownLatch(1);
+            engine.generateReply(message[0], message[1], cachedOrGenerated -> answered.countDown());
+            // The store is queued on the DB thread before the listener runs, so the next lookup sees it
+            assertTrue(answered.await(5, TimeUnit.SECONDS));
+        }
+        return generated.get();
+    }
+}
@@ -0,0 +1,246 @@
+package zo.ro.whatsappreplybot.loadtest;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import zo.ro.whatsappreplybot.apis.HttpTransport;
+import zo.ro.whatsappreplybot.apis.ReplyEngine;
+import zo.ro.whatsappreplybot.apis.ReplyEngineRegistry;
+import zo.ro.whatsappreplybot.apis.ReplyProvider;
+import zo.ro.whatsappreplybot.helpers.DatabaseHelper;
+import zo.ro.whatsappreplybot.helpers.LatencyHistogram;
+import zo.ro.whatsappreplybot.helpers.NotificationPreFilter;
+import zo.ro.whatsappreplybot.helpers.PipelineMetrics;
+import zo.ro.whatsappreplybot.helpers.ReplyExecutors;
+import zo.ro.whatsappreplybot.helpers.ReplyScheduler;
+import zo.ro.whatsappreplybot.helpers.RespondedMessageStore;
+import zo.ro.whatsappreplybot.helpers.WhatsAppMessageHandler;
+
+/**
+ * The reply pipeline of {@code MyNotificationListenerService}, wired the same way, fed from a
+ * {@link SyntheticNotificationStream} instead of the notification listener.
+ * <p>
+ * Each event goes through the pre-filter, the dedup store, the reply quota, the scheduler and
+ * the engine on the main thread, as a posted notification would. The reply is stored but not
+ * sent, and there is no natural delay or coalescing window, so the timings are the pipeline's
+ * own. Group chats are always answered.
+ * <p>
+ * History, quota counters and cached replies go to the database it is given, never the app's.
+ * The stage timings are process-wide, so the report shows only those recorded during the run
+ * and the running service's diagnostics are left alone.
+ */
+public class LoadTestPipeline {
+
+    private static final int ONGOING_FLAG = 0x02;
+    private static final long DEDUP_WINDOW_MILLIS = 10 * 60_000L;
+    private static final long SAMPLE_PERIOD_MILLIS = 250;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private final SharedPreferences sharedPreferences;
+    private final ReplyExecutors replyExecutors = new ReplyExecutors();
+    private final WhatsAppMessageHandler messageHandler;
+    private final HttpTransport httpTransport;
+    private final ReplyEngineRegistry replyEngineRegistry;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ReplyScheduler replyScheduler;
+    private final NotificationPreFilter preFilter = new NotificationPreFilter();
+    private final RespondedMessageStore respondedMessages = new RespondedMessageStore(RespondedMessageStore.DEFAULT_MAX_ENTRIES, null);
+
+    private final LatencyHistogram endToEnd = new LatencyHistogram();
+    private final AtomicLong posted = new AtomicLong();
+    private final AtomicLong filtered = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong overQuota = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+    private final AtomicLong replied = new AtomicLong();
+    private final AtomicLong defaultReplies = new AtomicLong();
+    private final AtomicInteger peakPending = new AtomicInteger();
+    private final AtomicLong peakOldestPendingMillis = new AtomicLong();
+    private final AtomicInteger peakThreads = new AtomicInteger();
+    private PipelineMetrics.Snapshot metricsBaseline;
+
+    public LoadTestPipeline(Context context, SharedPreferences sharedPreferences, MockLlmServer server, DatabaseHelper dbHelper) {
+        this.sharedPreferences = sharedPreferences;
+        messageHandler = new WhatsAppMessageHandler(dbHelper, replyExecutors);
+        httpTransport = new HttpTransport(replyExecutors.getNetworkExecutor(), HttpTransport.DEFAULT_MAX_IDLE_CONNECTIONS,
+                HttpTransport.DEFAULT_KEEP_ALIVE_SECONDS, HttpTransport.DEFAULT_MAX_REQUESTS_PER_HOST, server.redirectInterceptor());
+        replyEngineRegistry = new ReplyEngineRegistry(context, sharedPreferences, messageHandler, httpTransport, replyExecutors);
+        replyScheduler = new ReplyScheduler(mainHandler::post, replyExecutors.getScheduler());
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * Replays the events at their offsets and waits until every one of them is answered or dropped.
+     *
+     * @param drainTimeoutMillis how long to wait after the last event before giving up on the rest
+     */
+    public Report run(List<SyntheticNotificationStream.Event> events, long drainTimeoutMillis) throws InterruptedException {
+        metricsBaseline = PipelineMetrics.getInstance().snapshot();
+        long heapBefore = usedHeapAfterGc();
+        ScheduledFuture<?> sampler = replyExecutors.getScheduler().scheduleAtFixedRate(this::sample,
+                0, SAMPLE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+
+        long startedAt = SystemClock.uptimeMillis();
+        long lastEventAt = startedAt;
+        for (SyntheticNotificationStream.Event event : events) {
+            lastEventAt = startedAt + event.atMillis;
+            mainHandler.postAtTime(() -> onNotificationPosted(event), lastEventAt);
+        }
+
+        long deadline = lastEventAt + drainTimeoutMillis;
+        while (accountedFor() < events.size() && SystemClock.uptimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        long elapsedMillis = SystemClock.uptimeMillis() - startedAt;
+        sampler.cancel(false);
+
+        return new Report(events.size(), elapsedMillis, usedHeapAfterGc() - heapBefore);
+    }
+
+    /**
+     * Stops the pipeline and waits until the DB writes it already queued have run.
+     */
+    public void shutdown() throws InterruptedException {
+        replyEngineRegistry.release();
+        httpTransport.shutdown();
+        replyExecutors.shutdown();
+        if (!replyExecutors.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("DB writes still running after " + SHUTDOWN_TIMEOUT_SECONDS + " s");
+        }
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    private void onNotificationPosted(SyntheticNotificationStream.Event event) {
+        long receivedAt = SystemClock.uptimeMillis();
+        posted.incrementAndGet();
+
+        if (preFilter.check(event.sender, event.text, 0, ONGOING_FLAG, true) != NotificationPreFilter.PASS) {
+            filtered.incrementAndGet();
+            return;
+        }
+        String messageId = RespondedMessageStore.keyFor(event.notificationKey, event.text);
+        if (!respondedMessages.tryClaim(messageId, DEDUP_WINDOW_MILLIS)) {
+            duplicates.incrementAndGet();
+            return;
+        }
+
+        int maxReply = Integer.parseInt(sharedPreferences.getString("max_reply", "100"));
+        boolean queued = messageHandler.checkReplyQuota(event.sender, maxReply, withinQuota -> {
+            if (!withinQuota) {
+                overQuota.incrementAndGet();
+                return;
+            }
+            mainHandler.post(() -> generate(event, messageId, receivedAt));
+        });
+        if (!queued) {
+            respondedMessages.release(messageId);
+            shed.incrementAndGet();
+        }
+    }
+
+    private void generate(SyntheticNotificationStream.Event event, String messageId, long receivedAt) {
+        ReplyEngine replyEngine = replyEngineRegistry.getEngine();
+        ReplyProvider provider = replyEngineRegistry.getActiveProvider();
+        String sender = event.sender;
+        boolean group = sender.contains(":");
+        String conversation = group ? sender.substring(0, sender.indexOf(':')).trim() : sender;
+
+        boolean queued = replyScheduler.submit(conversation, provider.name(), provider.getMaxConcurrentReplies(),
+                group ? ReplyScheduler.PRIORITY_GROUP : ReplyScheduler.PRIORITY_DIRECT, onFinished ->
+                        replyEngine.generateReply(sender, event.text, new ReplyEngine.OnReplyGeneratedListener() {
+                            @Override
+                            public void onReplyGenerated(String reply) {
+                                onFinished.run();
+                                messageHandler.handleIncomingMessage(sender, event.text, reply, provider.name());
+                                respondedMessages.markReplied(messageId, DEDUP_WINDOW_MILLIS);
+                                endToEnd.record(TimeUnit.MILLISECONDS.toMicros(SystemClock.uptimeMillis() - receivedAt));
+                                replied.incrementAndGet();
+                            }
+
+                            @Override
+                            public void onReplyFailed(String fallbackReply) {
+                                defaultReplies.incrementAndGet();
+                                onReplyGenerated(fallbackReply);
+                            }
+                        }));
+        if (!queued) {
+            respondedMessages.release(messageId);
+            shed.incrementAndGet();
+        }
+    }
+
+    private long accountedFor() {
+        return filtered.get() + duplicates.get() + overQuota.get() + shed.get() + replied.get();
+    }
+
+    private void sample() {
+        peakPending.accumulateAndGet(replyScheduler.getPendingCount(), Math::max);
+        peakOldestPendingMillis.accumulateAndGet(replyScheduler.getOldestPendingAgeMillis(), Math::max);
+        peakThreads.accumulateAndGet(Thread.activeCount(), Math::max);
+    }
+
+    private static long usedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        runtime.runFinalization();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    public class Report {
+
+        public final int events;
+        public final long elapsedMillis;
+        public final long heapGrowthBytes;
+
+        Report(int events, long elapsedMillis, long heapGrowthBytes) {
+            this.events = events;
+            this.elapsedMillis = elapsedMillis;
+            this.heapGrowthBytes = heapGrowthBytes;
+        }
+
+        public long getRepliedCount() {
+            return replied.get();
+        }
+
+        public long getAccountedCount() {
+            return accountedFor();
+        }
+
+        /**
+         * @return replies produced per minute over the whole run, drain included
+         */
+        public double getRepliesPerMinute() {
+            return elapsedMillis == 0 ? 0 : replied.get() * 60_000.0 / elapsedMillis;
+        }
+
+        public String format() {
+            return String.format(Locale.US,
+                    "events=%d replied=%d (%d default) filtered=%d duplicates=%d over_quota=%d shed=%d unfinished=%d\n" +
+                            "throughput=%.1f replies/min over %.1f s\n" +
+                            "end_to_end p50=%.0f ms p99=%.0f ms max=%.0f ms\n" +
+                            "peak_pending=%d peak_oldest_pending=%d ms peak_threads=%d heap_growth=%d KiB\n" +
+                            "scheduler: %s\nrate_limiter: %s\n",
+                    events, replied.get(), defaultReplies.get(), filtered.get(), duplicates.get(), overQuota.get(), shed.get(),
+                    events - accountedFor(), getRepliesPerMinute(), elapsedMillis / 1000.0,
+                    endToEnd.getPercentileMicros(50) / 1000.0, endToEnd.getPercentileMicros(99) / 1000.0, endToEnd.getMaxMicros() / 1000.0,
+                    peakPending.get(), peakOldestPendingMillis.get(), peakThreads.get(), heapGrowthBytes / 1024,
+                    replyScheduler.getMetricsSummary(), httpTransport.getRateLimiter().getStatsSummary())
+                    + PipelineMetrics.getInstance().formatSince(metricsBaseline);
+        }
+    }
+}
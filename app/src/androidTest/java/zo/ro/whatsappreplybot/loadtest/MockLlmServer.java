@@ -0,0 +1,200 @@
+package zo.ro.whatsappreplybot.loadtest;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Local stand-in for the OpenAI-compatible, Ollama and custom reply APIs, with injectable
+ * latency and failures.
+ * <p>
+ * Streamed requests get their headers after a time to first token and the rest of the body
+ * spread over the remaining latency, the way a model produces tokens. Each request first rolls
+ * against the 429 rate, then the 5xx rate. Every provider is pointed here through
+ * {@link #redirectInterceptor()}, which keeps the path and swaps the host.
+ */
+public class MockLlmServer {
+
+    public static final String OPENAI_PATH = "/v1/chat/completions";
+    public static final String OLLAMA_PATH = "/api/chat";
+    public static final String CUSTOM_PATH = "/reply";
+
+    private static final String REPLY = "Thanks for your message! I'm away right now, I'll get back to you as soon as I can.";
+    private static final int STREAM_CHUNKS = 12;
+
+    private final MockWebServer server = new MockWebServer();
+    private final Random random;
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double errorRate;
+    private final double rateLimitRate;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong injectedRateLimits = new AtomicLong();
+
+    /**
+     * @param latencyMillis mean time to the complete reply
+     * @param jitterMillis  latency varies uniformly by up to this much either way
+     * @param errorRate     share of requests answered 500/503, 0 to 1
+     * @param rateLimitRate share of requests answered 429 with {@code Retry-After: 1}, 0 to 1
+     */
+    public MockLlmServer(long latencyMillis, long jitterMillis, double errorRate, double rateLimitRate, long seed) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.errorRate = errorRate;
+        this.rateLimitRate = rateLimitRate;
+        this.random = new Random(seed);
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return respond(request);
+            }
+        });
+    }
+
+    public void start() throws IOException {
+        server.start();
+    }
+
+    public void shutdown() throws IOException {
+        server.shutdown();
+    }
+
+    public String url(String path) {
+        return server.url(path).toString();
+    }
+
+    /**
+     * Sends every request to this server, whatever host the generator has configured.
+     */
+    public Interceptor redirectInterceptor() {
+        return chain -> {
+            HttpUrl mock = server.url("/");
+            HttpUrl url = chain.request().url().newBuilder()
+                    .scheme(mock.scheme())
+                    .host(mock.host())
+                    .port(mock.port())
+                    .build();
+            return chain.proceed(chain.request().newBuilder().url(url).build());
+        };
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    private MockResponse respond(RecordedRequest request) {
+        requests.incrementAndGet();
+        double roll;
+        long latency;
+        synchronized (random) {
+            roll = random.nextDouble();
+            latency = Math.max(0, latencyMillis + (long) ((random.nextDouble() * 2 - 1) * jitterMillis));
+        }
+
+        if (roll < rateLimitRate) {
+            injectedRateLimits.incrementAndGet();
+            return new MockResponse().setResponseCode(429).setHeader("Retry-After", "1")
+                    .setBody("{\"error\":{\"type\":\"rate_limit_exceeded\"}}");
+        }
+        if (roll < rateLimitRate + errorRate) {
+            injectedErrors.incrementAndGet();
+            return new MockResponse().setResponseCode(roll < rateLimitRate + errorRate / 2 ? 500 : 503)
+                    .setHeadersDelay(latency / 4, TimeUnit.MILLISECONDS)
+                    .setBody("{\"error\":{\"type\":\"server_error\"}}");
+        }
+
+        String path = request.getPath() == null ? "" : request.getPath();
+        String body = request.getBody().readUtf8();
+        boolean stream = body.contains("\"stream\":true");
+        try {
+            if (path.startsWith(OPENAI_PATH)) {
+                return stream ? streamed(sseBody(), "text/event-stream", latency) : complete(chatCompletion(), latency);
+            }
+            if (path.startsWith(OLLAMA_PATH)) {
+                return stream ? streamed(ndjsonBody(), "application/x-ndjson", latency) : complete(ollamaChat(), latency);
+            }
+            if (path.startsWith(CUSTOM_PATH)) {
+                return complete(new JSONObject().put("response", REPLY).toString(), latency);
+            }
+        } catch (JSONException e) {
+            return new MockResponse().setResponseCode(500).setBody(e.toString());
+        }
+        return new MockResponse().setResponseCode(404);
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public String getStatsSummary() {
+        return String.format(Locale.US, "%d requests, %d injected 5xx, %d injected 429",
+                requests.get(), injectedErrors.get(), injectedRateLimits.get());
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    private static MockResponse complete(String json, long latency) {
+        return new MockResponse().setHeader("Content-Type", "application/json")
+                .setHeadersDelay(latency, TimeUnit.MILLISECONDS)
+                .setBody(json);
+    }
+
+    /**
+     * Headers after about a third of the latency, then the body in even slices over the rest.
+     */
+    private static MockResponse streamed(String body, String contentType, long latency) {
+        long firstToken = latency / 3;
+        long perChunk = Math.max(1, (latency - firstToken) / STREAM_CHUNKS);
+        int bytesPerChunk = Math.max(1, body.length() / STREAM_CHUNKS + 1);
+        return new MockResponse().setHeader("Content-Type", contentType)
+                .setHeadersDelay(firstToken, TimeUnit.MILLISECONDS)
+                .throttleBody(bytesPerChunk, perChunk, TimeUnit.MILLISECONDS)
+                .setBody(body);
+    }
+
+    private static String chatCompletion() throws JSONException {
+        JSONObject message = new JSONObject().put("role", "assistant").put("content", REPLY);
+        JSONObject choice = new JSONObject().put("index", 0).put("message", message).put("finish_reason", "stop");
+        return new JSONObject().put("id", "chatcmpl-load-test").put("object", "chat.completion")
+                .put("choices", new JSONArray().put(choice)).toString();
+    }
+
+    private static String sseBody() throws JSONException {
+        StringBuilder body = new StringBuilder();
+        for (String word : REPLY.split("(?<= )")) {
+            JSONObject delta = new JSONObject().put("content", word);
+            JSONObject choice = new JSONObject().put("index", 0).put("delta", delta);
+            body.append("data: ").append(new JSONObject().put("object", "chat.completion.chunk")
+                    .put("choices", new JSONArray().put(choice))).append("\n\n");
+        }
+        return body.append("data: [DONE]\n\n").toString();
+    }
+
+    private static String ollamaChat() throws JSONException {
+        return new JSONObject().put("model", "load-test")
+                .put("message", new JSONObject().put("role", "assistant").put("content", REPLY))
+                .put("done", true).toString();
+    }
+
+    private static String ndjsonBody() throws JSONException {
+        StringBuilder body = new StringBuilder();
+        for (String word : REPLY.split("(?<= )")) {
+            body.append(new JSONObject().put("model", "load-test")
+                    .put("message", new JSONObject().put("role", "assistant").put("content", word))
+                    .put("done", false)).append('\n');
+        }
+        return body.append(new JSONObject().put("model", "load-test").put("done", true)).append('\n').toString();
+    }
+}
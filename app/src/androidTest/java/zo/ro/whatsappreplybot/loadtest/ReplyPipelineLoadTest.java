@@ -0,0 +1,157 @@
+package zo.ro.whatsappreplybot.loadtest;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.List;
+
+import zo.ro.whatsappreplybot.helpers.DatabaseHelper;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Replays a synthetic notification stream through the reply pipeline of every provider that
+ * talks HTTP through {@code HttpTransport}, against {@link MockLlmServer}, and logs a report.
+ * Gemini is left out: its SDK has its own HTTP stack that can't be redirected.
+ * <p>
+ * Each run takes minutes, so it is skipped unless the loadTest argument is true. Every knob is
+ * an instrumentation argument, for example:
+ * <pre>
+ * ./gradlew connectedAndroidTest \
+ *     -Pandroid.testInstrumentationRunnerArguments.class=zo.ro.whatsappreplybot.loadtest.ReplyPipelineLoadTest \
+ *     -Pandroid.testInstrumentationRunnerArguments.loadTest=true \
+ *     -Pandroid.testInstrumentationRunnerArguments.rate=600 \
+ *     -Pandroid.testInstrumentationRunnerArguments.distribution=zipf
+ * </pre>
+ * The report is logged under the MADARA tag. Messages go to a database of their own that is
+ * deleted afterwards.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ReplyPipelineLoadTest {
+
+    private static final String TAG = "MADARA";
+    private static final String PREFERENCES_NAME = "load_test";
+    private static final String DATABASE_NAME = "load_test.db";
+
+    private Context context;
+    private Bundle arguments;
+    private SharedPreferences sharedPreferences;
+    private DatabaseHelper dbHelper;
+    private MockLlmServer server;
+    private LoadTestPipeline pipeline;
+    private List<SyntheticNotificationStream.Event> events;
+
+    @Before
+    public void setUp() throws IOException {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        arguments = InstrumentationRegistry.getArguments();
+        assumeTrue("load test not enabled, pass the loadTest=true instrumentation argument", getBoolean("loadTest", false));
+
+        server = new MockLlmServer(getLong("latencyMs", 800), getLong("jitterMs", 400),
+                getDouble("errorRate", 0.02), getDouble("rateLimitRate", 0.01), getLong("seed", 42));
+        server.start();
+
+        SyntheticNotificationStream.SenderDistribution distribution = "zipf".equalsIgnoreCase(arguments.getString("distribution"))
+                ? SyntheticNotificationStream.SenderDistribution.ZIPF : SyntheticNotificationStream.SenderDistribution.UNIFORM;
+        events = new SyntheticNotificationStream((int) getLong("rate", 120), (int) getLong("durationSeconds", 60),
+                (int) getLong("senders", 50), distribution, getDouble("groupShare", 0.2),
+                getDouble("statusShare", 0.1), getDouble("repostShare", 0.1), getLong("seed", 42)).generate();
+
+        // A separate preferences file, so the load test never touches the user's settings
+        sharedPreferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        sharedPreferences.edit().clear()
+                .putString("api_key", "load-test")
+                .putString("max_reply", "1000000")
+                .putString("ollama_api_url", server.url(MockLlmServer.OLLAMA_PATH))
+                .putString("custom_api_url", server.url(MockLlmServer.CUSTOM_PATH))
+                .putString("custom_api_request_format", "json")
+                .putString("custom_api_response_key", "response")
+                .putBoolean("is_streaming_enabled", getBoolean("streaming", true))
+                .putBoolean("is_reply_cache_enabled", getBoolean("replyCache", false))
+                .commit();
+
+        context.deleteDatabase(DATABASE_NAME);
+        dbHelper = new DatabaseHelper(context, DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException {
+        // Also runs when setUp skipped the test
+        if (pipeline != null) {
+            // Waits for the queued inserts, so none lands after the database is gone
+            pipeline.shutdown();
+        }
+        if (server != null) {
+            server.shutdown();
+        }
+        if (sharedPreferences != null) {
+            sharedPreferences.edit().clear().commit();
+        }
+        if (dbHelper != null) {
+            dbHelper.close();
+            context.deleteDatabase(DATABASE_NAME);
+        }
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    @Test
+    public void chatGpt() throws InterruptedException {
+        runLoad("gpt-4o-mini");
+    }
+
+    @Test
+    public void deepSeek() throws InterruptedException {
+        runLoad("deepseek-chat");
+    }
+
+    @Test
+    public void ollama() throws InterruptedException {
+        runLoad("llama3.2");
+    }
+
+    @Test
+    public void custom() throws InterruptedException {
+        runLoad("custom");
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    private void runLoad(String llmModel) throws InterruptedException {
+        sharedPreferences.edit().putString("llm_model", llmModel).commit();
+        pipeline = new LoadTestPipeline(context, sharedPreferences, server, dbHelper);
+
+        LoadTestPipeline.Report report = pipeline.run(events, getLong("drainSeconds", 120) * 1000);
+        Log.i(TAG, "Load test " + llmModel + ", " + events.size() + " events\n" + report.format() + "mock server: " + server.getStatsSummary());
+
+        assertEquals("every event should be answered or dropped", report.events, report.getAccountedCount());
+        assertTrue(report.getRepliedCount() > 0);
+    }
+
+    private long getLong(String key, long defaultValue) {
+        String value = arguments.getString(key);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    private double getDouble(String key, double defaultValue) {
+        String value = arguments.getString(key);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    private boolean getBoolean(String key, boolean defaultValue) {
+        String value = arguments.getString(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
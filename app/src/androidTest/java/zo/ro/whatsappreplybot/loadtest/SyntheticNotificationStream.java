@@ -0,0 +1,144 @@
+package zo.ro.whatsappreplybot.loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A reproducible stream of WhatsApp notifications at a given average rate.
+ * <p>
+ * Arrivals are Poisson, so messages bunch up the way real ones do rather than arriving on a
+ * fixed beat. Senders are drawn uniformly or Zipf-distributed (a few chatty contacts and a long
+ * tail), a share of them are group chats, and a share of the notifications are status updates
+ * or re-posts of an earlier message that the pipeline is expected to drop.
+ */
+public class SyntheticNotificationStream {
+
+    public enum SenderDistribution {UNIFORM, ZIPF}
+
+    public static final String SENDER_PREFIX = "Load test ";
+
+    private static final double ZIPF_EXPONENT = 1.1;
+    private static final String[] MESSAGES = {
+            "Hey, are you free this evening?",
+            "Did you get the tickets for Saturday?",
+            "Can you call me when you're back?",
+            "What time should we meet tomorrow?",
+            "Thanks for yesterday, it was great!",
+            "Are we still on for lunch on Friday?",
+            "Please send me the address again",
+            "Happy birthday!! Have an amazing day",
+    };
+    private static final String[] STATUS_TEXTS = {"Typing...", "online", "Delivered"};
+
+    private final int messagesPerMinute;
+    private final int durationSeconds;
+    private final int senderCount;
+    private final SenderDistribution distribution;
+    private final double groupShare;
+    private final double statusShare;
+    private final double repostShare;
+    private final long seed;
+
+    /**
+     * @param groupShare  share of senders that are group chats, 0 to 1
+     * @param statusShare share of notifications that are status updates, 0 to 1
+     * @param repostShare share of notifications that re-post a sender's previous message, 0 to 1
+     */
+    public SyntheticNotificationStream(int messagesPerMinute, int durationSeconds, int senderCount, SenderDistribution distribution,
+                                       double groupShare, double statusShare, double repostShare, long seed) {
+        this.messagesPerMinute = messagesPerMinute;
+        this.durationSeconds = durationSeconds;
+        this.senderCount = senderCount;
+        this.distribution = distribution;
+        this.groupShare = groupShare;
+        this.statusShare = statusShare;
+        this.repostShare = repostShare;
+        this.seed = seed;
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    public List<Event> generate() {
+        Random random = new Random(seed);
+        String[] senders = new String[senderCount];
+        String[] lastTexts = new String[senderCount];
+        for (int i = 0; i < senderCount; i++) {
+            // Group notifications are titled "Group: Member"
+            senders[i] = random.nextDouble() < groupShare ? SENDER_PREFIX + "group " + i + ": Member" : SENDER_PREFIX + i;
+        }
+        double[] cumulative = cumulativeWeights();
+
+        List<Event> events = new ArrayList<>();
+        double meanGapMillis = 60_000.0 / messagesPerMinute;
+        double at = 0;
+        int sequence = 0;
+        while (true) {
+            at += -Math.log(1 - random.nextDouble()) * meanGapMillis;
+            if (at >= durationSeconds * 1000L) {
+                break;
+            }
+            int index = pickSender(random, cumulative);
+            String text;
+            double roll = random.nextDouble();
+            if (roll < statusShare) {
+                text = STATUS_TEXTS[random.nextInt(STATUS_TEXTS.length)];
+            } else if (roll < statusShare + repostShare && lastTexts[index] != null) {
+                text = lastTexts[index];
+            } else {
+                text = MESSAGES[random.nextInt(MESSAGES.length)] + " #" + sequence++;
+                lastTexts[index] = text;
+            }
+            // WhatsApp keeps one notification per chat
+            events.add(new Event((long) at, senders[index], text, "0|com.whatsapp|1|load-test-" + index + "|10123"));
+        }
+        return events;
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    private double[] cumulativeWeights() {
+        double[] cumulative = new double[senderCount];
+        double total = 0;
+        for (int i = 0; i < senderCount; i++) {
+            total += distribution == SenderDistribution.ZIPF ? 1 / Math.pow(i + 1, ZIPF_EXPONENT) : 1;
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < senderCount; i++) {
+            cumulative[i] /= total;
+        }
+        return cumulative;
+    }
+
+    private static int pickSender(Random random, double[] cumulative) {
+        double target = random.nextDouble();
+        int low = 0;
+        int high = cumulative.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (cumulative[middle] < target) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    public static class Event {
+
+        public final long atMillis;
+        public final String sender;
+        public final String text;
+        public final String notificationKey;
+
+        Event(long atMillis, String sender, String text, String notificationKey) {
+            this.atMillis = atMillis;
+            this.sender = sender;
+            this.text = text;
+            this.notificationKey = notificationKey;
+        }
+    }
+}
@@ -12,6 +12,7 @@ import android.view.View;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.content.res.AppCompatResources;
 import androidx.preference.EditTextPreference;
+import androidx.preference.Preference;
 import androidx.preference.PreferenceFragmentCompat;
 import androidx.preference.PreferenceManager;
 
@@ -79,6 +80,21 @@ public class BotSettingsActivity extends AppCompatActivity {
                 });
             }
 
+            // Reply, dedup, prompt, cache, rate, breaker and retention limits are whole numbers
+            for (String key : new String[]{"coalescing_window_seconds", "coalescing_max_wait_seconds", "dedup_window_minutes",
+                    "max_reply_sentences", "max_reply_characters",
+                    "prompt_token_budget", "reply_cache_ttl_hours", "similar_reply_threshold",
+                    "rate_limit_requests_per_minute", "rate_limit_tokens_per_minute", "circuit_breaker_failure_rate",
+                    "retention_days", "retention_max_per_sender", "retention_max_db_size_mb"}) {
+                EditTextPreference limitPreference = findPreference(key);
+                if (limitPreference != null) {
+                    limitPreference.setOnBindEditTextListener(editText -> {
+                        editText.setInputType(InputType.TYPE_CLASS_NUMBER);
+                        editText.setFilters(new InputFilter[]{new InputFilterMinMax(0, 999999)});
+                    });
+                }
+            }
+
             // Add validation for custom delay
             EditTextPreference customDelayPreference = findPreference("custom_delay_seconds");
             if (customDelayPreference != null) {
@@ -88,6 +104,14 @@ public class BotSettingsActivity extends AppCompatActivity {
                 });
             }
 
+            Preference diagnosticsPreference = findPreference("diagnostics");
+            if (diagnosticsPreference != null) {
+                diagnosticsPreference.setOnPreferenceClickListener(preference -> {
+                    startActivity(new Intent(requireContext(), DiagnosticsActivity.class));
+                    return true;
+                });
+            }
+
             // Configure custom prompt to allow multi-line input
             EditTextPreference customPromptPreference = findPreference("custom_ai_prompt");
             if (customPromptPreference != null) {
@@ -0,0 +1,78 @@
+package zo.ro.whatsappreplybot.activities;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.View;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.content.res.AppCompatResources;
+
+import com.google.android.material.appbar.MaterialToolbar;
+
+import org.json.JSONException;
+
+import zo.ro.whatsappreplybot.R;
+import zo.ro.whatsappreplybot.helpers.PipelineMetrics;
+
+/**
+ * Shows where the time of each reply goes, stage by stage, and shares the snapshot as JSON.
+ */
+public class DiagnosticsActivity extends AppCompatActivity {
+
+    private static final String TAG = "MADARA";
+    private TextView diagnosticsTV;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_diagnostics);
+
+        diagnosticsTV = findViewById(R.id.diagnosticsTV);
+
+        findViewById(R.id.refreshBtn).setOnClickListener(v -> refresh());
+
+        findViewById(R.id.resetBtn).setOnClickListener(v -> {
+            PipelineMetrics.getInstance().reset();
+            refresh();
+        });
+
+        findViewById(R.id.exportBtn).setOnClickListener(v -> exportSnapshot());
+
+//        ------------------------------------------------------------------------------------------
+
+        View included_toolbar = findViewById(R.id.toolbar_include);
+        MaterialToolbar toolbar = included_toolbar.findViewById(R.id.toolbar);
+        toolbar.setTitleCentered(false);
+        toolbar.setTitle(getString(R.string.diagnostics_title));
+        toolbar.setNavigationIcon(AppCompatResources.getDrawable(this, R.drawable.arrow_back_24));
+        toolbar.setNavigationOnClickListener(v -> onBackPressed());
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        refresh();
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    private void refresh() {
+        diagnosticsTV.setText(PipelineMetrics.getInstance().formatSnapshot());
+    }
+
+    private void exportSnapshot() {
+        try {
+            Intent intent = new Intent(Intent.ACTION_SEND);
+            intent.setType("application/json");
+            intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.diagnostics_title));
+            intent.putExtra(Intent.EXTRA_TEXT, PipelineMetrics.getInstance().toJson().toString(2));
+            startActivity(Intent.createChooser(intent, getString(R.string.diagnostics_export)));
+        } catch (JSONException e) {
+            Log.e(TAG, "exportSnapshot: ", e);
+            Toast.makeText(this, e.getMessage(), Toast.LENGTH_SHORT).show();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package zo.ro.whatsappreplybot.apis;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import zo.ro.whatsappreplybot.helpers.CustomMethods;
+import zo.ro.whatsappreplybot.helpers.NearDuplicateIndex;
+import zo.ro.whatsappreplybot.helpers.ReplyCache;
+
+/**
+ * Answers short repeated messages from the {@link ReplyCache} and near-duplicates of recently
+ * answered messages from the {@link NearDuplicateIndex}, and only falls through to the wrapped
+ * engine when both miss, so a hit never touches the network. Senders listed in
+ * {@code reply_cache_excluded_senders} always get a freshly generated reply.
+ * <p>
+ * The exact cache is shared by all senders, so replies that mention the sender's name are
+ * never stored in it.
+ * <p>
+ * Near-duplicate reuse is off unless {@code similar_reply_threshold} is set. A reuse is only
+ * ever drawn from the same sender's earlier messages, since the reply was generated from that
+ * conversation's history.
+ */
+public class CachingReplyEngine implements ReplyEngine {
+
+    private static final String TAG = "MADARA";
+    private static final int STATS_LOG_INTERVAL = 50;
+    private final ReplyEngine delegate;
+    private final ReplyCache replyCache;
+    private final NearDuplicateIndex nearDuplicateIndex;
+    private final ReplyProvider provider;
+    private final String llmModel;
+    private final String aiReplyLanguage;
+    private final String promptSource;
+    private final String scope;
+    private final long ttlMillis;
+    private final int maxSimilarDistance;
+    private final Set<String> excludedSenders;
+
+    public CachingReplyEngine(ReplyEngine delegate, ReplyCache replyCache, NearDuplicateIndex nearDuplicateIndex, ReplyProvider provider, SharedPreferences sharedPreferences) {
+        this.delegate = delegate;
+        this.replyCache = replyCache;
+        this.nearDuplicateIndex = nearDuplicateIndex;
+        this.provider = provider;
+        llmModel = sharedPreferences.getString("llm_model", "gpt-4o-mini");
+        aiReplyLanguage = sharedPreferences.getString("ai_reply_language", "English");
+        // The default prompt depends on the bot name, a custom prompt replaces it
+        promptSource = sharedPreferences.getString("custom_ai_prompt", "").trim() + '\u0000' + sharedPreferences.getString("bot_name", "Yuji");
+        ttlMillis = TimeUnit.HOURS.toMillis(Math.max(1, CustomMethods.getIntPreference(sharedPreferences, "reply_cache_ttl_hours", 24)));
+        excludedSenders = CustomMethods.parseContactList(sharedPreferences.getString("reply_cache_excluded_senders", ""));
+        scope = ReplyCache.buildKey("", provider.name(), llmModel, promptSource, aiReplyLanguage);
+        // Similarity in percent of matching SimHash bits, 0 turns near-duplicate matching off
+        int threshold = Math.min(100, CustomMethods.getIntPreference(sharedPreferences, "similar_reply_threshold", 0));
+        maxSimilarDistance = threshold <= 0 ? -1
+                : Math.min(NearDuplicateIndex.MAX_SAFE_DISTANCE, Math.round(64 * (100 - threshold) / 100f));
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    @Override
+    public void generateReply(String sender, String message, OnReplyGeneratedListener listener) {
+
+        if (sender != null && excludedSenders.contains(sender.trim().toLowerCase(Locale.ROOT))) {
+            delegate.generateReply(sender, message, listener);
+            return;
+        }
+
+        String normalized = ReplyCache.normalize(message);
+
+        if (normalized == null) {
+            generateOrReuseSimilar(sender, message, null, listener);
+            return;
+        }
+
+        String cacheKey = ReplyCache.buildKey(normalized, provider.name(), llmModel, promptSource, aiReplyLanguage);
+
+        boolean queued = replyCache.lookup(cacheKey, ttlMillis, cachedReply -> {
+            if (cachedReply != null) {
+                Log.d(TAG, "generateReply: reply cache hit for \"" + normalized + "\"");
+                listener.onReplyGenerated(cachedReply);
+                return;
+            }
+            generateOrReuseSimilar(sender, message, cacheKey, listener);
+        });
+
+        if (!queued) {
+            delegate.generateReply(sender, message, listener);
+        }
+    }
+
+    /**
+     * @param cacheKey exact cache key to store the generated reply under, null if the message isn't cacheable
+     */
+    private void generateOrReuseSimilar(String sender, String message, String cacheKey, OnReplyGeneratedListener listener) {
+
+        // Null when near-duplicate reuse is off or the sender is unknown
+        String similarScope = maxSimilarDistance < 0 || sender == null ? null : scope + '\u0000' + sender;
+
+        if (similarScope != null) {
+            String similarReply = nearDuplicateIndex.findSimilar(similarScope, message, maxSimilarDistance, ttlMillis);
+            if (similarReply != null) {
+                Log.d(TAG, "generateReply: near-duplicate hit, " + nearDuplicateIndex.getStatsSummary());
+                listener.onReplyGenerated(similarReply);
+                return;
+            }
+            if (nearDuplicateIndex.getLookupCount() % STATS_LOG_INTERVAL == 0) {
+                Log.d(TAG, "generateReply: near-duplicate index " + nearDuplicateIndex.getStatsSummary());
+            }
+        }
+
+        delegate.generateReply(sender, message, new OnReplyGeneratedListener() {
+            @Override
+            public void onReplyGenerated(String reply) {
+                // The exact cache is shared by all senders, a reply naming this one stays out of it
+                if (cacheKey != null && !ReplyCache.mentionsSender(reply, sender)) {
+                    replyCache.store(cacheKey, reply, ttlMillis);
+                }
+                if (similarScope != null) {
+                    nearDuplicateIndex.add(similarScope, message, reply);
+                }
+                listener.onReplyGenerated(reply);
+            }
+
+            @Override
+            public void onReplyFailed(String fallbackReply) {
+                // The fallback after a failure must not be served to later messages
+                listener.onReplyFailed(fallbackReply);
+            }
+        });
+    }
+}
@@ -0,0 +1,249 @@
+package zo.ro.whatsappreplybot.apis;
+
+import java.io.IOException;
+import java.util.List;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+import zo.ro.whatsappreplybot.models.Message;
+
+/**
+ * Writes chat request bodies straight into the connection's sink.
+ * <p>
+ * Everything that is the same for every request of one generator (the model, the stream flag,
+ * provider options and the system message) is encoded once into a prefix. Per request only the
+ * turns are escaped, directly into OkHttp's pooled segments, with no JSON tree, String or byte
+ * array in between. The exact length is known before writing, so the request keeps its
+ * Content-Length and the rate limiter its size estimate, and the body can be written again
+ * when the request is retried. Plain Java like {@link ReplyParsers}.
+ */
+public class ChatRequestWriter {
+
+    public static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    private static final ByteString USER_TURN = ByteString.encodeUtf8(",{\"role\":\"user\",\"content\":");
+    private static final ByteString ASSISTANT_TURN = ByteString.encodeUtf8(",{\"role\":\"assistant\",\"content\":");
+    private static final String SENDER_SEPARATOR = ": ";
+    private static final ByteString SUFFIX = ByteString.encodeUtf8("]}");
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+    private final String instructions;
+    private final ByteString prefix;
+
+    /**
+     * @param instructions the system message, the same string the prompts are built with
+     * @param options      extra string fields as key, value pairs, e.g. Ollama's keep_alive
+     */
+    public ChatRequestWriter(String model, boolean stream, String instructions, String... options) {
+        this.instructions = instructions;
+        try {
+            prefix = encodePrefix(model, stream, instructions, options);
+        } catch (IOException e) {
+            // Writing to a Buffer doesn't fail
+            throw new AssertionError(e);
+        }
+    }
+
+    public String getInstructions() {
+        return instructions;
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * The conversation as a chat completions "messages" array: the system message, then each
+     * kept turn oldest first as a user message and its assistant reply, then the latest message.
+     * User messages are written as "sender: text" so the model knows who is speaking, also in
+     * groups. The latest message is labelled the same way it will be once it is history, so the
+     * system message and older turns stay byte-identical between consecutive requests and
+     * providers with prefix caching can reuse them.
+     *
+     * @param sender who sent the latest message, null to leave it unlabelled
+     * @param prompt built from {@link #getInstructions()}
+     */
+    public RequestBody newBody(String sender, PromptBuilder.Prompt prompt) {
+        if (!instructions.equals(prompt.getInstructions())) {
+            throw new IllegalArgumentException("Prompt was built with other instructions");
+        }
+        return new ChatBody(prompt.getTurns(), sender, prompt.getMessage());
+    }
+
+    /**
+     * @return the UTF-8 size of the string once quoted and escaped by {@link #writeString}
+     */
+    static long stringSize(String text) {
+        return 2 + escapedSize(text);
+    }
+
+    private static long escapedSize(String text) {
+        if (text == null) {
+            return 0;
+        }
+        long size = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                size += c == '"' || c == '\\' || c == '\n' || c == '\r' || c == '\t' || c == '\b' || c == '\f' ? 2
+                        : c < 0x20 ? 6 : 1;
+            } else if (c < 0x800) {
+                size += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                size += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // okio writes an unpaired surrogate as '?'
+                size += 1;
+            } else {
+                size += 3;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Writes the string quoted and escaped. Runs without escapes go to the sink in one UTF-8 write.
+     */
+    static void writeString(BufferedSink sink, String text) throws IOException {
+        sink.writeByte('"');
+        writeEscaped(sink, text);
+        sink.writeByte('"');
+    }
+
+    private static void writeEscaped(BufferedSink sink, String text) throws IOException {
+        if (text != null) {
+            int length = text.length();
+            int start = 0;
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    continue;
+                }
+                if (i > start) {
+                    sink.writeUtf8(text, start, i);
+                }
+                sink.writeByte('\\');
+                switch (c) {
+                    case '"':
+                    case '\\':
+                        sink.writeByte(c);
+                        break;
+                    case '\n':
+                        sink.writeByte('n');
+                        break;
+                    case '\r':
+                        sink.writeByte('r');
+                        break;
+                    case '\t':
+                        sink.writeByte('t');
+                        break;
+                    case '\b':
+                        sink.writeByte('b');
+                        break;
+                    case '\f':
+                        sink.writeByte('f');
+                        break;
+                    default:
+                        sink.writeByte('u').writeByte('0').writeByte('0').writeByte(HEX[c >> 4]).writeByte(HEX[c & 0xf]);
+                }
+                start = i + 1;
+            }
+            if (start < length) {
+                sink.writeUtf8(text, start, length);
+            }
+        }
+    }
+
+    private static ByteString encodePrefix(String model, boolean stream, String instructions, String[] options) throws IOException {
+        Buffer buffer = new Buffer();
+        buffer.writeUtf8("{\"model\":");
+        writeString(buffer, model);
+        buffer.writeUtf8(",\"stream\":").writeUtf8(String.valueOf(stream));
+        for (int i = 0; i + 1 < options.length; i += 2) {
+            buffer.writeByte(',');
+            writeString(buffer, options[i]);
+            buffer.writeByte(':');
+            writeString(buffer, options[i + 1]);
+        }
+        buffer.writeUtf8(",\"messages\":[{\"role\":\"system\",\"content\":");
+        writeString(buffer, instructions);
+        buffer.writeByte('}');
+        return buffer.readByteString();
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    private class ChatBody extends RequestBody {
+
+        private final List<Message> turns;
+        private final String sender;
+        private final String message;
+        private final long contentLength;
+
+        ChatBody(List<Message> turns, String sender, String message) {
+            this.turns = turns;
+            this.sender = sender;
+            this.message = message;
+            long length = prefix.size() + userTurnSize(sender, message) + SUFFIX.size();
+            for (Message turn : turns) {
+                length += userTurnSize(turn.getSender(), turn.getMessage());
+                if (turn.getReply() != null) {
+                    length += ASSISTANT_TURN.size() + stringSize(turn.getReply()) + 1;
+                }
+            }
+            contentLength = length;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return JSON;
+        }
+
+        @Override
+        public long contentLength() {
+            return contentLength;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            sink.write(prefix);
+            // Turns are kept newest first
+            for (int i = turns.size() - 1; i >= 0; i--) {
+                Message turn = turns.get(i);
+                writeUserTurn(sink, turn.getSender(), turn.getMessage());
+                if (turn.getReply() != null) {
+                    writeTurn(sink, ASSISTANT_TURN, turn.getReply());
+                }
+            }
+            writeUserTurn(sink, sender, message);
+            sink.write(SUFFIX);
+        }
+
+        private long userTurnSize(String from, String content) {
+            long size = USER_TURN.size() + stringSize(content) + 1;
+            return from == null ? size : size + escapedSize(from) + SENDER_SEPARATOR.length();
+        }
+
+        private void writeUserTurn(BufferedSink sink, String from, String content) throws IOException {
+            if (from == null) {
+                writeTurn(sink, USER_TURN, content);
+                return;
+            }
+            sink.write(USER_TURN);
+            sink.writeByte('"');
+            writeEscaped(sink, from);
+            sink.writeUtf8(SENDER_SEPARATOR);
+            writeEscaped(sink, content);
+            sink.writeByte('"').writeByte('}');
+        }
+
+        private void writeTurn(BufferedSink sink, ByteString role, String content) throws IOException {
+            sink.write(role);
+            writeString(sink, content);
+            sink.writeByte('}');
+        }
+    }
+}
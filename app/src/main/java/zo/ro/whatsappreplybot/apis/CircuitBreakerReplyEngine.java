@@ -0,0 +1,50 @@
+package zo.ro.whatsappreplybot.apis;
+
+import android.util.Log;
+
+import zo.ro.whatsappreplybot.helpers.CircuitBreaker;
+
+/**
+ * Guards one generator with its provider's {@link CircuitBreaker}. While the breaker is open the
+ * call fails at once, so a failover chain moves on without waiting for timeouts. Only failures
+ * the generator reports count against the breaker, never what the reply says.
+ */
+public class CircuitBreakerReplyEngine implements ReplyEngine {
+
+    private static final String TAG = "MADARA";
+    private final ReplyEngine delegate;
+    private final CircuitBreaker circuitBreaker;
+    private final String defaultReplyMessage;
+
+    public CircuitBreakerReplyEngine(ReplyEngine delegate, CircuitBreaker circuitBreaker, String defaultReplyMessage) {
+        this.delegate = delegate;
+        this.circuitBreaker = circuitBreaker;
+        this.defaultReplyMessage = defaultReplyMessage;
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    @Override
+    public void generateReply(String sender, String message, OnReplyGeneratedListener listener) {
+
+        if (!circuitBreaker.allowRequest()) {
+            Log.d(TAG, "generateReply: circuit open, " + circuitBreaker.getStatsSummary());
+            listener.onReplyFailed(defaultReplyMessage);
+            return;
+        }
+
+        delegate.generateReply(sender, message, new OnReplyGeneratedListener() {
+            @Override
+            public void onReplyGenerated(String reply) {
+                circuitBreaker.onSuccess();
+                listener.onReplyGenerated(reply);
+            }
+
+            @Override
+            public void onReplyFailed(String fallbackReply) {
+                circuitBreaker.onFailure();
+                listener.onReplyFailed(fallbackReply);
+            }
+        });
+    }
+}
@@ -10,7 +10,6 @@ import org.json.JSONObject;
 
 import java.io.IOException;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 import okhttp3.Call;
 import okhttp3.Callback;
@@ -21,57 +20,76 @@ import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.BufferedSource;
 import zo.ro.whatsappreplybot.R;
 import zo.ro.whatsappreplybot.helpers.CustomMethods;
+import zo.ro.whatsappreplybot.helpers.PipelineMetrics;
 import zo.ro.whatsappreplybot.helpers.WhatsAppMessageHandler;
 import zo.ro.whatsappreplybot.models.Message;
 
-public class CustomReplyGenerator {
+public class CustomReplyGenerator implements ReplyEngine {
 
     private final String API_URL;
     private static final String TAG = "MADARA";
+    private static final String PROVIDER = ReplyProvider.CUSTOM.name();
     private final String API_KEY;
     private final String LLM_MODEL;
     private final WhatsAppMessageHandler messageHandler;
     private final String defaultReplyMessage;
     private final String aiReplyLanguage;
-    private final String responseKey;
+    private final JsonPath responseKey;
     private final String requestFormat;
     private final String customPrompt;
     private final String botName;
     private final Context context;
+    private final OkHttpClient client;
+    private final StreamingReplyReader replyReader;
+    private final PromptBuilder promptBuilder;
+    private final PipelineMetrics metrics = PipelineMetrics.getInstance();
 
-    public CustomReplyGenerator(Context context, SharedPreferences sharedPreferences, WhatsAppMessageHandler whatsAppMessageHandler) {
+    public CustomReplyGenerator(Context context, SharedPreferences sharedPreferences, WhatsAppMessageHandler whatsAppMessageHandler, HttpTransport httpTransport) {
+        this(context, sharedPreferences, whatsAppMessageHandler, httpTransport, null);
+    }
+
+    /**
+     * @param llmModel model to call instead of the {@code llm_model} preference, e.g. as a failover
+     */
+    public CustomReplyGenerator(Context context, SharedPreferences sharedPreferences, WhatsAppMessageHandler whatsAppMessageHandler, HttpTransport httpTransport, String llmModel) {
         this.context = context;
         this.messageHandler = whatsAppMessageHandler;
-        API_KEY = sharedPreferences.getString("api_key", "").trim();
-        LLM_MODEL = sharedPreferences.getString("llm_model", "custom-gpt-4o");
+        this.client = httpTransport.getClient();
+        API_KEY = ReplyProvider.CUSTOM.getApiKey(sharedPreferences);
+        LLM_MODEL = llmModel != null ? llmModel : sharedPreferences.getString("llm_model", "custom-gpt-4o");
         defaultReplyMessage = sharedPreferences.getString("default_reply_message", context.getString(R.string.default_bot_message));
         aiReplyLanguage = sharedPreferences.getString("ai_reply_language", "English");
         botName = sharedPreferences.getString("bot_name", "Yuji");
         customPrompt = sharedPreferences.getString("custom_ai_prompt", "").trim();
+        // Non-streamed replies still honour the configured length limits
+        replyReader = new StreamingReplyReader(
+                CustomMethods.getIntPreference(sharedPreferences, "max_reply_sentences", 0),
+                CustomMethods.getIntPreference(sharedPreferences, "max_reply_characters", 0));
+        promptBuilder = ReplyProvider.CUSTOM.newPromptBuilder(
+                CustomMethods.getIntPreference(sharedPreferences, "prompt_token_budget", 0));
         // Get custom API URL from settings, fallback to default if not set
         String customUrl = sharedPreferences.getString("custom_api_url", context.getString(R.string.default_custom_api_url)).trim();
         API_URL = customUrl.isEmpty() ? context.getString(R.string.default_custom_api_url) : customUrl;
-        // Get response key from settings, default to "response"
-        responseKey = sharedPreferences.getString("custom_api_response_key", context.getString(R.string.default_response_key)).trim();
+        // Get response key from settings, a path like data.choices[0].text, default to "response"
+        responseKey = compileResponseKey(sharedPreferences.getString("custom_api_response_key", context.getString(R.string.default_response_key)).trim());
         // Get request format (json or form), default to "form"
         requestFormat = sharedPreferences.getString("custom_api_request_format", "form").toLowerCase();
     }
 
-    public void generateReply(String sender, String message, CustomReplyGenerator.OnReplyGeneratedListener listener) {
+    @Override
+    public void generateReply(String sender, String message, OnReplyGeneratedListener listener) {
 
-        new Thread(() -> messageHandler.getMessagesHistory(sender, messages -> {
+        long historyStart = PipelineMetrics.start();
 
-            StringBuilder chatHistory = getChatHistory(messages);
-            StringBuilder prompt = buildPrompt(sender, message, chatHistory);
+        messageHandler.getMessagesHistory(sender, messages -> {
 
+            metrics.record(PipelineMetrics.Stage.HISTORY_LOAD, PROVIDER, LLM_MODEL, historyStart);
 
-            OkHttpClient client = new OkHttpClient.Builder()
-                    .connectTimeout(30, TimeUnit.SECONDS)  // Set connect timeout
-                    .readTimeout(30, TimeUnit.SECONDS)     // Set read timeout
-                    .writeTimeout(30, TimeUnit.SECONDS)    // Set write timeout
-                    .build();
+            long buildStart = PipelineMetrics.start();
+            String prompt = buildPrompt(sender, message, messages);
 
             RequestBody requestBody;
             Request.Builder requestBuilder = new Request.Builder().url(API_URL);
@@ -80,7 +98,7 @@ public class CustomReplyGenerator {
             if ("json".equals(requestFormat)) {
                 try {
                     JSONObject jsonBody = new JSONObject();
-                    jsonBody.put("prompt", prompt.toString());
+                    jsonBody.put("prompt", prompt);
                     jsonBody.put("model", LLM_MODEL);
                     
                     MediaType JSON = MediaType.get("application/json; charset=utf-8");
@@ -90,14 +108,14 @@ public class CustomReplyGenerator {
                     Log.e(TAG, "Error creating JSON request body: ", e);
                     // Fallback to form data if JSON creation fails
                     requestBody = new FormBody.Builder()
-                    .add("prompt", prompt.toString())
+                    .add("prompt", prompt)
                     .add("model", LLM_MODEL)
                     .build();
                 }
             } else {
                 // Default to form data
                 requestBody = new FormBody.Builder()
-                        .add("prompt", prompt.toString())
+                        .add("prompt", prompt)
                         .add("model", LLM_MODEL)
                     .build();
             }
@@ -107,7 +125,10 @@ public class CustomReplyGenerator {
                 requestBuilder.addHeader("Authorization", "Bearer " + API_KEY);
             }
 
-            Request request = requestBuilder.post(requestBody).build();
+            Request request = requestBuilder.post(requestBody).tag(ReplyProvider.class, ReplyProvider.CUSTOM).build();
+
+            metrics.record(PipelineMetrics.Stage.PROMPT_BUILD, PROVIDER, LLM_MODEL, buildStart);
+            long requestStart = PipelineMetrics.start();
 
             try {
                 // Execute the request
@@ -115,15 +136,18 @@ public class CustomReplyGenerator {
 
                     @Override
                     public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                        metrics.record(PipelineMetrics.Stage.PROVIDER_REQUEST, PROVIDER, LLM_MODEL, requestStart);
                         Log.e(TAG, "onFailure: ", e);
-                        listener.onReplyGenerated(defaultReplyMessage);
+                        listener.onReplyFailed(defaultReplyMessage);
                     }
 
                     @Override
                     public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
 
+                        metrics.record(PipelineMetrics.Stage.PROVIDER_REQUEST, PROVIDER, LLM_MODEL, requestStart);
+
                         if (!response.isSuccessful()) {
-                            listener.onReplyGenerated(defaultReplyMessage);
+                            listener.onReplyFailed(defaultReplyMessage);
                             Log.d(TAG, "onResponse: " + response.code());
                             return;
                         }
@@ -131,115 +155,92 @@ public class CustomReplyGenerator {
                         ResponseBody body = response.body();
 
                         if (body != null) {
-                            String responseData = body.string();
-                            String aiReply = parseResponse(responseData);
+                            long parseStart = PipelineMetrics.start();
+                            String aiReply;
+                            try {
+                                aiReply = replyReader.limit(parseResponse(body.source()));
+                            } finally {
+                                // The rest of the body is never read once the reply was found
+                                body.close();
+                            }
+                            metrics.record(PipelineMetrics.Stage.RESPONSE_PARSE, PROVIDER, LLM_MODEL, parseStart);
 
-                            if (aiReply != null) {
+                            if (aiReply != null && !aiReply.trim().isEmpty()) {
                                 listener.onReplyGenerated(aiReply);
                             } else {
-                                Log.d(TAG, "onResponse: ai reply is null");
-                                listener.onReplyGenerated(defaultReplyMessage);
-                                Log.d(TAG, "onResponse: " + responseData);
+                                Log.d(TAG, "onResponse: ai reply is null or empty");
+                                listener.onReplyFailed(defaultReplyMessage);
                             }
                         } else {
                             Log.e(TAG, "onResponse: Response body is null");
-                            listener.onReplyGenerated(defaultReplyMessage);
+                            listener.onReplyFailed(defaultReplyMessage);
                         }
                     }
                 });
             } catch (Exception e) {
                 Log.e(TAG, "generateReply: ", e);
-                listener.onReplyGenerated(defaultReplyMessage);
+                listener.onReplyFailed(defaultReplyMessage);
             }
-        })).start();
+        });
     }
 
 //    ----------------------------------------------------------------------------------------------
 
-    private @NonNull StringBuilder buildPrompt(String sender, String message, StringBuilder chatHistory) {
+    private @NonNull String buildPrompt(String sender, String message, List<Message> messages) {
 
         // Use custom prompt if provided
         if (!customPrompt.isEmpty()) {
-            String processedPrompt = CustomMethods.processPromptTemplate(
-                customPrompt, aiReplyLanguage, botName, sender, message, chatHistory.toString()
-            );
-            return new StringBuilder(processedPrompt);
+            PromptBuilder.Prompt prompt = promptBuilder.build(customPrompt, messages, message);
+            Log.d(TAG, "buildPrompt: ~" + prompt.getTokenCount() + " tokens, " + prompt.getDroppedTurns() + " old turns dropped");
+            return PromptBuilder.processPromptTemplate(customPrompt, aiReplyLanguage, botName, sender, prompt);
         }
 
         // Default behavior
-        StringBuilder prompt = new StringBuilder();
-
-        if (chatHistory.toString().isEmpty()) {
-            prompt.append("You are a WhatsApp auto-reply bot. Your task is to reply to the incoming message. Response only the chat and do not add any other text. ");
-            prompt.append("Always respond in ").append(aiReplyLanguage).append(". Be polite, context-aware, and ensure your replies are relevant to the conversation.");
-            prompt.append("\n\n\nMost recent message (from ");
-            prompt.append(sender).append("): ");
-            prompt.append(message);
-            return prompt;
+        String instructions;
+
+        if (messages.isEmpty()) {
+            instructions = "You are a WhatsApp auto-reply bot. Your task is to reply to the incoming message. Response only the chat and do not add any other text. " +
+                    "Always respond in " + aiReplyLanguage + ". Be polite, context-aware, and ensure your replies are relevant to the conversation.";
+        } else {
+            instructions = "You are a WhatsApp auto-reply bot. Your task is to read the provided previous chat history and reply to the most recent incoming message. " +
+                    "Always respond in " + aiReplyLanguage + ". Be polite, context-aware, and ensure your replies are relevant to the conversation.\n\n";
         }
 
-        prompt.append("You are a WhatsApp auto-reply bot. Your task is to read the provided previous chat history and reply to the most recent incoming message. ");
-        prompt.append("Always respond in ").append(aiReplyLanguage).append(". Be polite, context-aware, and ensure your replies are relevant to the conversation.\n\n");
-        prompt.append("Previous chat history: \n").append(chatHistory);
-        prompt.append("\n\n\nMost recent message (from ");
-        prompt.append(sender).append("): ");
-        prompt.append(message);
-        return prompt;
-    }
-
-//    ----------------------------------------------------------------------------------------------
-
-    private @NonNull StringBuilder getChatHistory(List<Message> messages) {
-
-        StringBuilder chatHistory = new StringBuilder();
-
-        if (!messages.isEmpty()) {
-
-            for (Message msg : messages) {
+        PromptBuilder.Prompt prompt = promptBuilder.build(instructions, messages, message);
+        Log.d(TAG, "buildPrompt: ~" + prompt.getTokenCount() + " tokens, " + prompt.getDroppedTurns() + " old turns dropped");
 
-                String senderName = msg.getSender();
-                String senderMessage = msg.getMessage();
-                String senderMessageTimestamp = msg.getTimestamp();
-                String myReplyToSenderMessage = msg.getReply();
+        StringBuilder text = new StringBuilder(prompt.getInstructions());
 
-                chatHistory.append(senderName).append(": ").append(senderMessage);
-                chatHistory.append("\n");
-                chatHistory.append("Time: ").append(senderMessageTimestamp);
-                chatHistory.append("\n");
-                chatHistory.append("My reply: ").append(myReplyToSenderMessage);
-                chatHistory.append("\n\n");
-            }
+        if (!prompt.getHistory().isEmpty()) {
+            text.append("Previous chat history: \n").append(prompt.getHistory());
         }
-        return chatHistory;
+        text.append("\n\n\nMost recent message (from ");
+        text.append(sender).append("): ");
+        text.append(prompt.getMessage());
+        return text.toString();
     }
 
 //    ----------------------------------------------------------------------------------------------
 
-    private String parseResponse(String responseData) {
+    private static JsonPath compileResponseKey(String key) {
+        if (key.isEmpty()) {
+            return ReplyParsers.DEFAULT_RESPONSE_KEY;
+        }
         try {
-            JSONObject jsonObject = new JSONObject(responseData);
-            // Use the user-configured response key, fallback to "response" if key doesn't exist
-            String key = responseKey.isEmpty() ? "response" : responseKey;
-            
-            if (jsonObject.has(key)) {
-                String reply = jsonObject.getString(key);
-                if (!reply.isEmpty()) {
-                    return reply;
-                }
-            } else {
-                // Try common response keys if the configured key doesn't exist
-                String[] commonKeys = {"response", "reply", "message", "text", "content", "answer"};
-                for (String commonKey : commonKeys) {
-                    if (jsonObject.has(commonKey)) {
-                        String reply = jsonObject.getString(commonKey);
-                        if (!reply.isEmpty()) {
-                            Log.d(TAG, "parseResponse: Using fallback key: " + commonKey);
-                return reply;
-                        }
-                    }
-                }
-                Log.d(TAG, "parseResponse: Response key '" + key + "' not found in response");
+            return JsonPath.compile(key);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "compileResponseKey: " + e.getMessage() + ", using '" + ReplyParsers.DEFAULT_RESPONSE_KEY + "'");
+            return ReplyParsers.DEFAULT_RESPONSE_KEY;
+        }
+    }
+
+    private String parseResponse(BufferedSource source) {
+        try {
+            String reply = ReplyParsers.parseCustomResponse(source, responseKey);
+            if (reply == null) {
+                Log.d(TAG, "parseResponse: Response key '" + responseKey + "' not found in response");
             }
+            return reply;
         } catch (Exception e) {
             Log.d(TAG, "parseResponse: " + e.getMessage());
         }
@@ -247,8 +248,4 @@ public class CustomReplyGenerator {
     }
 
 //    ----------------------------------------------------------------------------------------------
-
-    public interface OnReplyGeneratedListener {
-        void onReplyGenerated(String reply);
-    }
 }
@@ -0,0 +1,237 @@
+package zo.ro.whatsappreplybot.apis;
+
+import android.util.Log;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import zo.ro.whatsappreplybot.helpers.LatencyTracker;
+
+/**
+ * Tries an ordered chain of engines until one produces a real reply, and only then falls back
+ * to the canned default reply. An engine has failed when it calls
+ * {@link OnReplyGeneratedListener#onReplyFailed}, whatever text comes with it.
+ * <p>
+ * With hedging on, the second engine is also started when the first hasn't answered within
+ * its recent p95 latency, and whichever real reply arrives first wins. The slower call keeps
+ * running and its reply is discarded, so hedging costs at most one extra request per message.
+ * <p>
+ * The {@link zo.ro.whatsappreplybot.helpers.ReplyScheduler} admits the message once, against
+ * the selected provider's limit. Failover and hedged calls run inside that slot, so they don't
+ * count against their own provider's {@link ReplyProvider#getMaxConcurrentReplies()}; with
+ * hedging on, a message may keep two requests in flight.
+ */
+public class FailoverReplyEngine implements ReplyEngine {
+
+    private static final String TAG = "MADARA";
+    public static final long DEFAULT_HEDGE_DELAY_MILLIS = 5_000;
+    public static final long MIN_HEDGE_DELAY_MILLIS = 500;
+    public static final long MAX_HEDGE_DELAY_MILLIS = 15_000;
+    public static final int MIN_LATENCY_SAMPLES = 20;
+
+    private final List<ReplyEngine> engines;
+    private final List<String> names;
+    private final ScheduledExecutorService scheduler;
+    private final boolean hedgingEnabled;
+    private final LatencyTracker primaryLatency = new LatencyTracker();
+    private long failovers;
+    private long hedges;
+    private long hedgeWins;
+
+    /**
+     * @param engines the primary first, then the failovers in order
+     * @param names   model names for the log, parallel to {@code engines}
+     */
+    public FailoverReplyEngine(List<ReplyEngine> engines, List<String> names, ScheduledExecutorService scheduler, boolean hedgingEnabled) {
+        this.engines = engines;
+        this.names = names;
+        this.scheduler = scheduler;
+        this.hedgingEnabled = hedgingEnabled;
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    @Override
+    public void generateReply(String sender, String message, OnReplyGeneratedListener listener) {
+        if (hedgingEnabled && engines.size() > 1) {
+            new HedgedCall(sender, message, listener).start();
+        } else {
+            tryFrom(0, sender, message, listener, null);
+        }
+    }
+
+    /**
+     * @param fallbackReply the last failed engine's fallback, passed on once the chain runs out
+     */
+    private void tryFrom(int index, String sender, String message, OnReplyGeneratedListener listener, String fallbackReply) {
+        if (index >= engines.size()) {
+            Log.w(TAG, "generateReply: every model failed, using the default reply");
+            listener.onReplyFailed(fallbackReply);
+            return;
+        }
+        if (index > 0) {
+            Log.d(TAG, "generateReply: trying " + names.get(index));
+        }
+        long start = System.currentTimeMillis();
+        engines.get(index).generateReply(sender, message, new OnReplyGeneratedListener() {
+            @Override
+            public void onReplyGenerated(String reply) {
+                if (index == 0) {
+                    primaryLatency.record(System.currentTimeMillis() - start);
+                }
+                listener.onReplyGenerated(reply);
+            }
+
+            @Override
+            public void onReplyFailed(String fallback) {
+                onFailover(index);
+                tryFrom(index + 1, sender, message, listener, fallback);
+            }
+        });
+    }
+
+    private synchronized void onFailover(int index) {
+        failovers++;
+        Log.w(TAG, "generateReply: " + names.get(index) + " failed");
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * The primary's p95 once enough replies were timed, clamped so one odd sample can't turn
+     * hedging into always or never.
+     */
+    public long getHedgeDelayMillis() {
+        if (primaryLatency.size() < MIN_LATENCY_SAMPLES) {
+            return DEFAULT_HEDGE_DELAY_MILLIS;
+        }
+        return Math.max(MIN_HEDGE_DELAY_MILLIS, Math.min(MAX_HEDGE_DELAY_MILLIS, primaryLatency.getPercentile(95)));
+    }
+
+    public synchronized String getStatsSummary() {
+        return String.format(Locale.US, "failovers %d, hedges %d, hedge wins %d, hedge delay %d ms",
+                failovers, hedges, hedgeWins, getHedgeDelayMillis());
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * One message raced between the first two engines. Falls through to the rest of the chain
+     * only when both failed.
+     */
+    private class HedgedCall {
+
+        final String sender;
+        final String message;
+        final OnReplyGeneratedListener listener;
+        final long start = System.currentTimeMillis();
+        boolean answered;
+        boolean hedgeStarted;
+        boolean raced;
+        int running;
+        ScheduledFuture<?> timer;
+
+        HedgedCall(String sender, String message, OnReplyGeneratedListener listener) {
+            this.sender = sender;
+            this.message = message;
+            this.listener = listener;
+        }
+
+        void start() {
+            synchronized (this) {
+                running++;
+                timer = scheduler.schedule(() -> startHedge(true), getHedgeDelayMillis(), TimeUnit.MILLISECONDS);
+            }
+            engines.get(0).generateReply(sender, message, new OnReplyGeneratedListener() {
+                @Override
+                public void onReplyGenerated(String reply) {
+                    // Timed even when the hedge won, otherwise a degraded primary would never raise the p95
+                    primaryLatency.record(System.currentTimeMillis() - start);
+                    onReply(0, reply, false);
+                }
+
+                @Override
+                public void onReplyFailed(String fallbackReply) {
+                    onReply(0, fallbackReply, true);
+                }
+            });
+        }
+
+        /**
+         * @param race true when the primary is slow and still running, false when it already failed
+         */
+        void startHedge(boolean race) {
+            synchronized (this) {
+                if (answered || hedgeStarted) {
+                    return;
+                }
+                hedgeStarted = true;
+                raced = race;
+                running++;
+            }
+            if (race) {
+                synchronized (FailoverReplyEngine.this) {
+                    hedges++;
+                }
+                Log.d(TAG, "generateReply: " + names.get(0) + " is slow, hedging with " + names.get(1));
+            } else {
+                Log.d(TAG, "generateReply: trying " + names.get(1));
+            }
+            engines.get(1).generateReply(sender, message, new OnReplyGeneratedListener() {
+                @Override
+                public void onReplyGenerated(String reply) {
+                    onReply(1, reply, false);
+                }
+
+                @Override
+                public void onReplyFailed(String fallbackReply) {
+                    onReply(1, fallbackReply, true);
+                }
+            });
+        }
+
+        /**
+         * @param reply the reply, or the engine's fallback when it failed
+         */
+        void onReply(int index, String reply, boolean failed) {
+            boolean hedgeNow = false;
+            boolean fallThrough = false;
+            synchronized (this) {
+                running--;
+                if (answered) {
+                    return;
+                }
+                if (!failed) {
+                    answered = true;
+                    timer.cancel(false);
+                } else if (!hedgeStarted) {
+                    // The primary failed before the hedge delay, the second engine is a plain failover now
+                    timer.cancel(false);
+                    hedgeNow = true;
+                } else if (running == 0) {
+                    answered = true;
+                    fallThrough = true;
+                }
+            }
+
+            if (!failed) {
+                if (index == 1 && raced) {
+                    synchronized (FailoverReplyEngine.this) {
+                        hedgeWins++;
+                    }
+                }
+                listener.onReplyGenerated(reply);
+            } else {
+                onFailover(index);
+                if (hedgeNow) {
+                    startHedge(false);
+                } else if (fallThrough) {
+                    tryFrom(2, sender, message, listener, reply);
+                }
+            }
+        }
+    }
+}
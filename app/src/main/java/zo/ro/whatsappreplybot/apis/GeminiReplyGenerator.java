@@ -16,16 +16,18 @@ import com.google.common.util.concurrent.ListenableFuture;
 
 import java.util.List;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 
 import zo.ro.whatsappreplybot.R;
 import zo.ro.whatsappreplybot.helpers.CustomMethods;
+import zo.ro.whatsappreplybot.helpers.PipelineMetrics;
+import zo.ro.whatsappreplybot.helpers.ReplyExecutors;
 import zo.ro.whatsappreplybot.helpers.WhatsAppMessageHandler;
 import zo.ro.whatsappreplybot.models.Message;
 
-public class GeminiReplyGenerator {
+public class GeminiReplyGenerator implements ReplyEngine {
 
     private static final String TAG = "MADARA";
+    private static final String PROVIDER = ReplyProvider.GEMINI.name();
     private final String API_KEY;
     private final String LLM_MODEL;
     private final WhatsAppMessageHandler messageHandler;
@@ -34,116 +36,131 @@ public class GeminiReplyGenerator {
     private final String botName;
     private final String customPrompt;
     private final Context context;
+    private final Executor callbackExecutor;
+    private final StreamingReplyReader replyReader;
+    private final PromptBuilder promptBuilder;
+    private final PipelineMetrics metrics = PipelineMetrics.getInstance();
 
-    public GeminiReplyGenerator(Context context, SharedPreferences sharedPreferences, WhatsAppMessageHandler whatsAppMessageHandler) {
+    public GeminiReplyGenerator(Context context, SharedPreferences sharedPreferences, WhatsAppMessageHandler whatsAppMessageHandler, ReplyExecutors replyExecutors) {
+        this(context, sharedPreferences, whatsAppMessageHandler, replyExecutors, null);
+    }
+
+    /**
+     * @param llmModel model to call instead of the {@code llm_model} preference, e.g. as a failover
+     */
+    public GeminiReplyGenerator(Context context, SharedPreferences sharedPreferences, WhatsAppMessageHandler whatsAppMessageHandler, ReplyExecutors replyExecutors, String llmModel) {
         this.context = context;
         this.messageHandler = whatsAppMessageHandler;
-        API_KEY = sharedPreferences.getString("api_key", "not-set").trim();
-        LLM_MODEL = sharedPreferences.getString("llm_model", "gemini-2.0-flash-exp");
+        this.callbackExecutor = replyExecutors.getNetworkExecutor();
+        API_KEY = ReplyProvider.GEMINI.getApiKey(sharedPreferences);
+        LLM_MODEL = llmModel != null ? llmModel : sharedPreferences.getString("llm_model", "gemini-2.0-flash-exp");
         defaultReplyMessage = sharedPreferences.getString("default_reply_message", context.getString(R.string.default_bot_message));
         aiReplyLanguage = sharedPreferences.getString("ai_reply_language", "English");
         botName = sharedPreferences.getString("bot_name", "Yuji");
         customPrompt = sharedPreferences.getString("custom_ai_prompt", "").trim();
+        // Non-streamed replies still honour the configured length limits
+        replyReader = new StreamingReplyReader(
+                CustomMethods.getIntPreference(sharedPreferences, "max_reply_sentences", 0),
+                CustomMethods.getIntPreference(sharedPreferences, "max_reply_characters", 0));
+        promptBuilder = ReplyProvider.GEMINI.newPromptBuilder(
+                CustomMethods.getIntPreference(sharedPreferences, "prompt_token_budget", 0));
     }
 
-    public void generateReply(String sender, String message, CustomReplyGenerator.OnReplyGeneratedListener listener) {
+    @Override
+    public void generateReply(String sender, String message, OnReplyGeneratedListener listener) {
+
+        long historyStart = PipelineMetrics.start();
 
         messageHandler.getMessagesHistory(sender, messages -> {
 
-            StringBuilder chatHistory = getChatHistory(messages);
-            StringBuilder prompt = buildPrompt(sender, message, chatHistory);
+            metrics.record(PipelineMetrics.Stage.HISTORY_LOAD, PROVIDER, LLM_MODEL, historyStart);
+
+            long buildStart = PipelineMetrics.start();
+            String prompt = buildPrompt(sender, message, messages);
 
             GenerativeModel gm = new GenerativeModel(LLM_MODEL, API_KEY);
             GenerativeModelFutures model = GenerativeModelFutures.from(gm);
 
             Content content = new Content.Builder()
-                    .addText(prompt.toString())
+                    .addText(prompt)
                     .build();
 
-            Executor executor = Executors.newSingleThreadExecutor();
+            metrics.record(PipelineMetrics.Stage.PROMPT_BUILD, PROVIDER, LLM_MODEL, buildStart);
+            // The SDK parses the response before the callback, so it counts as part of the request
+            long requestStart = PipelineMetrics.start();
 
             ListenableFuture<GenerateContentResponse> response = model.generateContent(content);
             Futures.addCallback(response, new FutureCallback<GenerateContentResponse>() {
                 @Override
                 public void onSuccess(GenerateContentResponse result) {
-                    String resultText = result.getText();
-                    listener.onReplyGenerated(resultText);
+                    metrics.record(PipelineMetrics.Stage.PROVIDER_REQUEST, PROVIDER, LLM_MODEL, requestStart);
+                    long parseStart = PipelineMetrics.start();
+                    String resultText = replyReader.limit(result.getText());
+                    metrics.record(PipelineMetrics.Stage.RESPONSE_PARSE, PROVIDER, LLM_MODEL, parseStart);
                     Log.d(TAG, "onSuccess: " + resultText);
+                    if (resultText != null && !resultText.trim().isEmpty()) {
+                        listener.onReplyGenerated(resultText);
+                    } else {
+                        listener.onReplyFailed(defaultReplyMessage);
+                    }
                 }
 
                 @Override
                 public void onFailure(@NonNull Throwable t) {
-                    listener.onReplyGenerated(defaultReplyMessage);
+                    metrics.record(PipelineMetrics.Stage.PROVIDER_REQUEST, PROVIDER, LLM_MODEL, requestStart);
+                    listener.onReplyFailed(defaultReplyMessage);
                     Log.e(TAG, "onFailure: ", t);
                 }
-            }, executor);
+            }, callbackExecutor);
         });
     }
 
 //    ----------------------------------------------------------------------------------------------
 
-    private @NonNull StringBuilder buildPrompt(String sender, String message, StringBuilder chatHistory) {
+    private @NonNull String buildPrompt(String sender, String message, List<Message> messages) {
 
         // Use custom prompt if provided
         if (!customPrompt.isEmpty()) {
-            String processedPrompt = CustomMethods.processPromptTemplate(
-                customPrompt, aiReplyLanguage, botName, sender, message, chatHistory.toString()
-            );
-            return new StringBuilder(processedPrompt);
+            PromptBuilder.Prompt prompt = promptBuilder.build(customPrompt, messages, message);
+            Log.d(TAG, "buildPrompt: ~" + prompt.getTokenCount() + " tokens, " + prompt.getDroppedTurns() + " old turns dropped");
+            return PromptBuilder.processPromptTemplate(customPrompt, aiReplyLanguage, botName, sender, prompt);
         }
 
         // Default behavior
-        StringBuilder prompt = new StringBuilder();
-
-        if (!chatHistory.toString().isEmpty()) {
-            prompt.append("You are a WhatsApp auto-reply bot named ").append(botName);
-            prompt.append(" who pretends to be human and doesn't disclose that you are a bot.");
-            prompt.append(" Give appropriate replies according to the latest message and the previous chat history.");
-            prompt.append(" Generate only reply texts. Don't add any other texts.");
-            prompt.append(" Always reply in ").append(aiReplyLanguage).append(".");
-            prompt.append(" Reply within 1 or 2 sentences whenever possible.");
-            prompt.append(" Be polite, context-aware, and ensure your replies are relevant to the conversation.");
-            prompt.append("\n\n\nMost recent message (from ");
-            prompt.append(sender).append("): ");
-            prompt.append(message);
-            prompt.append("\n\n\nPrevious chat history: \n").append(chatHistory);
-            return prompt;
-        }
-
-        prompt.append("You are a WhatsApp auto-reply bot named ").append(botName);
-        prompt.append("Your task is replying to the incoming message. ");
-        prompt.append("Always reply in ").append(aiReplyLanguage);
-        prompt.append(". Be polite, context-aware, and ensure your replies are relevant to the conversation.\n\n");
-        prompt.append("\n\n\nIncoming message (from ");
-        prompt.append(sender).append("): ");
-        prompt.append(message);
-        return prompt;
-    }
-
-//    ----------------------------------------------------------------------------------------------
-
-    private @NonNull StringBuilder getChatHistory(List<Message> messages) {
-
-        StringBuilder chatHistory = new StringBuilder();
+        StringBuilder instructions = new StringBuilder();
 
         if (!messages.isEmpty()) {
+            instructions.append("You are a WhatsApp auto-reply bot named ").append(botName);
+            instructions.append(" who pretends to be human and doesn't disclose that you are a bot.");
+            instructions.append(" Give appropriate replies according to the latest message and the previous chat history.");
+            instructions.append(" Generate only reply texts. Don't add any other texts.");
+            instructions.append(" Always reply in ").append(aiReplyLanguage).append(".");
+            instructions.append(" Reply within 1 or 2 sentences whenever possible.");
+            instructions.append(" Be polite, context-aware, and ensure your replies are relevant to the conversation.");
+        } else {
+            instructions.append("You are a WhatsApp auto-reply bot named ").append(botName);
+            instructions.append("Your task is replying to the incoming message. ");
+            instructions.append("Always reply in ").append(aiReplyLanguage);
+            instructions.append(". Be polite, context-aware, and ensure your replies are relevant to the conversation.\n\n");
+        }
 
-            for (Message msg : messages) {
+        PromptBuilder.Prompt prompt = promptBuilder.build(instructions.toString(), messages, message);
+        Log.d(TAG, "buildPrompt: ~" + prompt.getTokenCount() + " tokens, " + prompt.getDroppedTurns() + " old turns dropped");
 
-                String senderName = msg.getSender();
-                String senderMessage = msg.getMessage();
-                String senderMessageTimestamp = msg.getTimestamp();
-                String myReplyToSenderMessage = msg.getReply();
+        StringBuilder text = new StringBuilder(prompt.getInstructions());
 
-                chatHistory.append(senderName).append(": ").append(senderMessage);
-                chatHistory.append("\n");
-                chatHistory.append("Time: ").append(senderMessageTimestamp);
-                chatHistory.append("\n");
-                chatHistory.append("My reply: ").append(myReplyToSenderMessage);
-                chatHistory.append("\n\n");
-            }
+        if (!prompt.getHistory().isEmpty()) {
+            text.append("\n\n\nMost recent message (from ");
+            text.append(sender).append("): ");
+            text.append(prompt.getMessage());
+            text.append("\n\n\nPrevious chat history: \n").append(prompt.getHistory());
+            return text.toString();
         }
-        return chatHistory;
+
+        text.append("\n\n\nIncoming message (from ");
+        text.append(sender).append("): ");
+        text.append(prompt.getMessage());
+        return text.toString();
     }
 
 //    ----------------------------------------------------------------------------------------------
@@ -0,0 +1,103 @@
+package zo.ro.whatsappreplybot.apis;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * Process-wide HTTP transport shared by every reply generator.
+ * One connection pool and one dispatcher are kept for the lifetime of the service, so
+ * consecutive replies to the same provider reuse warm TLS connections (and HTTP/2 streams
+ * where the server supports it) instead of handshaking for every message.
+ * Async calls run on the network pool of {@link zo.ro.whatsappreplybot.helpers.ReplyExecutors}.
+ * Provider calls pass through one {@link RateLimiter}, so limits hold across engine rebuilds.
+ */
+public class HttpTransport {
+
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+    public static final long DEFAULT_KEEP_ALIVE_SECONDS = 5 * 60;
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 5;
+    public static final long DEFAULT_TIMEOUT_SECONDS = 30;
+
+    private final ConnectionPool connectionPool;
+    private final Dispatcher dispatcher;
+    private final OkHttpClient client;
+    private final RateLimiter rateLimiter = new RateLimiter();
+
+    public HttpTransport(ExecutorService networkExecutor) {
+        this(networkExecutor, DEFAULT_MAX_IDLE_CONNECTIONS, DEFAULT_KEEP_ALIVE_SECONDS, DEFAULT_MAX_REQUESTS_PER_HOST);
+    }
+
+    /**
+     * @param networkExecutor    bounded pool the dispatcher runs calls on, owned by the caller
+     * @param maxIdleConnections idle connections kept alive per pool (spread across hosts)
+     * @param keepAliveSeconds   how long an idle connection survives before it is evicted
+     * @param maxRequestsPerHost concurrent calls allowed against a single provider host
+     * @param interceptors       extra application interceptors, run before rate limiting; the load
+     *                           test uses one to point every provider at a local mock server
+     */
+    public HttpTransport(ExecutorService networkExecutor, int maxIdleConnections, long keepAliveSeconds, int maxRequestsPerHost, Interceptor... interceptors) {
+        connectionPool = new ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS);
+        dispatcher = new Dispatcher(networkExecutor);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+
+        OkHttpClient.Builder builder = new OkHttpClient.Builder();
+        for (Interceptor interceptor : interceptors) {
+            builder.addInterceptor(interceptor);
+        }
+        client = builder
+                .connectionPool(connectionPool)
+                .dispatcher(dispatcher)
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .retryOnConnectionFailure(true)
+                .addInterceptor(new RateLimitInterceptor(rateLimiter))
+                .connectTimeout(DEFAULT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .readTimeout(DEFAULT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .writeTimeout(DEFAULT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .build();
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    public OkHttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * Returns a client with different timeouts that still shares this transport's
+     * connection pool and dispatcher. Build it once and keep it, don't call per request.
+     */
+    public OkHttpClient newClientWithTimeout(long timeoutSeconds) {
+        return client.newBuilder()
+                .connectTimeout(timeoutSeconds, TimeUnit.SECONDS)
+                .readTimeout(timeoutSeconds, TimeUnit.SECONDS)
+                .writeTimeout(timeoutSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    public int getConnectionCount() {
+        return connectionPool.connectionCount();
+    }
+
+    public int getIdleConnectionCount() {
+        return connectionPool.idleConnectionCount();
+    }
+
+    public void shutdown() {
+        // The dispatcher's executor belongs to ReplyExecutors and is shut down there
+        dispatcher.cancelAll();
+        connectionPool.evictAll();
+    }
+}
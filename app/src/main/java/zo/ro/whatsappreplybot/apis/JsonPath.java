@@ -0,0 +1,365 @@
+package zo.ro.whatsappreplybot.apis;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+
+/**
+ * A compiled key path such as {@code data.choices[0].text}, read straight off a response body.
+ * <p>
+ * The body is scanned once without building a tree. Members off the path are skipped without
+ * being decoded, and reading stops as soon as the target value is read, so logprobs, usage
+ * blocks and whatever follows the reply never cost an allocation. Plain Java like
+ * {@link ReplyParsers}.
+ */
+public class JsonPath {
+
+    private static final ByteString STRING_END = ByteString.encodeUtf8("\"\\");
+    private static final ByteString STRUCTURE = ByteString.encodeUtf8("\"{}[]");
+    private static final ByteString LITERAL_END = ByteString.encodeUtf8(",}] \t\r\n");
+
+    private final String expression;
+    // One entry per step: the member name, or null where the step is an array index
+    private final ByteString[] names;
+    private final int[] indices;
+
+    private JsonPath(String expression, ByteString[] names, int[] indices) {
+        this.expression = expression;
+        this.names = names;
+        this.indices = indices;
+    }
+
+    /**
+     * @param expression member names separated by dots, array elements as {@code [index]}
+     * @throws IllegalArgumentException if the expression has an empty name or a bad index
+     */
+    public static JsonPath compile(String expression) {
+        List<ByteString> names = new ArrayList<>();
+        List<Integer> indices = new ArrayList<>();
+        int length = expression.length();
+        int i = 0;
+        while (i < length) {
+            if (expression.charAt(i) == '[') {
+                int close = expression.indexOf(']', i);
+                int index = close < 0 ? -1 : parseIndex(expression.substring(i + 1, close));
+                if (index < 0) {
+                    throw new IllegalArgumentException("Bad array index in '" + expression + "'");
+                }
+                names.add(null);
+                indices.add(index);
+                i = close + 1;
+            } else {
+                int end = i;
+                while (end < length && expression.charAt(end) != '.' && expression.charAt(end) != '[') {
+                    end++;
+                }
+                if (end == i) {
+                    throw new IllegalArgumentException("Empty key in '" + expression + "'");
+                }
+                names.add(ByteString.encodeUtf8(expression.substring(i, end)));
+                indices.add(-1);
+                i = end;
+            }
+            if (i < length && expression.charAt(i) == '.') {
+                i++;
+                if (i == length) {
+                    throw new IllegalArgumentException("Empty key in '" + expression + "'");
+                }
+            }
+        }
+        if (names.isEmpty()) {
+            throw new IllegalArgumentException("Empty path");
+        }
+
+        int[] indexArray = new int[indices.size()];
+        for (int step = 0; step < indexArray.length; step++) {
+            indexArray[step] = indices.get(step);
+        }
+        return new JsonPath(expression, names.toArray(new ByteString[0]), indexArray);
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * @return the string at this path, null if the path is missing or holds another type
+     * @throws IOException if the body is cut short or isn't JSON
+     */
+    public String readString(BufferedSource source) throws IOException {
+        return readValue(source, 0, null, null);
+    }
+
+    /**
+     * Like {@link #readString(BufferedSource)}, and also collects the top-level string members
+     * named in {@code fallbackKeys} into {@code fallbackValues} on the way. The collection is
+     * complete whenever the path was not found, as the whole body has then been scanned.
+     */
+    public String readString(BufferedSource source, ByteString[] fallbackKeys, String[] fallbackValues) throws IOException {
+        return readValue(source, 0, fallbackKeys, fallbackValues);
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    private String readValue(BufferedSource source, int step, ByteString[] fallbackKeys, String[] fallbackValues) throws IOException {
+        Buffer buffer = source.getBuffer();
+        byte next = peek(source);
+
+        if (step == names.length) {
+            if (next == '"') {
+                buffer.skip(1);
+                return readStringBody(source);
+            }
+            skipValue(source);
+            return null;
+        }
+
+        if (names[step] != null) {
+            if (next != '{') {
+                skipValue(source);
+                return null;
+            }
+            buffer.skip(1);
+            while (true) {
+                next = peek(source);
+                if (next == '}') {
+                    buffer.skip(1);
+                    return null;
+                }
+                if (next == ',') {
+                    buffer.skip(1);
+                    continue;
+                }
+                if (next != '"') {
+                    throw syntaxError("member name", next);
+                }
+                buffer.skip(1);
+                boolean onPath = nameMatches(source, names[step]);
+                int fallback = onPath ? -1 : fallbackIndex(source, fallbackKeys);
+                skipStringBody(source);
+                expect(source, ':');
+
+                if (onPath) {
+                    // A miss below here leaves the source after the member, so the scan goes on
+                    String value = readValue(source, step + 1, null, null);
+                    if (value != null) {
+                        return value;
+                    }
+                } else if (fallback >= 0 && peek(source) == '"') {
+                    buffer.skip(1);
+                    String value = readStringBody(source);
+                    if (fallbackValues[fallback] == null) {
+                        fallbackValues[fallback] = value;
+                    }
+                } else {
+                    skipValue(source);
+                }
+            }
+        }
+
+        if (next != '[') {
+            skipValue(source);
+            return null;
+        }
+        buffer.skip(1);
+        int position = 0;
+        while (true) {
+            next = peek(source);
+            if (next == ']') {
+                buffer.skip(1);
+                return null;
+            }
+            if (next == ',') {
+                buffer.skip(1);
+                continue;
+            }
+            if (position++ == indices[step]) {
+                String value = readValue(source, step + 1, null, null);
+                if (value != null) {
+                    return value;
+                }
+            } else {
+                skipValue(source);
+            }
+        }
+    }
+
+    /**
+     * @return the next byte that isn't whitespace, left in the buffer
+     */
+    private static byte peek(BufferedSource source) throws IOException {
+        Buffer buffer = source.getBuffer();
+        while (true) {
+            if (!source.request(1)) {
+                throw new EOFException("JSON ends early");
+            }
+            byte next = buffer.getByte(0);
+            if (next != ' ' && next != '\n' && next != '\r' && next != '\t') {
+                return next;
+            }
+            buffer.skip(1);
+        }
+    }
+
+    private static void expect(BufferedSource source, char expected) throws IOException {
+        byte next = peek(source);
+        if (next != expected) {
+            throw syntaxError("'" + expected + "'", next);
+        }
+        source.getBuffer().skip(1);
+    }
+
+    /**
+     * Compares the member name after the opening quote without consuming or decoding it.
+     */
+    private static boolean nameMatches(BufferedSource source, ByteString name) throws IOException {
+        int size = name.size();
+        return source.request(size + 1)
+                && source.getBuffer().rangeEquals(0, name)
+                && source.getBuffer().getByte(size) == '"';
+    }
+
+    private static int fallbackIndex(BufferedSource source, ByteString[] fallbackKeys) throws IOException {
+        if (fallbackKeys != null) {
+            for (int i = 0; i < fallbackKeys.length; i++) {
+                if (nameMatches(source, fallbackKeys[i])) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads a string after its opening quote. Without escapes it's a single UTF-8 decode.
+     */
+    private static String readStringBody(BufferedSource source) throws IOException {
+        Buffer buffer = source.getBuffer();
+        StringBuilder builder = null;
+        while (true) {
+            long end = source.indexOfElement(STRING_END);
+            if (end == -1) {
+                throw new EOFException("Unterminated string");
+            }
+            if (buffer.getByte(end) == '"') {
+                String tail = buffer.readUtf8(end);
+                buffer.skip(1);
+                return builder == null ? tail : builder.append(tail).toString();
+            }
+            if (builder == null) {
+                builder = new StringBuilder();
+            }
+            builder.append(buffer.readUtf8(end));
+            buffer.skip(1);
+            builder.append(readEscape(source));
+        }
+    }
+
+    private static char readEscape(BufferedSource source) throws IOException {
+        source.require(1);
+        byte escaped = source.getBuffer().readByte();
+        switch (escaped) {
+            case 'n':
+                return '\n';
+            case 't':
+                return '\t';
+            case 'r':
+                return '\r';
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'u':
+                source.require(4);
+                String hex = source.getBuffer().readUtf8(4);
+                try {
+                    // Surrogate pairs arrive as two escapes and join up in the builder
+                    return (char) Integer.parseInt(hex, 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad unicode escape \\u" + hex);
+                }
+            default:
+                // \" \\ \/ and anything lenient
+                return (char) escaped;
+        }
+    }
+
+    private static void skipStringBody(BufferedSource source) throws IOException {
+        Buffer buffer = source.getBuffer();
+        while (true) {
+            long end = source.indexOfElement(STRING_END);
+            if (end == -1) {
+                throw new EOFException("Unterminated string");
+            }
+            if (buffer.getByte(end) == '"') {
+                buffer.skip(end + 1);
+                return;
+            }
+            // The escaped character can't end the string, a \\u escape is plain hex digits after it
+            source.require(end + 2);
+            buffer.skip(end + 2);
+        }
+    }
+
+    private static void skipValue(BufferedSource source) throws IOException {
+        Buffer buffer = source.getBuffer();
+        byte next = peek(source);
+
+        if (next == '"') {
+            buffer.skip(1);
+            skipStringBody(source);
+            return;
+        }
+        if (next == '{' || next == '[') {
+            buffer.skip(1);
+            int depth = 1;
+            while (depth > 0) {
+                long at = source.indexOfElement(STRUCTURE);
+                if (at == -1) {
+                    throw new EOFException("JSON ends early");
+                }
+                byte structural = buffer.getByte(at);
+                buffer.skip(at + 1);
+                if (structural == '"') {
+                    skipStringBody(source);
+                } else if (structural == '{' || structural == '[') {
+                    depth++;
+                } else {
+                    depth--;
+                }
+            }
+            return;
+        }
+
+        // Number, true, false or null
+        long end = source.indexOfElement(LITERAL_END);
+        if (end == 0) {
+            throw syntaxError("value", next);
+        }
+        if (end == -1) {
+            buffer.clear();
+        } else {
+            buffer.skip(end);
+        }
+    }
+
+    private static int parseIndex(String text) {
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static IOException syntaxError(String expected, byte found) {
+        return new IOException("Expected " + expected + " but found '" + (char) found + "'");
+    }
+}
@@ -6,218 +6,166 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
 import java.io.IOException;
-import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 import okhttp3.Call;
 import okhttp3.Callback;
-import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.BufferedSource;
 import zo.ro.whatsappreplybot.R;
 import zo.ro.whatsappreplybot.helpers.CustomMethods;
+import zo.ro.whatsappreplybot.helpers.PipelineMetrics;
 import zo.ro.whatsappreplybot.helpers.WhatsAppMessageHandler;
-import zo.ro.whatsappreplybot.models.Message;
 
-public class OllamaReplyGenerator {
+public class OllamaReplyGenerator implements ReplyEngine {
 
     private static final String TAG = "MADARA";
+    private static final String PROVIDER = ReplyProvider.OLLAMA.name();
+    // Keeps the model and its prompt cache loaded between messages of a conversation
+    private static final String KEEP_ALIVE = "30m";
     private final String API_URL;
     private final String LLM_MODEL;
     private final WhatsAppMessageHandler messageHandler;
-    private List<Message> messagesList;
     private final String defaultReplyMessage;
     private final String aiReplyLanguage;
     private final String customPrompt;
     private final String botName;
     private final Context context;
+    private final OkHttpClient client;
+    private final boolean streamingEnabled;
+    private final StreamingReplyReader replyReader;
+    private final PromptBuilder promptBuilder;
+    private final ChatRequestWriter requestWriter;
+    private final PipelineMetrics metrics = PipelineMetrics.getInstance();
+
+    public OllamaReplyGenerator(Context context, SharedPreferences sharedPreferences, WhatsAppMessageHandler whatsAppMessageHandler, HttpTransport httpTransport) {
+        this(context, sharedPreferences, whatsAppMessageHandler, httpTransport, null);
+    }
 
-    public OllamaReplyGenerator(Context context, SharedPreferences sharedPreferences, WhatsAppMessageHandler whatsAppMessageHandler) {
+    /**
+     * @param llmModel model to call instead of the {@code llm_model} preference, e.g. as a failover
+     */
+    public OllamaReplyGenerator(Context context, SharedPreferences sharedPreferences, WhatsAppMessageHandler whatsAppMessageHandler, HttpTransport httpTransport, String llmModel) {
         this.context = context;
         this.messageHandler = whatsAppMessageHandler;
+        // Local models are slow to answer, so Ollama gets longer timeouts on the shared pool
+        this.client = httpTransport.newClientWithTimeout(60);
         // Ollama runs locally, default to localhost:11434
         String ollamaUrl = sharedPreferences.getString("ollama_api_url", context.getString(R.string.default_ollama_url)).trim();
         API_URL = ollamaUrl.isEmpty() ? context.getString(R.string.default_ollama_url) : ollamaUrl;
-        LLM_MODEL = sharedPreferences.getString("llm_model", "llama2");
+        LLM_MODEL = llmModel != null ? llmModel : sharedPreferences.getString("llm_model", "llama2");
         defaultReplyMessage = sharedPreferences.getString("default_reply_message", context.getString(R.string.default_bot_message));
         aiReplyLanguage = sharedPreferences.getString("ai_reply_language", "English");
         botName = sharedPreferences.getString("bot_name", "Yuji");
         customPrompt = sharedPreferences.getString("custom_ai_prompt", "").trim();
+        streamingEnabled = sharedPreferences.getBoolean("is_streaming_enabled", true);
+        replyReader = new StreamingReplyReader(
+                CustomMethods.getIntPreference(sharedPreferences, "max_reply_sentences", 0),
+                CustomMethods.getIntPreference(sharedPreferences, "max_reply_characters", 0));
+        promptBuilder = ReplyProvider.OLLAMA.newPromptBuilder(
+                CustomMethods.getIntPreference(sharedPreferences, "prompt_token_budget", 0));
+        String instructions = customPrompt.isEmpty() ? PromptBuilder.defaultInstructions(aiReplyLanguage) : customPrompt;
+        requestWriter = new ChatRequestWriter(LLM_MODEL, streamingEnabled, instructions, "keep_alive", KEEP_ALIVE); // NDJSON chunks when streaming
     }
 
+    @Override
     public void generateReply(String sender, String message, OnReplyGeneratedListener listener) {
 
-        new Thread(() -> {
+        long historyStart = PipelineMetrics.start();
 
-            JSONObject container = new JSONObject();
-            JSONArray httpRequestMessages = new JSONArray();
+        messageHandler.getMessagesHistory(sender, messages -> {
 
-            JSONObject systemRole = new JSONObject();
-            JSONObject userRole1 = new JSONObject();
-            JSONObject userRole2 = new JSONObject();
+            metrics.record(PipelineMetrics.Stage.HISTORY_LOAD, PROVIDER, LLM_MODEL, historyStart);
 
-            messageHandler.getMessagesHistory(sender, messages -> {
+            try {
+                long buildStart = PipelineMetrics.start();
 
-                messagesList = messages;
+                PromptBuilder.Prompt prompt = promptBuilder.build(requestWriter.getInstructions(), messages, message);
+                Log.d(TAG, "generateReply: prompt ~" + prompt.getTokenCount() + " tokens, " + prompt.getDroppedTurns() + " old turns dropped");
 
-                StringBuilder chatHistory = getChatHistory();
+                // Streamed into the connection, only the turns are encoded per request
+                RequestBody requestBody = requestWriter.newBody(sender, prompt);
 
-                try {
-                    // Use custom prompt if provided, otherwise use default
-                    if (!customPrompt.isEmpty()) {
-                        // Use custom prompt as system message (no placeholders needed)
-                        String processedPrompt = customPrompt;
-                        
-                        // Use custom prompt as system message
-                        systemRole.put("role", "system");
-                        systemRole.put("content", processedPrompt);
-                        
-                        // Automatically add chat history and message as user messages
-                        userRole1.put("role", "user");
-                        if (chatHistory.toString().isEmpty()) {
-                            userRole1.put("content", "There is no previous chat history. This is the first message from the sender.");
-                        } else {
-                            userRole1.put("content", "Previous chat history:\n" + chatHistory);
-                        }
-                        
-                        userRole2.put("role", "user");
-                        userRole2.put("content", "Most recent message (from " + sender + "): " + message);
-                        
-                        httpRequestMessages.put(systemRole);
-                        httpRequestMessages.put(userRole1);
-                        httpRequestMessages.put(userRole2);
-                    } else {
-                        // Default behavior
-                        systemRole.put("role", "system");
-                        systemRole.put(
-                                "content", "You are a WhatsApp auto-reply bot. " +
-                                        "Your task is to read the provided previous chat history and reply to the most recent incoming message. " +
-                                        "Always respond in " + aiReplyLanguage + ". Be polite, context-aware, and ensure your replies are relevant to the conversation."
-                        );
-
-                        userRole1.put("role", "user");
-
-                        if (chatHistory.toString().isEmpty()) {
-                            userRole1.put("content", "There are no any previous chat history. This is the first message from the sender.");
-                        } else {
-                            userRole1.put("content", "Previous chat history: " + chatHistory);
-                        }
-
-                        userRole2.put("role", "user");
-                        userRole2.put("content", "Most recent message from the sender (" + sender + "): " + message);
-
-                        httpRequestMessages.put(systemRole);
-                        httpRequestMessages.put(userRole1);
-                        httpRequestMessages.put(userRole2);
-                    }
+                Request request = new Request.Builder()
+                        .url(API_URL)
+                        .addHeader("Content-Type", "application/json")
+                        .post(requestBody)
+                        .tag(ReplyProvider.class, ReplyProvider.OLLAMA)
+                        .build();
 
-                    container.put("model", LLM_MODEL);
-                    container.put("messages", httpRequestMessages);
-                    container.put("stream", false); // Ollama supports streaming, but we use non-streaming
+                metrics.record(PipelineMetrics.Stage.PROMPT_BUILD, PROVIDER, LLM_MODEL, buildStart);
+                long requestStart = PipelineMetrics.start();
 
-                    OkHttpClient client = new OkHttpClient.Builder()
-                            .connectTimeout(60, TimeUnit.SECONDS)  // Longer timeout for local Ollama
-                            .readTimeout(60, TimeUnit.SECONDS)     // Longer timeout for local Ollama
-                            .writeTimeout(60, TimeUnit.SECONDS)    // Longer timeout for local Ollama
-                            .build();
+                client.newCall(request).enqueue(new Callback() {
 
-                    MediaType JSON = MediaType.get("application/json; charset=utf-8");
-
-                    String jsonBody = container.toString();
-
-                    RequestBody requestBody = RequestBody.create(jsonBody, JSON);
+                    @Override
+                    public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                        metrics.record(PipelineMetrics.Stage.PROVIDER_REQUEST, PROVIDER, LLM_MODEL, requestStart);
+                        Log.e(TAG, "onFailure: ", e);
+                        listener.onReplyFailed(defaultReplyMessage);
+                    }
 
-                    Request request = new Request.Builder()
-                            .url(API_URL)
-                            .addHeader("Content-Type", "application/json")
-                            .post(requestBody)
-                            .build();
+                    @Override
+                    public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
 
-                    client.newCall(request).enqueue(new Callback() {
+                        metrics.record(PipelineMetrics.Stage.PROVIDER_REQUEST, PROVIDER, LLM_MODEL, requestStart);
 
-                        @Override
-                        public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                            Log.e(TAG, "onFailure: ", e);
-                            listener.onReplyGenerated(defaultReplyMessage);
+                        if (!response.isSuccessful()) {
+                            response.close();
+                            listener.onReplyFailed(defaultReplyMessage);
+                            Log.d(TAG, "onResponse: " + response.code());
+                            return;
                         }
 
-                        @Override
-                        public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-
-                            if (!response.isSuccessful()) {
-                                listener.onReplyGenerated(defaultReplyMessage);
-                                Log.d(TAG, "onResponse: " + response.code());
-                                return;
-                            }
-
-                            ResponseBody body = response.body();
+                        ResponseBody body = response.body();
 
-                            if (body != null) {
-                                String responseData = body.string();
-                                String ollamaReply = parseResponse(responseData);
-
-                                if (ollamaReply != null) {
-                                    listener.onReplyGenerated(ollamaReply);
+                        if (body != null) {
+                            String ollamaReply;
+                            // Streamed replies are read here, so this includes the rest of the generation
+                            long parseStart = PipelineMetrics.start();
+                            try {
+                                if (streamingEnabled) {
+                                    ollamaReply = replyReader.readNdjson(body.source());
                                 } else {
-                                    Log.d(TAG, "onResponse: ollamaReply is null");
-                                    listener.onReplyGenerated(defaultReplyMessage);
-                                    Log.d(TAG, "onResponse: " + responseData);
+                                    ollamaReply = replyReader.limit(parseResponse(body.source()));
                                 }
+                            } catch (IOException e) {
+                                Log.e(TAG, "onResponse: ", e);
+                                ollamaReply = null;
+                            } finally {
+                                // Closing before the stream ends cancels the rest of the generation
+                                body.close();
+                            }
+                            metrics.record(PipelineMetrics.Stage.RESPONSE_PARSE, PROVIDER, LLM_MODEL, parseStart);
+
+                            if (ollamaReply != null && !ollamaReply.trim().isEmpty()) {
+                                listener.onReplyGenerated(ollamaReply);
                             } else {
-                                Log.e(TAG, "onResponse: Response body is null");
-                                listener.onReplyGenerated(defaultReplyMessage);
+                                Log.d(TAG, "onResponse: ollamaReply is null or empty");
+                                listener.onReplyFailed(defaultReplyMessage);
                             }
+                        } else {
+                            Log.e(TAG, "onResponse: Response body is null");
+                            listener.onReplyFailed(defaultReplyMessage);
                         }
-                    });
-                } catch (Exception e) {
-                    Log.e(TAG, "generateReply: ", e);
-                    listener.onReplyGenerated(defaultReplyMessage);
-                }
-            });
-        }).start();
-    }
-
-//    ----------------------------------------------------------------------------------------------
-
-    private @NonNull StringBuilder getChatHistory() {
-        StringBuilder chatHistory = new StringBuilder();
-
-        Log.d(TAG, "getChatHistory: " + messagesList.size());
-
-        if (messagesList != null && !messagesList.isEmpty()) {
-
-            for (Message msg : messagesList) {
-
-                String senderName = msg.getSender();
-                String senderMessage = msg.getMessage();
-                String senderMessageTimestamp = msg.getTimestamp();
-                String myReplyToSenderMessage = msg.getReply();
-
-                chatHistory.append(senderName).append(": ").append(senderMessage);
-                chatHistory.append("\n");
-                chatHistory.append("Time: ").append(senderMessageTimestamp);
-                chatHistory.append("\n");
-                chatHistory.append("My reply: ").append(myReplyToSenderMessage);
-                chatHistory.append("\n\n");
+                    }
+                });
+            } catch (Exception e) {
+                Log.e(TAG, "generateReply: ", e);
+                listener.onReplyFailed(defaultReplyMessage);
             }
-        }
-        return chatHistory;
+        });
     }
 
 //    ----------------------------------------------------------------------------------------------
 
-    private String parseResponse(String responseData) {
+    private String parseResponse(BufferedSource source) {
         try {
-            JSONObject jsonObject = new JSONObject(responseData);
-            JSONObject message = jsonObject.getJSONObject("message");
-            return message.getString("content");
+            return ReplyParsers.parseOllamaChat(source);
         } catch (Exception e) {
             Log.e(TAG, "parseResponse: ", e);
         }
@@ -225,9 +173,4 @@ public class OllamaReplyGenerator {
     }
 
 //    ----------------------------------------------------------------------------------------------
-
-    public interface OnReplyGeneratedListener {
-        void onReplyGenerated(String reply);
-    }
 }
-
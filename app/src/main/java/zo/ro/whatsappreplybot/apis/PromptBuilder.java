@@ -0,0 +1,237 @@
+package zo.ro.whatsappreplybot.apis;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import zo.ro.whatsappreplybot.models.Message;
+
+/**
+ * Assembles the parts of a prompt within a token budget.
+ * <p>
+ * Tokens are estimated locally (about 4 ASCII characters per token, one token per other
+ * character) which is close enough for BPE tokenizers to keep requests bounded without
+ * shipping a vocabulary. The instructions are always kept. The latest message and every
+ * history entry are cut to a per-message cap, then history turns are added newest first
+ * until the budget is used up, so the oldest turns are the ones dropped.
+ */
+public class PromptBuilder {
+
+    public static final String ELLIPSIS = "\u2026";
+    // Labels and separators the generators wrap around the parts
+    private static final int SCAFFOLD_TOKENS = 24;
+
+    private final int tokenBudget;
+    private final int maxMessageTokens;
+
+    /**
+     * @param tokenBudget estimated tokens the whole prompt may use, the per-message cap is a quarter of it
+     */
+    public PromptBuilder(int tokenBudget) {
+        this(tokenBudget, Math.max(16, tokenBudget / 4));
+    }
+
+    public PromptBuilder(int tokenBudget, int maxMessageTokens) {
+        this.tokenBudget = tokenBudget;
+        this.maxMessageTokens = maxMessageTokens;
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * @param instructions system prompt or custom prompt, never trimmed
+     * @param history      previous turns, newest first as returned by the database
+     * @param message      the incoming message being replied to
+     */
+    public Prompt build(String instructions, List<Message> history, String message) {
+        String latest = truncate(message == null ? "" : message, maxMessageTokens);
+        int used = SCAFFOLD_TOKENS + estimateTokens(instructions) + estimateTokens(latest);
+
+        List<Message> turns = new ArrayList<>();
+        StringBuilder chatHistory = new StringBuilder();
+        int total = history == null ? 0 : history.size();
+        if (history != null) {
+            SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+            for (Message msg : history) {
+                Message turn = truncateTurn(msg);
+                String formatted = formatTurn(turn, timeFormat);
+                // Costed as the flattened text, which is never smaller than the chat message form
+                int cost = estimateTokens(formatted);
+                if (used + cost > tokenBudget) {
+                    break;
+                }
+                turns.add(turn);
+                chatHistory.append(formatted);
+                used += cost;
+            }
+        }
+        return new Prompt(instructions, chatHistory.toString(), turns, latest, used, total - turns.size());
+    }
+
+    /**
+     * System message of the chat completions generators when no custom prompt is set. It
+     * doesn't depend on the conversation, so every request starts with the same cacheable prefix.
+     */
+    public static String defaultInstructions(String language) {
+        return "You are a WhatsApp auto-reply bot. " +
+                "Reply to the most recent message of the conversation. " +
+                "Always respond in " + language + ". Be polite, context-aware, and ensure your replies are relevant to the conversation.";
+    }
+
+    /**
+     * Processes a prompt template by automatically appending chat history and message
+     * No placeholders needed - users just write the behavior prompt
+     * The history and message come already budgeted from {@link #build}
+     */
+    public static String processPromptTemplate(String template, String language, String botName,
+                                                String sender, Prompt prompt) {
+        if (template == null || template.isEmpty()) {
+            return template;
+        }
+
+        // Automatically append chat history and message at the end
+        StringBuilder finalPrompt = new StringBuilder(template);
+        
+        // Add chat history if available
+        if (!prompt.getHistory().trim().isEmpty()) {
+            finalPrompt.append("\n\nPrevious chat history:\n").append(prompt.getHistory());
+        } else {
+            finalPrompt.append("\n\nThere is no previous chat history. This is the first message from the sender.");
+        }
+        
+        // Add current message
+        if (sender != null) {
+            finalPrompt.append("\n\nMost recent message (from ").append(sender).append("): ").append(prompt.getMessage());
+        }
+        
+        return finalPrompt.toString();
+    }
+
+    private Message truncateTurn(Message msg) {
+        String reply = msg.getReply() == null ? null : truncate(msg.getReply(), maxMessageTokens);
+        return new Message(msg.getId(), msg.getSender(), truncate(String.valueOf(msg.getMessage()), maxMessageTokens),
+                msg.getTimestamp(), reply, msg.getDirection(), msg.getProvider());
+    }
+
+    private static String formatTurn(Message turn, SimpleDateFormat timeFormat) {
+        return turn.getSender() + ": " + turn.getMessage() + "\n" +
+                "Time: " + timeFormat.format(new Date(turn.getTimestamp())) + "\n" +
+                "My reply: " + turn.getReply() + "\n\n";
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * Rough token count of a text, see the class comment for the heuristic.
+     */
+    public static int estimateTokens(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        int ascii = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                ascii++;
+            } else if (!Character.isLowSurrogate(c)) {
+                other++;
+            }
+        }
+        return (ascii + 3) / 4 + other;
+    }
+
+    /**
+     * Cuts a text to about maxTokens, on a word boundary when one is close, and marks the cut.
+     */
+    public static String truncate(String text, int maxTokens) {
+        if (estimateTokens(text) <= maxTokens) {
+            return text;
+        }
+        // Keep one token for the ellipsis
+        int budget = Math.max(0, maxTokens - 1);
+        int ascii = 0;
+        int other = 0;
+        int end = 0;
+        while (end < text.length()) {
+            char c = text.charAt(end);
+            if (c < 0x80) {
+                ascii++;
+            } else if (!Character.isLowSurrogate(c)) {
+                other++;
+            }
+            if ((ascii + 3) / 4 + other > budget) {
+                break;
+            }
+            end++;
+        }
+        if (end > 0 && Character.isHighSurrogate(text.charAt(end - 1))) {
+            end--;
+        }
+        int space = text.lastIndexOf(' ', end);
+        if (space > end * 3 / 4) {
+            end = space;
+        }
+        return text.substring(0, end).trim() + ELLIPSIS;
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * The budgeted parts of one prompt and its estimated size.
+     */
+    public static class Prompt {
+
+        private final String instructions;
+        private final String history;
+        private final List<Message> turns;
+        private final String message;
+        private final int tokenCount;
+        private final int droppedTurns;
+
+        Prompt(String instructions, String history, List<Message> turns, String message, int tokenCount, int droppedTurns) {
+            this.instructions = instructions;
+            this.history = history;
+            this.turns = turns;
+            this.message = message;
+            this.tokenCount = tokenCount;
+            this.droppedTurns = droppedTurns;
+        }
+
+        public String getInstructions() {
+            return instructions;
+        }
+
+        /**
+         * @return formatted history, empty if there was none or none fit
+         */
+        public String getHistory() {
+            return history;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * @return the kept history turns, newest first
+         */
+        List<Message> getTurns() {
+            return turns;
+        }
+
+        public int getTokenCount() {
+            return tokenCount;
+        }
+
+        public int getIncludedTurns() {
+            return turns.size();
+        }
+
+        public int getDroppedTurns() {
+            return droppedTurns;
+        }
+    }
+}
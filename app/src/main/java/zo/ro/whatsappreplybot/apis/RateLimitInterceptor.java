@@ -0,0 +1,110 @@
+package zo.ro.whatsappreplybot.apis;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Paces provider calls through the {@link RateLimiter} and retries 429 and 5xx responses.
+ * <p>
+ * Only requests tagged with their {@link ReplyProvider} are limited. Waiting happens on the
+ * network thread running the call, which the {@link zo.ro.whatsappreplybot.helpers.ReplyScheduler}
+ * already bounds per provider. A request never waits or retries past its reply deadline; the
+ * last response is returned as is and the generator falls back to the default reply.
+ */
+public class RateLimitInterceptor implements Interceptor {
+
+    private static final String TAG = "MADARA";
+    public static final long REPLY_DEADLINE_MILLIS = 20_000;
+    public static final int MAX_ATTEMPTS = 4;
+
+    private final RateLimiter rateLimiter;
+
+    public RateLimitInterceptor(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    @NonNull
+    @Override
+    public Response intercept(@NonNull Chain chain) throws IOException {
+
+        Request request = chain.request();
+        ReplyProvider provider = request.tag(ReplyProvider.class);
+
+        if (provider == null) {
+            return chain.proceed(request);
+        }
+
+        String key = provider.name();
+        int tokens = estimateTokens(request.body());
+        long deadline = rateLimiter.now() + REPLY_DEADLINE_MILLIS;
+
+        for (int attempt = 0; ; attempt++) {
+
+            long wait;
+            while ((wait = rateLimiter.tryAcquire(key, tokens)) > 0) {
+                if (rateLimiter.now() + wait > deadline) {
+                    rateLimiter.recordGaveUp();
+                    throw new IOException(provider + " rate limit: no capacity before the reply deadline");
+                }
+                sleep(wait);
+            }
+
+            Response response = chain.proceed(request);
+
+            if (!isRetryable(response.code()) || attempt + 1 >= MAX_ATTEMPTS) {
+                return response;
+            }
+
+            long delay = rateLimiter.getRetryDelayMillis(attempt, response.header("Retry-After"));
+            if (rateLimiter.now() + delay > deadline) {
+                rateLimiter.recordGaveUp();
+                Log.w(TAG, "intercept: " + provider + " answered " + response.code() + ", no time left to retry, " + rateLimiter.getStatsSummary());
+                return response;
+            }
+
+            if (response.code() == 429) {
+                // The whole provider is over quota, not just this request
+                rateLimiter.pause(key, delay);
+            }
+            Log.d(TAG, "intercept: " + provider + " answered " + response.code() + ", retry " + (attempt + 1) + " in " + delay + " ms");
+            response.close();
+            rateLimiter.recordRetry();
+            sleep(delay);
+        }
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    static boolean isRetryable(int code) {
+        return code == 408 || code == 429 || code == 500 || code == 502 || code == 503 || code == 504;
+    }
+
+    /**
+     * Rough prompt size from the JSON body length, the same 4 bytes per token rule as
+     * {@link PromptBuilder#estimateTokens}.
+     */
+    private static int estimateTokens(RequestBody body) throws IOException {
+        long length = body == null ? -1 : body.contentLength();
+        return length <= 0 ? 1 : (int) Math.min(Integer.MAX_VALUE, length / 4 + 1);
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("rate limit wait interrupted");
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package zo.ro.whatsappreplybot.apis;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Per-provider token buckets for requests per minute and prompt tokens per minute.
+ * <p>
+ * Each bucket starts full and refills continuously, so a provider can take a short burst up to
+ * its per-minute budget and is then paced evenly. A provider that answered 429 can be paused
+ * with {@link #pause} until its {@code Retry-After} has passed, which holds back every request
+ * to it, not only the one that was refused. Providers without limits are never throttled.
+ */
+public class RateLimiter {
+
+    public static final long BASE_BACKOFF_MILLIS = 500;
+    public static final long MAX_BACKOFF_MILLIS = 8_000;
+
+    private final Map<String, Buckets> buckets = new HashMap<>();
+    private final LongSupplier clock;
+    private final Random random = new Random();
+    private long acquired;
+    private long throttled;
+    private long retries;
+    private long retryAfterHonored;
+    private long gaveUp;
+
+    public RateLimiter() {
+        this(() -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+    }
+
+    /**
+     * @param clock monotonic time in millis
+     */
+    public RateLimiter(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * @param requestsPerMinute 0 for no request limit
+     * @param tokensPerMinute   0 for no token limit
+     */
+    public synchronized void setLimits(String provider, int requestsPerMinute, int tokensPerMinute) {
+        Buckets current = buckets.get(provider);
+        if (current != null && current.requests.perMinute == requestsPerMinute && current.tokens.perMinute == tokensPerMinute) {
+            return;
+        }
+        long now = clock.getAsLong();
+        buckets.put(provider, new Buckets(new Bucket(requestsPerMinute, now), new Bucket(tokensPerMinute, now),
+                current == null ? 0 : current.pausedUntil));
+    }
+
+    /**
+     * Takes one request and the given tokens if both buckets have enough.
+     *
+     * @return 0 if acquired, otherwise millis until the request would fit; nothing is taken then
+     */
+    public synchronized long tryAcquire(String provider, int tokens) {
+        Buckets providerBuckets = buckets.get(provider);
+        if (providerBuckets == null) {
+            acquired++;
+            return 0;
+        }
+        long now = clock.getAsLong();
+        long wait = Math.max(providerBuckets.pausedUntil - now,
+                Math.max(providerBuckets.requests.millisUntil(1, now), providerBuckets.tokens.millisUntil(tokens, now)));
+        if (wait > 0) {
+            throttled++;
+            return wait;
+        }
+        providerBuckets.requests.take(1);
+        providerBuckets.tokens.take(tokens);
+        acquired++;
+        return 0;
+    }
+
+    /**
+     * Holds back every request to the provider for the given time, e.g. after a 429.
+     */
+    public synchronized void pause(String provider, long millis) {
+        Buckets providerBuckets = buckets.get(provider);
+        if (providerBuckets != null) {
+            providerBuckets.pausedUntil = Math.max(providerBuckets.pausedUntil, clock.getAsLong() + millis);
+        }
+    }
+
+    /**
+     * Delay before retry number {@code attempt} (0-based). A {@code Retry-After} from the server
+     * wins, otherwise exponential backoff with equal jitter: half the ceiling is fixed so a retry
+     * never fires right away, the other half is random so parallel retries spread out.
+     *
+     * @param retryAfter value of the {@code Retry-After} header in seconds, or null
+     */
+    public synchronized long getRetryDelayMillis(int attempt, String retryAfter) {
+        long serverDelay = parseRetryAfterMillis(retryAfter);
+        if (serverDelay >= 0) {
+            retryAfterHonored++;
+            return serverDelay;
+        }
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+        return ceiling / 2 + (long) (random.nextDouble() * (ceiling / 2));
+    }
+
+    public long now() {
+        return clock.getAsLong();
+    }
+
+    /**
+     * @return millis, or -1 if the header is missing or not a number of seconds
+     */
+    static long parseRetryAfterMillis(String retryAfter) {
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            double seconds = Double.parseDouble(retryAfter.trim());
+            return seconds < 0 ? -1 : (long) (seconds * 1000);
+        } catch (NumberFormatException e) {
+            // HTTP dates are rare from LLM APIs, fall back to our own backoff
+            return -1;
+        }
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    synchronized void recordRetry() {
+        retries++;
+    }
+
+    synchronized void recordGaveUp() {
+        gaveUp++;
+    }
+
+    public synchronized long getAcquiredCount() {
+        return acquired;
+    }
+
+    public synchronized long getThrottledCount() {
+        return throttled;
+    }
+
+    public synchronized long getRetryCount() {
+        return retries;
+    }
+
+    public synchronized long getGaveUpCount() {
+        return gaveUp;
+    }
+
+    public synchronized String getStatsSummary() {
+        return String.format(Locale.US, "acquired %d, throttled %d, retries %d, retry-after honored %d, gave up %d",
+                acquired, throttled, retries, retryAfterHonored, gaveUp);
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    private static class Buckets {
+
+        final Bucket requests;
+        final Bucket tokens;
+        long pausedUntil;
+
+        Buckets(Bucket requests, Bucket tokens, long pausedUntil) {
+            this.requests = requests;
+            this.tokens = tokens;
+            this.pausedUntil = pausedUntil;
+        }
+    }
+
+    private static class Bucket {
+
+        final int perMinute;
+        double available;
+        long refilledAt;
+
+        Bucket(int perMinute, long now) {
+            this.perMinute = perMinute;
+            available = perMinute;
+            refilledAt = now;
+        }
+
+        long millisUntil(int amount, long now) {
+            if (perMinute <= 0) {
+                return 0;
+            }
+            available = Math.min(perMinute, available + (now - refilledAt) * perMinute / 60_000.0);
+            refilledAt = now;
+            // A request larger than the whole budget waits for a full bucket instead of forever
+            double missing = Math.min(amount, perMinute) - available;
+            return missing <= 0 ? 0 : (long) Math.ceil(missing * 60_000.0 / perMinute);
+        }
+
+        void take(int amount) {
+            if (perMinute > 0) {
+                available -= Math.min(amount, perMinute);
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package zo.ro.whatsappreplybot.apis;
+
+/**
+ * Common contract of every reply provider (ChatGPT, Gemini, DeepSeek, Ollama, custom API).
+ * Implementations are built once by {@link ReplyEngineRegistry} and reused for every message,
+ * so they must not keep per-message state in fields.
+ */
+public interface ReplyEngine {
+
+    void generateReply(String sender, String message, OnReplyGeneratedListener listener);
+
+//    ----------------------------------------------------------------------------------------------
+
+    interface OnReplyGeneratedListener {
+        void onReplyGenerated(String reply);
+
+        /**
+         * The engine got no usable reply (error, timeout, empty answer, open circuit). Wrapping
+         * engines override this to tell failures from replies; everyone else just sends the
+         * fallback like a reply.
+         *
+         * @param fallbackReply the canned default reply to send instead
+         */
+        default void onReplyFailed(String fallbackReply) {
+            onReplyGenerated(fallbackReply);
+        }
+    }
+}
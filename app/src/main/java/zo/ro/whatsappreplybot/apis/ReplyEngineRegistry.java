@@ -0,0 +1,242 @@
+package zo.ro.whatsappreplybot.apis;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import zo.ro.whatsappreplybot.R;
+import zo.ro.whatsappreplybot.helpers.CircuitBreaker;
+import zo.ro.whatsappreplybot.helpers.CustomMethods;
+import zo.ro.whatsappreplybot.helpers.ReplyExecutors;
+import zo.ro.whatsappreplybot.helpers.WhatsAppMessageHandler;
+
+/**
+ * Builds each {@link ReplyEngine} once and hands the same instance out for every message.
+ * An engine is dropped (and lazily rebuilt) only when one of its preference keys changes.
+ * Models listed in {@code failover_models} are chained behind the selected one in a
+ * {@link FailoverReplyEngine}, unless their provider needs an API key of its own and has none,
+ * and the chain is wrapped in a {@link CachingReplyEngine} unless
+ * the reply cache is turned off. Building an engine also applies the rate limits of every
+ * provider in its chain to the shared {@link RateLimiter}.
+ * Each generator is guarded by its provider's {@link CircuitBreaker}; breakers outlive engine
+ * rebuilds so a preference change doesn't reset a dead endpoint to closed.
+ */
+public class ReplyEngineRegistry implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+    private static final String TAG = "MADARA";
+    private final Context context;
+    private final SharedPreferences sharedPreferences;
+    private final WhatsAppMessageHandler messageHandler;
+    private final HttpTransport httpTransport;
+    private final ReplyExecutors replyExecutors;
+    private final Map<ReplyProvider, ReplyEngine> engines = new EnumMap<>(ReplyProvider.class);
+    // Every provider an engine's failover chain calls or skipped, so changing any of their keys rebuilds it
+    private final Map<ReplyProvider, Set<ReplyProvider>> chainProviders = new EnumMap<>(ReplyProvider.class);
+    private final Map<ReplyProvider, CircuitBreaker> circuitBreakers = new EnumMap<>(ReplyProvider.class);
+    // The failover engine inside each built engine that has a chain, for its counters
+    private final Map<ReplyProvider, FailoverReplyEngine> failoverEngines = new EnumMap<>(ReplyProvider.class);
+    private volatile ReplyProvider activeProvider;
+
+    public ReplyEngineRegistry(Context context, SharedPreferences sharedPreferences, WhatsAppMessageHandler messageHandler, HttpTransport httpTransport, ReplyExecutors replyExecutors) {
+        this.context = context;
+        this.sharedPreferences = sharedPreferences;
+        this.messageHandler = messageHandler;
+        this.httpTransport = httpTransport;
+        this.replyExecutors = replyExecutors;
+        activeProvider = resolveActiveProvider();
+        // SharedPreferences keeps listeners weakly, the owning service must hold on to this registry
+        sharedPreferences.registerOnSharedPreferenceChangeListener(this);
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * @return the engine for the currently selected {@code llm_model}, or null if the model is unknown
+     */
+    public synchronized ReplyEngine getEngine() {
+        ReplyProvider provider = activeProvider;
+        if (provider == null) {
+            return null;
+        }
+        ReplyEngine engine = engines.get(provider);
+        if (engine == null) {
+            engine = createEngine(provider);
+            engines.put(provider, engine);
+            Log.d(TAG, "getEngine: built " + provider + " engine");
+        }
+        return engine;
+    }
+
+    public ReplyProvider getActiveProvider() {
+        return activeProvider;
+    }
+
+    /**
+     * @return state and counters of every provider's breaker built so far
+     */
+    public synchronized List<String> getCircuitBreakerSummaries() {
+        List<String> summaries = new ArrayList<>();
+        for (CircuitBreaker circuitBreaker : circuitBreakers.values()) {
+            summaries.add(circuitBreaker.getStatsSummary());
+        }
+        return summaries;
+    }
+
+    /**
+     * @return failover and hedging counters of every built engine with a failover chain
+     */
+    public synchronized List<String> getFailoverSummaries() {
+        List<String> summaries = new ArrayList<>();
+        for (Map.Entry<ReplyProvider, FailoverReplyEngine> entry : failoverEngines.entrySet()) {
+            summaries.add(entry.getKey() + ": " + entry.getValue().getStatsSummary());
+        }
+        return summaries;
+    }
+
+    public void release() {
+        sharedPreferences.unregisterOnSharedPreferenceChangeListener(this);
+        synchronized (this) {
+            engines.clear();
+            chainProviders.clear();
+            failoverEngines.clear();
+        }
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        if ("llm_model".equals(key) || key == null) {
+            activeProvider = resolveActiveProvider();
+        }
+        synchronized (this) {
+            if (key == null) {
+                // Preferences were cleared
+                engines.clear();
+                chainProviders.clear();
+                failoverEngines.clear();
+                return;
+            }
+            for (ReplyProvider provider : ReplyProvider.values()) {
+                if (usesKey(provider, key) && engines.remove(provider) != null) {
+                    chainProviders.remove(provider);
+                    failoverEngines.remove(provider);
+                    Log.d(TAG, "onSharedPreferenceChanged: " + key + " changed, dropping " + provider + " engine");
+                }
+            }
+        }
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    private ReplyProvider resolveActiveProvider() {
+        return ReplyProvider.fromModel(sharedPreferences.getString("llm_model", "gpt-4o-mini"));
+    }
+
+    private boolean usesKey(ReplyProvider provider, String key) {
+        Set<ReplyProvider> chain = chainProviders.get(provider);
+        for (ReplyProvider member : chain != null ? chain : EnumSet.of(provider)) {
+            if (member.getPreferenceKeys().contains(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ReplyEngine createEngine(ReplyProvider provider) {
+        String defaultReplyMessage = sharedPreferences.getString("default_reply_message", context.getString(R.string.default_bot_message));
+        String primaryModel = sharedPreferences.getString("llm_model", "gpt-4o-mini");
+
+        List<ReplyEngine> chain = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        Set<ReplyProvider> providers = EnumSet.of(provider);
+        chain.add(guard(provider, createGenerator(provider, null), defaultReplyMessage));
+        names.add(primaryModel);
+        applyRateLimits(provider);
+
+        for (String model : sharedPreferences.getString("failover_models", "").split("[,\\n]")) {
+            model = model.trim();
+            ReplyProvider failoverProvider = ReplyProvider.fromModel(model);
+            if (model.isEmpty() || names.contains(model)) {
+                continue;
+            }
+            if (failoverProvider == null) {
+                Log.w(TAG, "createEngine: no provider serves failover model " + model + ", skipping it");
+                continue;
+            }
+            providers.add(failoverProvider);
+            // The shared api_key belongs to the selected provider, sending it elsewhere only earns a 401
+            if (failoverProvider != provider && failoverProvider.isApiKeyRequired()
+                    && failoverProvider.getApiKey(sharedPreferences).isEmpty()) {
+                Log.w(TAG, "createEngine: " + failoverProvider.getApiKeyPreference() + " is not set, skipping failover model " + model);
+                continue;
+            }
+            chain.add(guard(failoverProvider, createGenerator(failoverProvider, model), defaultReplyMessage));
+            names.add(model);
+            applyRateLimits(failoverProvider);
+        }
+        chainProviders.put(provider, providers);
+
+        ReplyEngine engine = chain.get(0);
+        if (chain.size() > 1) {
+            Log.d(TAG, "createEngine: failover chain " + names);
+            FailoverReplyEngine failoverEngine = new FailoverReplyEngine(chain, names, replyExecutors.getScheduler(),
+                    sharedPreferences.getBoolean("is_hedging_enabled", false));
+            failoverEngines.put(provider, failoverEngine);
+            engine = failoverEngine;
+        }
+        if (sharedPreferences.getBoolean("is_reply_cache_enabled", true)) {
+            engine = new CachingReplyEngine(engine, messageHandler.getReplyCache(), messageHandler.getNearDuplicateIndex(),
+                    provider, sharedPreferences);
+        }
+        return engine;
+    }
+
+    private ReplyEngine guard(ReplyProvider provider, ReplyEngine generator, String defaultReplyMessage) {
+        int failureRate = CustomMethods.getIntPreference(sharedPreferences, "circuit_breaker_failure_rate", 50);
+        CircuitBreaker circuitBreaker = circuitBreakers.get(provider);
+        if (circuitBreaker == null) {
+            circuitBreaker = new CircuitBreaker(provider.name(), failureRate);
+            circuitBreaker.setOnStateChangeListener((name, state) -> Log.w(TAG, "onStateChanged: " + name + " circuit is now " + state));
+            circuitBreakers.put(provider, circuitBreaker);
+        } else {
+            circuitBreaker.setFailureRateThreshold(failureRate);
+        }
+        return new CircuitBreakerReplyEngine(generator, circuitBreaker, defaultReplyMessage);
+    }
+
+    private void applyRateLimits(ReplyProvider provider) {
+        // 0 keeps the provider default
+        int requestsPerMinute = CustomMethods.getIntPreference(sharedPreferences, "rate_limit_requests_per_minute", 0);
+        int tokensPerMinute = CustomMethods.getIntPreference(sharedPreferences, "rate_limit_tokens_per_minute", 0);
+        httpTransport.getRateLimiter().setLimits(provider.name(),
+                requestsPerMinute > 0 ? requestsPerMinute : provider.getRequestsPerMinute(),
+                tokensPerMinute > 0 ? tokensPerMinute : provider.getTokensPerMinute());
+    }
+
+    /**
+     * @param llmModel model to call, null for the {@code llm_model} preference
+     */
+    private ReplyEngine createGenerator(ReplyProvider provider, String llmModel) {
+        switch (provider) {
+            case GEMINI:
+                return new GeminiReplyGenerator(context, sharedPreferences, messageHandler, replyExecutors, llmModel);
+            case DEEPSEEK:
+                return new DeepSeekReplyGenerator(context, sharedPreferences, messageHandler, httpTransport, llmModel);
+            case OLLAMA:
+                return new OllamaReplyGenerator(context, sharedPreferences, messageHandler, httpTransport, llmModel);
+            case CUSTOM:
+                return new CustomReplyGenerator(context, sharedPreferences, messageHandler, httpTransport, llmModel);
+            case CHATGPT:
+            default:
+                return new ChatGPTReplyGenerator(context, sharedPreferences, messageHandler, httpTransport, llmModel);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package zo.ro.whatsappreplybot.apis;
+
+import java.io.IOException;
+
+import okio.BufferedSource;
+import okio.ByteString;
+
+/**
+ * Pulls the reply text out of the providers' non-streaming response bodies.
+ * <p>
+ * The body is read straight from the network source with a {@link JsonPath}, no tree is built.
+ * Plain Java on purpose, so the parsing can be measured on the JVM without Android.
+ */
+public class ReplyParsers {
+
+    public static final JsonPath DEFAULT_RESPONSE_KEY = JsonPath.compile("response");
+
+    private static final JsonPath CHAT_COMPLETION_CONTENT = JsonPath.compile("choices[0].message.content");
+    // Also the content of each streamed Ollama chunk
+    static final JsonPath OLLAMA_CONTENT = JsonPath.compile("message.content");
+
+    // Tried in order when a custom API doesn't have the configured key
+    private static final ByteString[] COMMON_REPLY_KEYS = {
+            ByteString.encodeUtf8("response"), ByteString.encodeUtf8("reply"), ByteString.encodeUtf8("message"),
+            ByteString.encodeUtf8("text"), ByteString.encodeUtf8("content"), ByteString.encodeUtf8("answer")};
+
+    private ReplyParsers() {
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * OpenAI-compatible chat completions, as answered by ChatGPT and DeepSeek.
+     *
+     * @return the first choice's content, null if there is no choice
+     */
+    public static String parseChatCompletion(BufferedSource source) throws IOException {
+        return CHAT_COMPLETION_CONTENT.readString(source);
+    }
+
+    /**
+     * Ollama's {@code /api/chat} response.
+     */
+    public static String parseOllamaChat(BufferedSource source) throws IOException {
+        return OLLAMA_CONTENT.readString(source);
+    }
+
+    /**
+     * @param responseKey configured path to the reply; when it's missing the first non-empty
+     *                    top-level common key is used
+     * @return the reply, null if no key holds a non-empty one
+     */
+    public static String parseCustomResponse(BufferedSource source, JsonPath responseKey) throws IOException {
+        String[] fallbacks = new String[COMMON_REPLY_KEYS.length];
+        String reply = responseKey.readString(source, COMMON_REPLY_KEYS, fallbacks);
+
+        if (reply != null) {
+            return reply.isEmpty() ? null : reply;
+        }
+        for (String fallback : fallbacks) {
+            if (fallback != null && !fallback.isEmpty()) {
+                return fallback;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,156 @@
+package zo.ro.whatsappreplybot.apis;
+
+import android.content.SharedPreferences;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Maps the {@code llm_model} preference to the provider that serves it, and lists the
+ * preference keys each provider reads so that only affected engines are rebuilt on change.
+ * Each provider also has a default prompt token budget and a limit on replies generated at
+ * once, local and custom models get less of both, plus default rate limits where the provider
+ * publishes them.
+ * <p>
+ * Providers that take an API key read it from their own {@code <provider>_api_key} preference.
+ * The shared {@code api_key} only goes to the provider of the selected model, so a failover
+ * model never receives a key meant for another provider.
+ */
+public enum ReplyProvider {
+
+    // OpenAI usage tier 1 limits for the mini models
+    CHATGPT(4000, 4, 500, 200_000, new String[]{"gpt"}, ApiKey.REQUIRED),
+    // The Gemini SDK has its own HTTP stack, so requests don't go through the rate limiter
+    GEMINI(4000, 4, 0, 0, new String[]{"gemini"}, ApiKey.REQUIRED),
+    DEEPSEEK(4000, 4, 0, 0, new String[]{"deepseek"}, ApiKey.REQUIRED),
+    // Ollama defaults to a 2048 token context window, leave room for the reply. A local model
+    // runs one request at a time, concurrent requests only queue up inside the server
+    OLLAMA(1500, 1, 0, 0, new String[]{"llama", "mistral", "codellama", "phi"}, ApiKey.NONE, "ollama_api_url"),
+    CUSTOM(2000, 2, 0, 0, new String[]{"custom"}, ApiKey.OPTIONAL, "custom_api_url", "custom_api_response_key", "custom_api_request_format");
+
+    private final int promptTokenBudget;
+    private final int maxConcurrentReplies;
+    private final int requestsPerMinute;
+    private final int tokensPerMinute;
+    private final String[] modelPrefixes;
+    private final ApiKey apiKey;
+    private final Set<String> preferenceKeys;
+
+    ReplyProvider(int promptTokenBudget, int maxConcurrentReplies, int requestsPerMinute, int tokensPerMinute, String[] modelPrefixes, ApiKey apiKey, String... extraKeys) {
+        this.promptTokenBudget = promptTokenBudget;
+        this.maxConcurrentReplies = maxConcurrentReplies;
+        this.requestsPerMinute = requestsPerMinute;
+        this.tokensPerMinute = tokensPerMinute;
+        this.modelPrefixes = modelPrefixes;
+        this.apiKey = apiKey;
+        Set<String> keys = new HashSet<>(Arrays.asList(CommonKeys.KEYS));
+        keys.addAll(Arrays.asList(extraKeys));
+        if (apiKey != ApiKey.NONE) {
+            keys.add(getApiKeyPreference());
+        }
+        this.preferenceKeys = Collections.unmodifiableSet(keys);
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    public Set<String> getPreferenceKeys() {
+        return preferenceKeys;
+    }
+
+    public int getPromptTokenBudget() {
+        return promptTokenBudget;
+    }
+
+    public int getMaxConcurrentReplies() {
+        return maxConcurrentReplies;
+    }
+
+    /**
+     * @return default request limit, 0 if the provider has none
+     */
+    public int getRequestsPerMinute() {
+        return requestsPerMinute;
+    }
+
+    /**
+     * @return default prompt token limit, 0 if the provider has none
+     */
+    public int getTokensPerMinute() {
+        return tokensPerMinute;
+    }
+
+    /**
+     * @return the provider's own key preference, e.g. {@code deepseek_api_key}
+     */
+    public String getApiKeyPreference() {
+        return name().toLowerCase(Locale.ROOT) + "_api_key";
+    }
+
+    /**
+     * @return true if requests fail without a key, a failover model of this provider is useless without one
+     */
+    public boolean isApiKeyRequired() {
+        return apiKey == ApiKey.REQUIRED;
+    }
+
+    /**
+     * @return the provider's own key if set, else the shared {@code api_key} when this provider
+     * serves the selected model, else an empty string
+     */
+    public String getApiKey(SharedPreferences sharedPreferences) {
+        if (apiKey == ApiKey.NONE) {
+            return "";
+        }
+        String ownKey = sharedPreferences.getString(getApiKeyPreference(), "").trim();
+        if (!ownKey.isEmpty()) {
+            return ownKey;
+        }
+        return this == fromModel(sharedPreferences.getString("llm_model", "gpt-4o-mini"))
+                ? sharedPreferences.getString("api_key", "").trim() : "";
+    }
+
+    /**
+     * @param budgetOverride the {@code prompt_token_budget} preference, 0 keeps the provider default
+     */
+    public PromptBuilder newPromptBuilder(int budgetOverride) {
+        return new PromptBuilder(budgetOverride > 0 ? budgetOverride : promptTokenBudget);
+    }
+
+    /**
+     * @return the provider serving the given model, or null if no provider matches
+     */
+    public static ReplyProvider fromModel(String llmModel) {
+        if (llmModel == null) {
+            return null;
+        }
+        String model = llmModel.toLowerCase();
+        for (ReplyProvider provider : values()) {
+            for (String prefix : provider.modelPrefixes) {
+                if (model.startsWith(prefix)) {
+                    return provider;
+                }
+            }
+        }
+        return null;
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    private enum ApiKey {
+        NONE, OPTIONAL, REQUIRED
+    }
+
+    // Enum constructors can't read the enum's own static fields, so the shared keys live here
+    private static class CommonKeys {
+        static final String[] KEYS = {
+                "api_key", "llm_model", "default_reply_message", "ai_reply_language", "bot_name", "custom_ai_prompt",
+                "is_streaming_enabled", "max_reply_sentences", "max_reply_characters",
+                "prompt_token_budget", "is_reply_cache_enabled", "reply_cache_ttl_hours", "reply_cache_excluded_senders",
+                "similar_reply_threshold", "rate_limit_requests_per_minute", "rate_limit_tokens_per_minute",
+                "failover_models", "is_hedging_enabled", "circuit_breaker_failure_rate"
+        };
+    }
+}
@@ -0,0 +1,192 @@
+package zo.ro.whatsappreplybot.apis;
+
+import java.io.IOException;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+
+/**
+ * Assembles a reply from a streamed completion while it arrives.
+ * <p>
+ * OpenAI-compatible APIs (ChatGPT, DeepSeek) stream Server-Sent Events ("data: {...}" lines
+ * ending with "data: [DONE]"), Ollama streams one JSON object per line. Reading stops as soon
+ * as the configured sentence or character limit is reached; the caller then closes the
+ * response, which cancels the generation so the remaining tokens are never produced or billed.
+ * The same limits can be applied to a complete, non-streamed reply with {@link #limit(String)}.
+ * <p>
+ * Each line is moved out of the source as bytes and its content read with a {@link JsonPath},
+ * like the non-streamed bodies in {@link ReplyParsers}, so no JSON tree or line String is built
+ * per chunk.
+ */
+public class StreamingReplyReader {
+
+    private static final JsonPath SSE_DELTA_CONTENT = JsonPath.compile("choices[0].delta.content");
+    private static final ByteString SSE_DATA = ByteString.encodeUtf8("data:");
+    private static final ByteString SSE_DONE = ByteString.encodeUtf8("[DONE]");
+    // Ollama writes compact JSON; inside a string the quotes would be escaped, so this can't match content
+    private static final ByteString NDJSON_DONE = ByteString.encodeUtf8("\"done\":true");
+
+    private final int maxSentences;
+    private final int maxChars;
+
+    /**
+     * @param maxSentences stop after this many sentences, 0 for no limit
+     * @param maxChars     stop after this many characters, 0 for no limit
+     */
+    public StreamingReplyReader(int maxSentences, int maxChars) {
+        this.maxSentences = Math.max(0, maxSentences);
+        this.maxChars = Math.max(0, maxChars);
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * Reads an OpenAI-style SSE stream of chat.completion.chunk events.
+     *
+     * @return the assembled reply, or null if the stream carried no content
+     */
+    public String readSse(BufferedSource source) throws IOException {
+        Accumulator reply = new Accumulator();
+        Buffer line = new Buffer();
+        while (readLine(source, line)) {
+            // Skip blank separators, comments (":") and event/id fields
+            if (!line.rangeEquals(0, SSE_DATA)) {
+                continue;
+            }
+            line.skip(SSE_DATA.size());
+            while (line.size() > 0 && line.getByte(0) == ' ') {
+                line.skip(1);
+            }
+            if (line.rangeEquals(0, SSE_DONE)) {
+                break;
+            }
+            if (reply.append(readContent(SSE_DELTA_CONTENT, line))) {
+                break;
+            }
+        }
+        return reply.finish();
+    }
+
+    /**
+     * Reads an Ollama NDJSON stream of chat chunks.
+     *
+     * @return the assembled reply, or null if the stream carried no content
+     */
+    public String readNdjson(BufferedSource source) throws IOException {
+        Accumulator reply = new Accumulator();
+        Buffer line = new Buffer();
+        while (readLine(source, line)) {
+            // Checked first, reading the content consumes the line
+            boolean done = line.indexOf(NDJSON_DONE) >= 0;
+            if (reply.append(readContent(ReplyParsers.OLLAMA_CONTENT, line)) || done) {
+                break;
+            }
+        }
+        return reply.finish();
+    }
+
+    /**
+     * Applies the same limits to an already complete reply.
+     */
+    public String limit(String text) {
+        if (text == null || (maxSentences == 0 && maxChars == 0)) {
+            return text;
+        }
+        Accumulator reply = new Accumulator();
+        reply.append(text);
+        String limited = reply.finish();
+        return limited == null ? text : limited;
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * Moves the next line out of the source into {@code line}, without the '\n'. A trailing
+     * '\r' stays, {@link JsonPath} reads it as whitespace.
+     *
+     * @return false at the end of the stream
+     */
+    private static boolean readLine(BufferedSource source, Buffer line) throws IOException {
+        line.clear();
+        long newline = source.indexOf((byte) '\n');
+        if (newline == -1) {
+            // The last line has no terminator
+            source.readAll(line);
+            return line.size() > 0;
+        }
+        source.readFully(line, newline);
+        source.skip(1);
+        return true;
+    }
+
+    private static String readContent(JsonPath path, Buffer line) {
+        if (line.size() == 0) {
+            return null;
+        }
+        try {
+            return path.readString(line);
+        } catch (IOException e) {
+            // Keep-alive noise or a provider error line, not part of the reply
+            return null;
+        }
+    }
+
+    private static boolean isSentenceEnd(char c) {
+        return c == '.' || c == '!' || c == '?' || c == '\u3002' || c == '\u0964';
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * Collects chunks and tracks sentence boundaries incrementally, each character is scanned once.
+     */
+    private class Accumulator {
+
+        private final StringBuilder text = new StringBuilder();
+        private int scanned;
+        private int sentences;
+
+        /**
+         * @return true once a limit was reached and the text was cut, reading should stop
+         */
+        boolean append(String chunk) {
+            if (chunk == null || chunk.isEmpty()) {
+                return false;
+            }
+            text.append(chunk);
+
+            if (maxSentences > 0) {
+                // A terminator only ends a sentence once the following whitespace has arrived
+                for (; scanned + 1 < text.length(); scanned++) {
+                    if (isSentenceEnd(text.charAt(scanned)) && Character.isWhitespace(text.charAt(scanned + 1))) {
+                        sentences++;
+                        if (sentences >= maxSentences && (maxChars == 0 || scanned + 1 <= maxChars)) {
+                            text.setLength(scanned + 1);
+                            return true;
+                        }
+                    }
+                }
+            }
+
+            if (maxChars > 0 && text.length() >= maxChars) {
+                int cut = maxChars;
+                // Prefer ending on a word boundary if there is one in the second half
+                for (int i = maxChars; i > maxChars / 2; i--) {
+                    if (Character.isWhitespace(text.charAt(i - 1))) {
+                        cut = i;
+                        break;
+                    }
+                }
+                text.setLength(cut);
+                return true;
+            }
+            return false;
+        }
+
+        String finish() {
+            String reply = text.toString().trim();
+            return reply.isEmpty() ? null : reply;
+        }
+    }
+}
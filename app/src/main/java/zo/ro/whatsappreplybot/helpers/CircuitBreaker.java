@@ -0,0 +1,177 @@
+package zo.ro.whatsappreplybot.helpers;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calling a provider that keeps failing.
+ * <p>
+ * While closed, the outcomes of the last {@link #WINDOW_SIZE} calls are kept; once at least
+ * {@link #MIN_CALLS} were seen and the failure rate reaches the threshold, the breaker opens and
+ * every call is refused at once. After the open period one probe call is let through
+ * (half-open): a success closes the breaker with a fresh window, a failure opens it again.
+ */
+public class CircuitBreaker {
+
+    public static final int WINDOW_SIZE = 20;
+    public static final int MIN_CALLS = 5;
+    public static final long DEFAULT_OPEN_MILLIS = 30_000;
+
+    public enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final String name;
+    private final long openMillis;
+    private final LongSupplier clock;
+    private final boolean[] outcomes = new boolean[WINDOW_SIZE];
+    private OnStateChangeListener listener;
+    private int failureRateThreshold;
+    private State state = State.CLOSED;
+    private int next;
+    private int calls;
+    private int failures;
+    private long openedAt;
+    private long probeStartedAt = -1;
+    private long rejected;
+    private long timesOpened;
+
+    /**
+     * @param failureRateThreshold percent of failed calls that opens the breaker, 0 never opens it
+     */
+    public CircuitBreaker(String name, int failureRateThreshold) {
+        this(name, failureRateThreshold, DEFAULT_OPEN_MILLIS, () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+    }
+
+    /**
+     * @param clock monotonic time in millis
+     */
+    public CircuitBreaker(String name, int failureRateThreshold, long openMillis, LongSupplier clock) {
+        this.name = name;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openMillis = openMillis;
+        this.clock = clock;
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * @return true if the call may go ahead, it must then report {@link #onSuccess} or {@link #onFailure}
+     */
+    public boolean allowRequest() {
+        State changed = null;
+        boolean allowed;
+        synchronized (this) {
+            long now = clock.getAsLong();
+            if (state == State.OPEN && now - openedAt >= openMillis) {
+                changed = transitionTo(State.HALF_OPEN);
+            }
+            if (state == State.CLOSED) {
+                allowed = true;
+            } else if (state == State.HALF_OPEN && (probeStartedAt < 0 || now - probeStartedAt >= openMillis)) {
+                // A probe that never reported back doesn't block the next one forever
+                probeStartedAt = now;
+                allowed = true;
+            } else {
+                rejected++;
+                allowed = false;
+            }
+        }
+        notifyListener(changed);
+        return allowed;
+    }
+
+    public void onSuccess() {
+        State changed = null;
+        synchronized (this) {
+            if (state == State.HALF_OPEN) {
+                resetWindow();
+                changed = transitionTo(State.CLOSED);
+            } else if (state == State.CLOSED) {
+                record(false);
+            }
+        }
+        notifyListener(changed);
+    }
+
+    public void onFailure() {
+        State changed = null;
+        synchronized (this) {
+            if (state == State.HALF_OPEN) {
+                changed = open();
+            } else if (state == State.CLOSED) {
+                record(true);
+                if (failureRateThreshold > 0 && calls >= MIN_CALLS && failures * 100 >= failureRateThreshold * calls) {
+                    changed = open();
+                }
+            }
+        }
+        notifyListener(changed);
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    private void record(boolean failed) {
+        if (calls == WINDOW_SIZE && outcomes[next]) {
+            failures--;
+        }
+        outcomes[next] = failed;
+        if (failed) {
+            failures++;
+        }
+        next = (next + 1) % WINDOW_SIZE;
+        calls = Math.min(calls + 1, WINDOW_SIZE);
+    }
+
+    private void resetWindow() {
+        next = 0;
+        calls = 0;
+        failures = 0;
+    }
+
+    private State open() {
+        openedAt = clock.getAsLong();
+        timesOpened++;
+        resetWindow();
+        return transitionTo(State.OPEN);
+    }
+
+    private State transitionTo(State newState) {
+        state = newState;
+        probeStartedAt = -1;
+        return newState;
+    }
+
+    private void notifyListener(State changed) {
+        OnStateChangeListener stateListener = listener;
+        if (changed != null && stateListener != null) {
+            stateListener.onStateChanged(name, changed);
+        }
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    public void setOnStateChangeListener(OnStateChangeListener listener) {
+        this.listener = listener;
+    }
+
+    public synchronized void setFailureRateThreshold(int failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized long getRejectedCount() {
+        return rejected;
+    }
+
+    public synchronized String getStatsSummary() {
+        return String.format(Locale.US, "%s %s, failures %d/%d, opened %d times, rejected %d",
+                name, state, failures, calls, timesOpened, rejected);
+    }
+
+    public interface OnStateChangeListener {
+        void onStateChanged(String name, State state);
+    }
+}
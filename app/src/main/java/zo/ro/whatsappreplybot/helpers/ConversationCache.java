@@ -0,0 +1,115 @@
+package zo.ro.whatsappreplybot.helpers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import zo.ro.whatsappreplybot.models.Message;
+
+/**
+ * In-memory recent history per sender, in front of SQLite.
+ * <p>
+ * Each sender keeps a ring of its newest messages (newest first, same order as the DB query).
+ * Senders are evicted least-recently-used once maxSenders is reached. Entries are filled
+ * from SQLite on a cold miss and then kept current write-through by every insert, so an
+ * active chat builds its history without any I/O.
+ */
+public class ConversationCache {
+
+    public static final int DEFAULT_MAX_SENDERS = 64;
+
+    private final int historySize;
+    private final LinkedHashMap<String, ArrayDeque<Message>> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ConversationCache(int historySize) {
+        this(historySize, DEFAULT_MAX_SENDERS);
+    }
+
+    public ConversationCache(int historySize, int maxSenders) {
+        this.historySize = historySize;
+        // Access order turns the map into an LRU
+        this.entries = new LinkedHashMap<String, ArrayDeque<Message>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ArrayDeque<Message>> eldest) {
+                return size() > maxSenders;
+            }
+        };
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * @return a copy of the sender's cached history (newest first), or null on a miss
+     */
+    public synchronized List<Message> get(String sender) {
+        ArrayDeque<Message> ring = entries.get(sender);
+        if (ring == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return new ArrayList<>(ring);
+    }
+
+    /**
+     * Stores a history freshly loaded from SQLite (newest first). Ignored if the sender is
+     * already cached, since the cached ring may already hold newer messages.
+     */
+    public synchronized void put(String sender, List<Message> newestFirst) {
+        if (entries.containsKey(sender)) {
+            return;
+        }
+        ArrayDeque<Message> ring = new ArrayDeque<>(historySize);
+        for (Message message : newestFirst) {
+            if (ring.size() == historySize) {
+                break;
+            }
+            ring.addLast(message);
+        }
+        entries.put(sender, ring);
+    }
+
+    /**
+     * Write-through for a newly inserted message. Senders that aren't cached are left alone,
+     * their next read loads everything from SQLite anyway.
+     */
+    public synchronized void append(String sender, Message message) {
+        ArrayDeque<Message> ring = entries.get(sender);
+        if (ring == null) {
+            return;
+        }
+        ring.addFirst(message);
+        while (ring.size() > historySize) {
+            ring.removeLast();
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public double getHitRate() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
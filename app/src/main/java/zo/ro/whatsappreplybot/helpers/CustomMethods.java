@@ -2,12 +2,16 @@ package zo.ro.whatsappreplybot.helpers;
 
 import android.content.ComponentName;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.provider.Settings;
 import android.text.TextUtils;
+import android.util.Log;
 
 import java.text.DateFormat;
 import java.util.Calendar;
+import java.util.HashSet;
 import java.util.Locale;
+import java.util.Set;
 
 public class CustomMethods {
 
@@ -17,37 +21,52 @@ public class CustomMethods {
         return usDateFormat.format(calendar.getTime());
     }
 
+    /**
+     * @return epoch millis of today's local midnight
+     */
+    public static long getStartOfDayMillis() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
 //    ----------------------------------------------------------------------------------------------
 
     /**
-     * Processes a prompt template by automatically appending chat history and message
-     * No placeholders needed - users just write the behavior prompt
+     * Reads a number stored by an EditTextPreference, empty or invalid values give defaultValue
      */
-    public static String processPromptTemplate(String template, String language, String botName, 
-                                                String sender, String message, String chatHistory) {
-        if (template == null || template.isEmpty()) {
-            return template;
-        }
-
-        // Automatically append chat history and message at the end
-        StringBuilder finalPrompt = new StringBuilder(template);
-        
-        // Add chat history if available
-        if (chatHistory != null && !chatHistory.trim().isEmpty()) {
-            finalPrompt.append("\n\nPrevious chat history:\n").append(chatHistory);
-        } else {
-            finalPrompt.append("\n\nThere is no previous chat history. This is the first message from the sender.");
+    public static int getIntPreference(SharedPreferences sharedPreferences, String key, int defaultValue) {
+        String value = sharedPreferences.getString(key, String.valueOf(defaultValue)).trim();
+        if (value.isEmpty()) {
+            return defaultValue;
         }
-        
-        // Add current message
-        if (sender != null && message != null) {
-            finalPrompt.append("\n\nMost recent message (from ").append(sender).append("): ").append(message);
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            Log.e("MADARA", "Invalid " + key + " value: " + value, e);
+            return defaultValue;
         }
-        
-        return finalPrompt.toString();
     }
 
 //    ----------------------------------------------------------------------------------------------
 
-
+    /**
+     * Contact names separated by commas or new lines, lower-cased so they match case-insensitively.
+     */
+    public static Set<String> parseContactList(String contacts) {
+        Set<String> parsed = new HashSet<>();
+        if (contacts == null) {
+            return parsed;
+        }
+        for (String contact : contacts.split("[,\\n]")) {
+            String name = contact.trim().toLowerCase(Locale.ROOT);
+            if (!name.isEmpty()) {
+                parsed.add(name);
+            }
+        }
+        return parsed;
+    }
 }
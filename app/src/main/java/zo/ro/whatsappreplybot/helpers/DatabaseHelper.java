@@ -1,165 +1,486 @@
 package zo.ro.whatsappreplybot.helpers;
 
-import android.annotation.SuppressLint;
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
-import java.text.SimpleDateFormat;
+import androidx.annotation.VisibleForTesting;
+
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 
 import zo.ro.whatsappreplybot.models.Message;
 
+/**
+ * Process-wide SQLite helper. A single connection is opened once and kept for the lifetime
+ * of the process (never closed per operation), with write-ahead logging so readers don't
+ * block the writer. Hot statements are compiled once and reused.
+ */
 public class DatabaseHelper extends SQLiteOpenHelper {
 
     private static final String TAG = "MADARA";
     private static final String DATABASE_NAME = "whatsappMessages.db";
-    private static final int DATABASE_VERSION = 1; // Increment version for schema change
+    private static final int DATABASE_VERSION = 3; // Increment version for schema change, add a migrateToVersionN step
     public static final String TABLE_MESSAGES = "messages";
     public static final String COLUMN_ID = "_id";
     public static final String COLUMN_SENDER = "sender";
     public static final String COLUMN_MESSAGE = "message";
     public static final String COLUMN_TIMESTAMP = "timestamp";
     public static final String COLUMN_REPLY = "reply";
+    public static final String COLUMN_DIRECTION = "direction";
+    public static final String COLUMN_PROVIDER = "provider";
+    public static final String INDEX_SENDER_TIMESTAMP = "idx_messages_sender_timestamp";
+    public static final String TABLE_REPLY_CACHE = "reply_cache";
+    public static final String COLUMN_CACHE_KEY = "cache_key";
+    public static final String COLUMN_CREATED_AT = "created_at";
+    public static final String COLUMN_LAST_USED_AT = "last_used_at";
+    public static final String INDEX_REPLY_CACHE_LAST_USED = "idx_reply_cache_last_used";
+
+    public static final int HISTORY_LIMIT = 7; // Messages of context handed to the reply generators
 
+    public static final int DIRECTION_INCOMING = 0; // Message received from the sender, reply stored alongside
+
+    // Timestamps are epoch millis so range filters and ordering compare integers, not strings
     private static final String TABLE_CREATE =
             "CREATE TABLE " + TABLE_MESSAGES + " (" +
                     COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
                     COLUMN_SENDER + " TEXT, " +
                     COLUMN_MESSAGE + " TEXT, " +
-                    COLUMN_TIMESTAMP + " TEXT, " +
-                    COLUMN_REPLY + " TEXT" +
+                    COLUMN_TIMESTAMP + " INTEGER NOT NULL, " +
+                    COLUMN_REPLY + " TEXT, " +
+                    COLUMN_DIRECTION + " INTEGER NOT NULL DEFAULT " + DIRECTION_INCOMING + ", " +
+                    COLUMN_PROVIDER + " TEXT" +
                     ");";
 
-    public DatabaseHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    // Serves "WHERE sender = ? ORDER BY timestamp DESC" as an index range scan, no sort step
+    private static final String INDEX_CREATE =
+            "CREATE INDEX IF NOT EXISTS " + INDEX_SENDER_TIMESTAMP + " ON " + TABLE_MESSAGES +
+                    " (" + COLUMN_SENDER + ", " + COLUMN_TIMESTAMP + ");";
+
+    // Generated replies keyed by ReplyCache, kept apart from the chat history
+    private static final String REPLY_CACHE_CREATE =
+            "CREATE TABLE IF NOT EXISTS " + TABLE_REPLY_CACHE + " (" +
+                    COLUMN_CACHE_KEY + " TEXT PRIMARY KEY, " +
+                    COLUMN_REPLY + " TEXT NOT NULL, " +
+                    COLUMN_CREATED_AT + " INTEGER NOT NULL, " +
+                    COLUMN_LAST_USED_AT + " INTEGER NOT NULL" +
+                    ");";
+
+    // LRU eviction walks entries by last use
+    private static final String REPLY_CACHE_INDEX_CREATE =
+            "CREATE INDEX IF NOT EXISTS " + INDEX_REPLY_CACHE_LAST_USED + " ON " + TABLE_REPLY_CACHE +
+                    " (" + COLUMN_LAST_USED_AT + ");";
+
+    private static final String SQL_INSERT_MESSAGE =
+            "INSERT INTO " + TABLE_MESSAGES + " (" + COLUMN_SENDER + ", " + COLUMN_MESSAGE + ", " +
+                    COLUMN_TIMESTAMP + ", " + COLUMN_REPLY + ", " + COLUMN_DIRECTION + ", " + COLUMN_PROVIDER +
+                    ") VALUES (?, ?, ?, ?, ?, ?)";
+
+    private static final String SQL_COUNT_MESSAGES_SINCE =
+            "SELECT COUNT(*) FROM " + TABLE_MESSAGES + " WHERE " + COLUMN_SENDER + " = ? AND " + COLUMN_TIMESTAMP + " >= ?";
+
+    // Retention deletes go in bounded batches so one run never holds the write lock for long
+    private static final String SQL_DELETE_BATCH_OLDER_THAN =
+            "DELETE FROM " + TABLE_MESSAGES + " WHERE " + COLUMN_ID + " IN (SELECT " + COLUMN_ID + " FROM " +
+                    TABLE_MESSAGES + " WHERE " + COLUMN_TIMESTAMP + " < ? LIMIT ?)";
+
+    private static final String SQL_DELETE_BATCH_BEYOND_PER_SENDER =
+            "DELETE FROM " + TABLE_MESSAGES + " WHERE " + COLUMN_ID + " IN (SELECT " + COLUMN_ID + " FROM " +
+                    TABLE_MESSAGES + " WHERE " + COLUMN_SENDER + " = ? ORDER BY " + COLUMN_TIMESTAMP + " DESC LIMIT ? OFFSET ?)";
+
+    private static final String SQL_DELETE_BATCH_OLDEST =
+            "DELETE FROM " + TABLE_MESSAGES + " WHERE " + COLUMN_ID + " IN (SELECT " + COLUMN_ID + " FROM " +
+                    TABLE_MESSAGES + " ORDER BY " + COLUMN_TIMESTAMP + " ASC LIMIT ?)";
+
+    private static final String SQL_SENDERS_OVER_LIMIT =
+            "SELECT " + COLUMN_SENDER + " FROM " + TABLE_MESSAGES + " WHERE " + COLUMN_SENDER + " IS NOT NULL" +
+                    " GROUP BY " + COLUMN_SENDER + " HAVING COUNT(*) > ?";
+
+    // Constant SQL strings hit SQLite's per-connection prepared statement cache on every call
+    private static final String SQL_SELECT_BY_SENDER =
+            "SELECT " + COLUMN_ID + ", " + COLUMN_MESSAGE + ", " + COLUMN_TIMESTAMP + ", " + COLUMN_REPLY + ", " +
+                    COLUMN_DIRECTION + ", " + COLUMN_PROVIDER + " FROM " + TABLE_MESSAGES +
+                    " WHERE " + COLUMN_SENDER + " = ? ORDER BY " + COLUMN_TIMESTAMP + " DESC";
+
+    private static final String SQL_SELECT_HISTORY_BY_SENDER = SQL_SELECT_BY_SENDER + " LIMIT " + HISTORY_LIMIT;
+
+    private static final String SQL_SELECT_CACHED_REPLY =
+            "SELECT " + COLUMN_REPLY + " FROM " + TABLE_REPLY_CACHE +
+                    " WHERE " + COLUMN_CACHE_KEY + " = ? AND " + COLUMN_CREATED_AT + " >= ?";
+
+    private static final String SQL_TOUCH_CACHED_REPLY =
+            "UPDATE " + TABLE_REPLY_CACHE + " SET " + COLUMN_LAST_USED_AT + " = ? WHERE " + COLUMN_CACHE_KEY + " = ?";
+
+    private static final String SQL_PUT_CACHED_REPLY =
+            "INSERT OR REPLACE INTO " + TABLE_REPLY_CACHE + " (" + COLUMN_CACHE_KEY + ", " + COLUMN_REPLY + ", " +
+                    COLUMN_CREATED_AT + ", " + COLUMN_LAST_USED_AT + ") VALUES (?, ?, ?, ?)";
+
+    private static final String SQL_DELETE_EXPIRED_REPLIES =
+            "DELETE FROM " + TABLE_REPLY_CACHE + " WHERE " + COLUMN_CREATED_AT + " < ?";
+
+    // LIMIT -1 means no limit, everything past the newest maxEntries goes
+    private static final String SQL_DELETE_LEAST_RECENTLY_USED_REPLIES =
+            "DELETE FROM " + TABLE_REPLY_CACHE + " WHERE " + COLUMN_CACHE_KEY + " IN (SELECT " + COLUMN_CACHE_KEY +
+                    " FROM " + TABLE_REPLY_CACHE + " ORDER BY " + COLUMN_LAST_USED_AT + " DESC LIMIT -1 OFFSET ?)";
+
+    private static volatile DatabaseHelper instance;
+
+    private SQLiteDatabase database;
+    private SQLiteStatement insertStatement;
+    private SQLiteStatement countSinceStatement;
+    private SQLiteStatement cachedReplyStatement;
+    private SQLiteStatement touchCachedReplyStatement;
+    private SQLiteStatement putCachedReplyStatement;
+
+    public static DatabaseHelper getInstance(Context context) {
+        if (instance == null) {
+            synchronized (DatabaseHelper.class) {
+                if (instance == null) {
+                    instance = new DatabaseHelper(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private DatabaseHelper(Context context) {
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * @param name database file name, null for a private in-memory database that tests can trim freely
+     */
+    @VisibleForTesting
+    public DatabaseHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // Only takes effect for a fresh file; small existing files are converted by enableIncrementalVacuum()
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL;");
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(TABLE_CREATE);
+        db.execSQL(INDEX_CREATE);
+        db.execSQL(REPLY_CACHE_CREATE);
+        db.execSQL(REPLY_CACHE_INDEX_CREATE);
     }
 
+    /**
+     * Runs every migration step between the two versions in order, keeping existing rows.
+     * onUpgrade already runs inside a transaction, so a failed step leaves the old schema intact.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-//        if (oldVersion < 2) {
-//            db.execSQL("ALTER TABLE " + TABLE_MESSAGES + " ADD COLUMN " + COLUMN_REPLY + " TEXT;");
-//        }
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_MESSAGES);
-        onCreate(db);
+        if (oldVersion < 2) {
+            migrateToVersion2(db);
+        }
+        if (oldVersion < 3) {
+            migrateToVersion3(db);
+        }
+    }
+
+    /**
+     * Version 1 stored timestamps as local "yyyy-MM-dd HH:mm:ss" TEXT with no index.
+     * SQLite can't change a column type in place, so the table is rebuilt and the old text
+     * timestamps are converted to epoch millis ('utc' treats them as local time).
+     */
+    private void migrateToVersion2(SQLiteDatabase db) {
+        String legacyTable = TABLE_MESSAGES + "_v1";
+        db.execSQL("ALTER TABLE " + TABLE_MESSAGES + " RENAME TO " + legacyTable + ";");
+        db.execSQL(TABLE_CREATE);
+        db.execSQL("INSERT INTO " + TABLE_MESSAGES + " (" +
+                COLUMN_ID + ", " + COLUMN_SENDER + ", " + COLUMN_MESSAGE + ", " + COLUMN_TIMESTAMP + ", " +
+                COLUMN_REPLY + ", " + COLUMN_DIRECTION + ") " +
+                "SELECT " + COLUMN_ID + ", " + COLUMN_SENDER + ", " + COLUMN_MESSAGE + ", " +
+                "IFNULL(CAST(strftime('%s', " + COLUMN_TIMESTAMP + ", 'utc') AS INTEGER) * 1000, 0), " +
+                COLUMN_REPLY + ", " + DIRECTION_INCOMING + " FROM " + legacyTable + ";");
+        db.execSQL("DROP TABLE " + legacyTable + ";");
+        db.execSQL(INDEX_CREATE);
+    }
+
+    /**
+     * Version 3 adds the reply cache table, the messages table is unchanged.
+     */
+    private void migrateToVersion3(SQLiteDatabase db) {
+        db.execSQL(REPLY_CACHE_CREATE);
+        db.execSQL(REPLY_CACHE_INDEX_CREATE);
     }
 
 //    ----------------------------------------------------------------------------------------------
 
-    public void insertMessage(String sender, String message, String timestamp, String reply) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(COLUMN_SENDER, sender);
-        values.put(COLUMN_MESSAGE, message);
-        values.put(COLUMN_TIMESTAMP, timestamp);
-        values.put(COLUMN_REPLY, reply);
-        db.insert(TABLE_MESSAGES, null, values);
-        db.close();
+    /**
+     * Opens the shared connection on first use and compiles the reusable statements.
+     */
+    private synchronized SQLiteDatabase getDatabase() {
+        if (database == null) {
+            database = getWritableDatabase();
+            insertStatement = database.compileStatement(SQL_INSERT_MESSAGE);
+            countSinceStatement = database.compileStatement(SQL_COUNT_MESSAGES_SINCE);
+            cachedReplyStatement = database.compileStatement(SQL_SELECT_CACHED_REPLY);
+            touchCachedReplyStatement = database.compileStatement(SQL_TOUCH_CACHED_REPLY);
+            putCachedReplyStatement = database.compileStatement(SQL_PUT_CACHED_REPLY);
+        }
+        return database;
     }
 
-    public void deleteOldMessages() {
-        SQLiteDatabase db = null;
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * @param provider the reply provider that produced the reply, or null for the canned default reply
+     * @return the row id of the new message, or -1 on failure
+     */
+    public long insertMessage(String sender, String message, long timestamp, String reply, int direction, String provider) {
         try {
-            db = this.getWritableDatabase();
-            @SuppressLint("SimpleDateFormat")
-            String currentDate = new SimpleDateFormat("yyyy-MM-dd").format(new Date());
-            String whereClause = COLUMN_TIMESTAMP + " < ?";
-            String[] whereArgs = {currentDate + " 00:00:00"};
-            db.delete(TABLE_MESSAGES, whereClause, whereArgs);
-        } catch (Exception e) {
-            // Log the exception
-            Log.e("DatabaseHelper", "Error deleting old messages", e);
-        } finally {
-            if (db != null && db.isOpen()) {
-                db.close();
+            getDatabase();
+            // A compiled statement holds its bindings, so it must not be shared between threads mid-use
+            synchronized (insertStatement) {
+                try {
+                    bindNullable(insertStatement, 1, sender);
+                    bindNullable(insertStatement, 2, message);
+                    insertStatement.bindLong(3, timestamp);
+                    bindNullable(insertStatement, 4, reply);
+                    insertStatement.bindLong(5, direction);
+                    bindNullable(insertStatement, 6, provider);
+                    return insertStatement.executeInsert();
+                } finally {
+                    insertStatement.clearBindings();
+                }
             }
+        } catch (SQLException e) {
+            // Like SQLiteDatabase.insert, a full disk or I/O error must not escape the DB thread
+            Log.e(TAG, "insertMessage: ", e);
+            return -1;
         }
     }
 
-
     public List<Message> getChatHistoryBySender(String sender) {
-        List<Message> messages = new ArrayList<>();
-        SQLiteDatabase db = null;
-        Cursor cursor = null;
+        return queryMessagesBySender(SQL_SELECT_HISTORY_BY_SENDER, sender);
+    }
 
+    /**
+     * Counts the sender's stored messages newer than the given epoch millis.
+     * Answered from the (sender, timestamp) index without loading any rows.
+     */
+    public long countMessagesSince(String sender, long sinceMillis) {
+        if (sender == null) {
+            return 0;
+        }
         try {
-            // Ensure the database is opened
-            db = this.getReadableDatabase();
-
-            String query = "SELECT * FROM " + TABLE_MESSAGES + " WHERE " + COLUMN_SENDER + " = ? " +
-                    "ORDER BY " + COLUMN_TIMESTAMP + " DESC LIMIT 7";
-            cursor = db.rawQuery(query, new String[]{sender});
+            getDatabase();
+            synchronized (countSinceStatement) {
+                countSinceStatement.bindString(1, sender);
+                countSinceStatement.bindLong(2, sinceMillis);
+                long count = countSinceStatement.simpleQueryForLong();
+                countSinceStatement.clearBindings();
+                return count;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "countMessagesSince: ", e);
+            return 0;
+        }
+    }
 
-            if (cursor.moveToFirst()) {
-                do {
-                    int id = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_ID));
-                    String message = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_MESSAGE));
-                    String timestamp = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_TIMESTAMP));
-                    String reply = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_REPLY));
+//    ----------------------------------------------------------------------------------------------
+//    Reply cache, only called from ReplyCache on the DB thread
 
-                    Message msg = new Message(id, sender, message, timestamp, reply);
-                    messages.add(msg);
-                } while (cursor.moveToNext());
+    /**
+     * @return the cached reply if it was stored at or after createdAfterMillis, null otherwise.
+     * A hit also marks the entry as recently used.
+     */
+    public String getCachedReply(String cacheKey, long createdAfterMillis, long nowMillis) {
+        getDatabase();
+        String reply;
+        synchronized (cachedReplyStatement) {
+            try {
+                cachedReplyStatement.bindString(1, cacheKey);
+                cachedReplyStatement.bindLong(2, createdAfterMillis);
+                reply = cachedReplyStatement.simpleQueryForString();
+            } catch (SQLiteDoneException e) {
+                // No row
+                return null;
+            } finally {
+                cachedReplyStatement.clearBindings();
             }
-        } catch (Exception e) {
-            Log.e(TAG, "getLast5MessagesBySender: ", e);
+        }
+        synchronized (touchCachedReplyStatement) {
+            touchCachedReplyStatement.bindLong(1, nowMillis);
+            touchCachedReplyStatement.bindString(2, cacheKey);
+            touchCachedReplyStatement.executeUpdateDelete();
+            touchCachedReplyStatement.clearBindings();
+        }
+        return reply;
+    }
+
+    public void putCachedReply(String cacheKey, String reply, long nowMillis) {
+        getDatabase();
+        synchronized (putCachedReplyStatement) {
+            putCachedReplyStatement.bindString(1, cacheKey);
+            putCachedReplyStatement.bindString(2, reply);
+            putCachedReplyStatement.bindLong(3, nowMillis);
+            putCachedReplyStatement.bindLong(4, nowMillis);
+            putCachedReplyStatement.executeInsert();
+            putCachedReplyStatement.clearBindings();
+        }
+    }
+
+    /**
+     * Drops entries created before cutoffMillis, then the least recently used beyond maxEntries.
+     *
+     * @return number of entries deleted
+     */
+    public int trimReplyCache(long cutoffMillis, int maxEntries) {
+        return executeUpdateDelete(SQL_DELETE_EXPIRED_REPLIES, cutoffMillis)
+                + executeUpdateDelete(SQL_DELETE_LEAST_RECENTLY_USED_REPLIES, maxEntries);
+    }
+
+    public long getReplyCacheSize() {
+        return DatabaseUtils.queryNumEntries(getDatabase(), TABLE_REPLY_CACHE);
+    }
+
+//    ----------------------------------------------------------------------------------------------
+//    Retention, only called from RetentionCompactor on the DB thread
+
+    /**
+     * @return number of rows deleted, at most batchSize
+     */
+    public int deleteMessagesOlderThan(long cutoffMillis, int batchSize) {
+        return executeUpdateDelete(SQL_DELETE_BATCH_OLDER_THAN, cutoffMillis, batchSize);
+    }
+
+    /**
+     * Deletes up to batchSize of the sender's messages beyond the newest keepCount.
+     */
+    public int deleteMessagesBeyondPerSender(String sender, int keepCount, int batchSize) {
+        SQLiteStatement statement = getDatabase().compileStatement(SQL_DELETE_BATCH_BEYOND_PER_SENDER);
+        try {
+            statement.bindString(1, sender);
+            statement.bindLong(2, batchSize);
+            statement.bindLong(3, keepCount);
+            return statement.executeUpdateDelete();
         } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
-            if (db != null && db.isOpen()) {
-                db.close();
+            statement.close();
+        }
+    }
+
+    public int deleteOldestMessages(int batchSize) {
+        return executeUpdateDelete(SQL_DELETE_BATCH_OLDEST, batchSize);
+    }
+
+    public List<String> getSendersWithMoreThan(int messageCount) {
+        List<String> senders = new ArrayList<>();
+        try (Cursor cursor = getDatabase().rawQuery(SQL_SENDERS_OVER_LIMIT, new String[]{String.valueOf(messageCount)})) {
+            while (cursor.moveToNext()) {
+                senders.add(cursor.getString(0));
             }
         }
+        return senders;
+    }
 
-        return messages;
+    /**
+     * @return bytes in use by the database file, free pages excluded
+     */
+    public long getDatabaseSizeBytes() {
+        SQLiteDatabase db = getDatabase();
+        long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size;", null);
+        long pageCount = DatabaseUtils.longForQuery(db, "PRAGMA page_count;", null);
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count;", null);
+        return (pageCount - freePages) * pageSize;
     }
 
-    public List<Message> getAllMessagesBySender(String sender) {
-        List<Message> messages = new ArrayList<>();
-        SQLiteDatabase db = null;
-        Cursor cursor = null;
+    /**
+     * Databases created before auto_vacuum was configured need one full VACUUM to switch mode.
+     * VACUUM rewrites the whole file while holding the DB thread, so it only runs while the
+     * live data is at most maxLiveBytes; larger files keep reusing their free pages instead.
+     *
+     * @return true if the database uses incremental auto_vacuum now
+     */
+    public boolean enableIncrementalVacuum(long maxLiveBytes) {
+        SQLiteDatabase db = getDatabase();
+        // 2 = INCREMENTAL
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum;", null) == 2) {
+            return true;
+        }
+        if (getDatabaseSizeBytes() > maxLiveBytes) {
+            return false;
+        }
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL;");
+        db.execSQL("VACUUM;");
+        Log.d(TAG, "enableIncrementalVacuum: switched database to incremental auto_vacuum");
+        return true;
+    }
+
+    /**
+     * Returns up to maxPages free pages to the file system.
+     */
+    public void incrementalVacuum(int maxPages) {
+        // PRAGMA incremental_vacuum frees one page per result row, getCount() steps through all of them
+        try (Cursor cursor = getDatabase().rawQuery("PRAGMA incremental_vacuum(" + maxPages + ");", null)) {
+            cursor.getCount();
+        }
+    }
 
+    private int executeUpdateDelete(String sql, long... args) {
+        SQLiteStatement statement = getDatabase().compileStatement(sql);
         try {
-            // Ensure the database is opened
-            db = this.getReadableDatabase();
+            for (int i = 0; i < args.length; i++) {
+                statement.bindLong(i + 1, args[i]);
+            }
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    private List<Message> queryMessagesBySender(String query, String sender) {
+        List<Message> messages = new ArrayList<>();
 
-            String query = "SELECT * FROM " + TABLE_MESSAGES + " WHERE " + COLUMN_SENDER + " = ? " +
-                    "ORDER BY " + COLUMN_TIMESTAMP + " DESC";
-            cursor = db.rawQuery(query, new String[]{sender});
+        try (Cursor cursor = getDatabase().rawQuery(query, new String[]{sender})) {
 
             if (cursor.moveToFirst()) {
+                int idIndex = cursor.getColumnIndexOrThrow(COLUMN_ID);
+                int messageIndex = cursor.getColumnIndexOrThrow(COLUMN_MESSAGE);
+                int timestampIndex = cursor.getColumnIndexOrThrow(COLUMN_TIMESTAMP);
+                int replyIndex = cursor.getColumnIndexOrThrow(COLUMN_REPLY);
+                int directionIndex = cursor.getColumnIndexOrThrow(COLUMN_DIRECTION);
+                int providerIndex = cursor.getColumnIndexOrThrow(COLUMN_PROVIDER);
                 do {
-                    int id = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_ID));
-                    String message = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_MESSAGE));
-                    String timestamp = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_TIMESTAMP));
-                    String reply = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_REPLY));
+                    int id = cursor.getInt(idIndex);
+                    String message = cursor.getString(messageIndex);
+                    long timestamp = cursor.getLong(timestampIndex);
+                    String reply = cursor.getString(replyIndex);
+                    int direction = cursor.getInt(directionIndex);
+                    String provider = cursor.getString(providerIndex);
 
-                    Message msg = new Message(id, sender, message, timestamp, reply);
+                    Message msg = new Message(id, sender, message, timestamp, reply, direction, provider);
                     messages.add(msg);
                 } while (cursor.moveToNext());
             }
         } catch (Exception e) {
-            Log.e(TAG, "getLast5MessagesBySender: ", e);
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
-            if (db != null && db.isOpen()) {
-                db.close();
-            }
+            Log.e(TAG, "queryMessagesBySender: ", e);
         }
 
         return messages;
     }
+
+    private static void bindNullable(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
 }
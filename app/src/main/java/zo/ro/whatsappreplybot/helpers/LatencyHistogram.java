@@ -0,0 +1,126 @@
+package zo.ro.whatsappreplybot.helpers;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets, in the style of HdrHistogram.
+ * <p>
+ * Values are microseconds. Below 32 us every value has its own bucket; above that each power
+ * of two is split into 16 buckets, so any recorded value is reported within about 6% while
+ * the whole range up to days fits in a few hundred counters. Recording is a handful of atomic
+ * increments, safe to call from any thread; reads may see a recording half applied.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // 2^40 us is about 12 days, anything longer is clamped
+    private static final int MAX_MAGNITUDE = 40;
+    private static final long MAX_VALUE = (1L << MAX_MAGNITUDE) - 1;
+    private static final int BUCKET_COUNT = SUB_BUCKETS * (MAX_MAGNITUDE - SUB_BUCKET_BITS + 1);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+//    ----------------------------------------------------------------------------------------------
+
+    public void record(long micros) {
+        long value = Math.max(0, Math.min(MAX_VALUE, micros));
+        counts.incrementAndGet(bucketIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long currentMax;
+        while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+            // Another thread raised the max in between, compare again
+        }
+    }
+
+    /**
+     * @return an independent copy, to compare the histogram against later with {@link #since}
+     */
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy.counts.set(i, counts.get(i));
+        }
+        copy.count.set(count.get());
+        copy.sum.set(sum.get());
+        copy.max.set(max.get());
+        return copy;
+    }
+
+    /**
+     * @param earlier a {@link #copy} of this histogram taken before
+     * @return the values recorded since the copy; their max is only known to bucket precision
+     */
+    public LatencyHistogram since(LatencyHistogram earlier) {
+        LatencyHistogram difference = new LatencyHistogram();
+        int highest = -1;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long recorded = counts.get(i) - earlier.counts.get(i);
+            if (recorded > 0) {
+                difference.counts.set(i, recorded);
+                highest = i;
+            }
+        }
+        difference.count.set(Math.max(0, count.get() - earlier.count.get()));
+        difference.sum.set(Math.max(0, sum.get() - earlier.sum.get()));
+        difference.max.set(highest < 0 ? 0 : Math.min(bucketUpperBound(highest), max.get()));
+        return difference;
+    }
+
+    static int bucketIndex(long value) {
+        int exponent = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return SUB_BUCKETS * exponent + (int) (value >>> exponent);
+    }
+
+    /**
+     * @return the largest value that falls into the bucket
+     */
+    static long bucketUpperBound(int index) {
+        int exponent = Math.max(0, index / SUB_BUCKETS - 1);
+        long mantissa = index - SUB_BUCKETS * exponent;
+        return ((mantissa + 1) << exponent) - 1;
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMaxMicros() {
+        return max.get();
+    }
+
+    public long getMeanMicros() {
+        long recorded = count.get();
+        return recorded == 0 ? 0 : sum.get() / recorded;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return upper bound of the bucket holding the percentile, never above the max; 0 if empty
+     */
+    public long getPercentileMicros(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+}
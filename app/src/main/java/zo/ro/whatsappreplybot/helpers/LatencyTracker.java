@@ -0,0 +1,50 @@
+package zo.ro.whatsappreplybot.helpers;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latency samples in a ring buffer and answers percentile queries over
+ * them, so a threshold derived from it follows the provider as it speeds up or degrades.
+ */
+public class LatencyTracker {
+
+    public static final int DEFAULT_CAPACITY = 128;
+
+    private final long[] samples;
+    private int next;
+    private int size;
+
+    public LatencyTracker() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LatencyTracker(int capacity) {
+        samples = new long[capacity];
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    public synchronized void record(long millis) {
+        samples[next] = millis;
+        next = (next + 1) % samples.length;
+        size = Math.min(size + 1, samples.length);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @param percentile between 0 and 100, nearest-rank
+     * @return the latency in millis, or -1 if nothing was recorded yet
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (size == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, size);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * size);
+        return sorted[Math.max(0, Math.min(size - 1, rank - 1))];
+    }
+}
@@ -0,0 +1,141 @@
+package zo.ro.whatsappreplybot.helpers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Merges bursts of messages from one sender into a single batch, answered with one reply.
+ * <p>
+ * The first message opens a batch and starts a quiet-window timer. Every further message from
+ * the same sender joins the batch and restarts the timer, but a batch is never held longer
+ * than the maximum wait after its first message. When the timer fires the batch is handed to
+ * the listener on the scheduler thread. A restarted timer isn't cancelled, the one it replaced
+ * finds a newer timer set on the batch and does nothing.
+ *
+ * @param <T> whatever the caller needs to answer a message, e.g. the notification it came from
+ */
+public class MessageCoalescer<T> {
+
+    private final DelayedExecutor timer;
+    private final LongSupplier clock;
+    private final OnBatchReadyListener<T> listener;
+    private final Map<String, Batch<T>> batches = new HashMap<>();
+
+    public MessageCoalescer(ScheduledExecutorService scheduler, OnBatchReadyListener<T> listener) {
+        this((task, delayMillis) -> scheduler.schedule(task, delayMillis, TimeUnit.MILLISECONDS), System::currentTimeMillis, listener);
+    }
+
+    /**
+     * @param clock time in millis, the same time base the timer's delays run on
+     */
+    public MessageCoalescer(DelayedExecutor timer, LongSupplier clock, OnBatchReadyListener<T> listener) {
+        this.timer = timer;
+        this.clock = clock;
+        this.listener = listener;
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * Adds the message to the sender's open batch, or opens a new one.
+     *
+     * @param windowMillis  quiet time after the latest message before the batch is answered
+     * @param maxWaitMillis longest a batch is held after its first message
+     */
+    public synchronized void submit(String sender, String message, T payload, long windowMillis, long maxWaitMillis) {
+        if (!appendIfPending(sender, message, payload, windowMillis, maxWaitMillis)) {
+            Batch<T> batch = new Batch<>(clock.getAsLong());
+            batch.add(message, payload);
+            batches.put(sender, batch);
+            schedule(sender, batch, windowMillis);
+        }
+    }
+
+    /**
+     * Adds the message only if the sender already has an open batch.
+     *
+     * @return true if the message joined a batch and needs no further handling
+     */
+    public synchronized boolean appendIfPending(String sender, String message, T payload, long windowMillis, long maxWaitMillis) {
+        Batch<T> batch = batches.get(sender);
+        if (batch == null) {
+            return false;
+        }
+        batch.add(message, payload);
+        long remaining = batch.openedAt + maxWaitMillis - clock.getAsLong();
+        schedule(sender, batch, Math.max(0, Math.min(windowMillis, remaining)));
+        return true;
+    }
+
+    public synchronized int getPendingSenderCount() {
+        return batches.size();
+    }
+
+    /**
+     * Drops open batches without answering them.
+     */
+    public synchronized void clear() {
+        // Their timers find no batch and do nothing
+        batches.clear();
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    private void schedule(String sender, Batch<T> batch, long delayMillis) {
+        int timerId = ++batch.timerId;
+        timer.executeAfter(() -> flush(sender, batch, timerId), delayMillis);
+    }
+
+    private void flush(String sender, Batch<T> batch, int timerId) {
+        synchronized (this) {
+            // Only the latest timer of the current batch flushes
+            if (batches.get(sender) != batch || batch.timerId != timerId) {
+                return;
+            }
+            batches.remove(sender);
+        }
+        listener.onBatchReady(sender, batch.messages, batch.payloads);
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    private static class Batch<T> {
+
+        final long openedAt;
+        final List<String> messages = new ArrayList<>();
+        final List<T> payloads = new ArrayList<>();
+        int timerId;
+
+        Batch(long openedAt) {
+            this.openedAt = openedAt;
+        }
+
+        void add(String message, T payload) {
+            // Notification updates repost the same text, keep it once
+            if (messages.isEmpty() || !messages.get(messages.size() - 1).equals(message)) {
+                messages.add(message);
+            }
+            payloads.add(payload);
+        }
+    }
+
+    /**
+     * Runs a task once after a delay, a {@link ScheduledExecutorService} in the app.
+     */
+    public interface DelayedExecutor {
+        void executeAfter(Runnable task, long delayMillis);
+    }
+
+    public interface OnBatchReadyListener<T> {
+        /**
+         * @param messages distinct messages in arrival order
+         * @param payloads payload of every submitted message in arrival order, the last one is the newest
+         */
+        void onBatchReady(String sender, List<String> messages, List<T> payloads);
+    }
+}
@@ -0,0 +1,251 @@
+package zo.ro.whatsappreplybot.helpers;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * In-memory similarity index over recently answered messages.
+ * <p>
+ * Each message gets a 64-bit SimHash over character trigrams of its folded text (lowercase,
+ * letters and digits only), so near-duplicates differ in only a few bits. A lookup scans the
+ * recent entries and returns the reply of the closest one within the allowed Hamming distance.
+ * With a few hundred entries a scan is a few hundred XOR/bitCount operations.
+ * <p>
+ * A few changed characters can invert what a message means ("500" vs "5000", "not coming" vs
+ * "coming") while barely moving the signature, so two messages only match when they also
+ * contain the same numbers and the same negations.
+ */
+public class NearDuplicateIndex {
+
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final int MIN_MESSAGE_LENGTH = 8; // Shorter texts give unstable signatures, the exact cache covers them
+    public static final int MAX_MESSAGE_LENGTH = 160;
+    // Two messages further apart than this are different messages often enough to never reuse a reply
+    public static final int MAX_SAFE_DISTANCE = 2;
+    private static final int SHINGLE_LENGTH = 3;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    // Folded forms, the apostrophe of "don't" is dropped by fold()
+    private static final Set<String> NEGATIONS = new HashSet<>(Arrays.asList(
+            "no", "not", "never", "nothing", "nobody", "none", "nor", "neither", "cannot",
+            "dont", "doesnt", "didnt", "cant", "couldnt", "wont", "wouldnt", "shouldnt",
+            "isnt", "arent", "wasnt", "werent", "havent", "hasnt", "hadnt", "aint"));
+
+    private final int capacity;
+    private final ArrayDeque<Entry> entries;
+    private long lookups;
+    private long hits;
+    private long totalLookupNanos;
+    private long maxLookupNanos;
+
+    public NearDuplicateIndex() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public NearDuplicateIndex(int capacity) {
+        this.capacity = capacity;
+        entries = new ArrayDeque<>(capacity);
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * @param scope       conversation, provider, model and prompt the reply was generated for, entries never match across scopes
+     * @param maxDistance differing signature bits still counted as a near-duplicate (0-64)
+     * @param ttlMillis   entries older than this are ignored
+     * @return the reply of the most similar recent message, or null
+     */
+    public synchronized String findSimilar(String scope, String message, int maxDistance, long ttlMillis) {
+        long start = System.nanoTime();
+        lookups++;
+        String reply = null;
+
+        String folded = fold(message);
+        if (folded != null) {
+            long signature = simHash(folded);
+            String guard = guard(folded);
+            long oldest = System.currentTimeMillis() - ttlMillis;
+            int bestDistance = maxDistance + 1;
+            for (Iterator<Entry> iterator = entries.iterator(); iterator.hasNext(); ) {
+                Entry entry = iterator.next();
+                if (entry.createdAt < oldest) {
+                    iterator.remove();
+                    continue;
+                }
+                if (!entry.scope.equals(scope) || !entry.guard.equals(guard)) {
+                    continue;
+                }
+                int distance = Long.bitCount(entry.signature ^ signature);
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    reply = entry.reply;
+                }
+            }
+        }
+
+        if (reply != null) {
+            hits++;
+        }
+        long elapsed = System.nanoTime() - start;
+        totalLookupNanos += elapsed;
+        maxLookupNanos = Math.max(maxLookupNanos, elapsed);
+        return reply;
+    }
+
+    public synchronized void add(String scope, String message, String reply) {
+        String folded = fold(message);
+        if (folded == null) {
+            return;
+        }
+        if (entries.size() >= capacity) {
+            entries.removeFirst();
+        }
+        entries.addLast(new Entry(scope, simHash(folded), guard(folded), reply, System.currentTimeMillis()));
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    public synchronized long getLookupCount() {
+        return lookups;
+    }
+
+    /**
+     * @return lookups answered from the index, each one an LLM call saved
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized double getHitRate() {
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public synchronized double getAverageLookupMicros() {
+        return lookups == 0 ? 0 : totalLookupNanos / 1000.0 / lookups;
+    }
+
+    public synchronized double getMaxLookupMicros() {
+        return maxLookupNanos / 1000.0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized String getStatsSummary() {
+        return String.format(Locale.US, "%d/%d hits (%.1f%%), avg %.1f us, max %.1f us, %d entries",
+                hits, lookups, getHitRate() * 100, getAverageLookupMicros(), getMaxLookupMicros(), entries.size());
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * Lowercases and keeps only letters, digits and single spaces.
+     *
+     * @return the folded text, or null if it is outside the indexed length range
+     */
+    static String fold(String message) {
+        if (message == null || message.length() > MAX_MESSAGE_LENGTH * 2) {
+            return null;
+        }
+        StringBuilder folded = new StringBuilder(message.length());
+        boolean space = false;
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (space && folded.length() > 0) {
+                    folded.append(' ');
+                }
+                folded.append(Character.toLowerCase(c));
+                space = false;
+            } else if (Character.isWhitespace(c)) {
+                space = true;
+            }
+        }
+        if (folded.length() < MIN_MESSAGE_LENGTH || folded.length() > MAX_MESSAGE_LENGTH) {
+            return null;
+        }
+        return folded.toString();
+    }
+
+    /**
+     * The digit runs and negation words of a folded text, in order. Texts with different
+     * guards never match, however close their signatures are.
+     */
+    static String guard(String folded) {
+        StringBuilder guard = new StringBuilder();
+        int start = 0;
+        while (start < folded.length()) {
+            int end = folded.indexOf(' ', start);
+            if (end < 0) {
+                end = folded.length();
+            }
+            String word = folded.substring(start, end);
+            if (NEGATIONS.contains(word)) {
+                guard.append('!').append(word).append(' ');
+            }
+            for (int i = 0; i < word.length(); i++) {
+                if (Character.isDigit(word.charAt(i))) {
+                    int digits = i;
+                    while (i < word.length() && Character.isDigit(word.charAt(i))) {
+                        i++;
+                    }
+                    guard.append(word, digits, i).append(' ');
+                }
+            }
+            start = end + 1;
+        }
+        return guard.toString();
+    }
+
+    static long simHash(String text) {
+        int[] weights = new int[64];
+        for (int i = 0; i + SHINGLE_LENGTH <= text.length(); i++) {
+            long hash = FNV_OFFSET_BASIS;
+            for (int j = i; j < i + SHINGLE_LENGTH; j++) {
+                hash = (hash ^ text.charAt(j)) * FNV_PRIME;
+            }
+            // FNV leaves the high bits of short inputs poorly mixed, finish with a 64-bit mixer
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            for (int bit = 0; bit < 64; bit++) {
+                weights[bit] += ((hash >>> bit) & 1L) != 0 ? 1 : -1;
+            }
+        }
+        long signature = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) {
+                signature |= 1L << bit;
+            }
+        }
+        return signature;
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    private static class Entry {
+
+        final String scope;
+        final long signature;
+        final String guard;
+        final String reply;
+        final long createdAt;
+
+        Entry(String scope, long signature, String guard, String reply, long createdAt) {
+            this.scope = scope;
+            this.signature = signature;
+            this.guard = guard;
+            this.reply = reply;
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package zo.ro.whatsappreplybot.helpers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * First check on every WhatsApp notification, before anything is allocated for it.
+ * <p>
+ * Status and self messages are recognised by substrings and prefixes. The substrings are
+ * compiled once into an Aho-Corasick automaton, stored as a full transition table over ASCII,
+ * so the text is scanned in one pass with one array read per character and no lower-cased copy.
+ * Patterns are ASCII; any other character simply leads back to the start state.
+ */
+public class NotificationPreFilter {
+
+    public static final int PASS = 0;
+    public static final int REJECT_SELF = 1;
+    public static final int REJECT_STATUS = 2;
+    public static final int REJECT_ACTIVE_CHAT = 3;
+    public static final int REJECT_NO_REPLY_ACTION = 4;
+
+    // What WhatsApp shows for the user's own messages
+    public static final String[] DEFAULT_SELF_PREFIXES = {"you:", "you "};
+    public static final String[] DEFAULT_SELF_PATTERNS = {"you sent", "your message"};
+    // Status updates, matched anywhere in the text
+    public static final String[] DEFAULT_STATUS_PATTERNS = {"read", "delivered", "typing...", "online", "last seen"};
+
+    private static final int ROW_BITS = 7;
+    private static final int ALPHABET = 1 << ROW_BITS;
+    private static final int SELF = 1;
+    private static final int STATUS = 2;
+
+    private final char[][] selfPrefixes;
+    private final int[] transitions;
+    private final int[] outputs;
+
+    public NotificationPreFilter() {
+        this(DEFAULT_SELF_PREFIXES, DEFAULT_SELF_PATTERNS, DEFAULT_STATUS_PATTERNS);
+    }
+
+    public NotificationPreFilter(String[] selfPrefixes, String[] selfPatterns, String[] statusPatterns) {
+        this.selfPrefixes = new char[selfPrefixes.length][];
+        for (int i = 0; i < selfPrefixes.length; i++) {
+            this.selfPrefixes[i] = fold(selfPrefixes[i]).toCharArray();
+        }
+
+        // Trie of every pattern, each state remembers which kind of pattern ends there
+        List<int[]> trie = new ArrayList<>();
+        List<Integer> kinds = new ArrayList<>();
+        trie.add(newState());
+        kinds.add(0);
+        addPatterns(trie, kinds, selfPatterns, SELF);
+        addPatterns(trie, kinds, statusPatterns, STATUS);
+
+        // Breadth-first failure links turn the trie into a DFA: missing edges follow the failure state.
+        // Rows are laid out flat, a state's number is the offset of its row
+        int stateCount = trie.size();
+        int[][] rows = trie.toArray(new int[stateCount][]);
+        int[] failure = new int[stateCount];
+        int[] kindOf = new int[stateCount];
+        for (int state = 0; state < stateCount; state++) {
+            kindOf[state] = kinds.get(state);
+        }
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < ALPHABET; c++) {
+            if (rows[0][c] > 0) {
+                queue.add(rows[0][c]);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            // A pattern that is a suffix of this state's path also matches here
+            kindOf[state] |= kindOf[failure[state]];
+            for (int c = 0; c < ALPHABET; c++) {
+                int next = rows[state][c];
+                if (next > 0) {
+                    failure[next] = rows[failure[state]][c];
+                    queue.add(next);
+                } else {
+                    rows[state][c] = rows[failure[state]][c];
+                }
+            }
+        }
+
+        transitions = new int[stateCount * ALPHABET];
+        outputs = kindOf;
+        for (int state = 0; state < stateCount; state++) {
+            for (int c = 0; c < ALPHABET; c++) {
+                transitions[state * ALPHABET + c] = rows[state][c] * ALPHABET;
+            }
+        }
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * @param notificationFlags {@code Notification.flags}
+     * @param ongoingFlag       {@code Notification.FLAG_ONGOING_EVENT}, passed in so this class stays free of Android
+     * @param hasReplyAction    whether any action takes remote input
+     * @return {@link #PASS} or the first reason to drop the notification
+     */
+    public int check(CharSequence title, CharSequence text, int notificationFlags, int ongoingFlag, boolean hasReplyAction) {
+        int kind = classify(text);
+        if ((kind & SELF) != 0) {
+            return REJECT_SELF;
+        }
+        if (kind != 0) {
+            return REJECT_STATUS;
+        }
+        // Title repeated as text is a status or system message, ongoing ones aren't new messages
+        if ((title != null && text != null && contentEquals(title, text)) || (notificationFlags & ongoingFlag) != 0) {
+            return REJECT_ACTIVE_CHAT;
+        }
+        return hasReplyAction ? PASS : REJECT_NO_REPLY_ACTION;
+    }
+
+    /**
+     * @return bit set of {@code SELF} and {@code STATUS} for the patterns found in the text
+     */
+    int classify(CharSequence text) {
+        if (text == null || text.length() == 0) {
+            return 0;
+        }
+        for (char[] prefix : selfPrefixes) {
+            if (startsWithIgnoreCase(text, prefix)) {
+                return SELF;
+            }
+        }
+        int[] table = transitions;
+        int[] out = outputs;
+        int state = 0;
+        int found = 0;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= ALPHABET) {
+                state = 0;
+                continue;
+            }
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            state = table[state + c];
+            found |= out[state >>> ROW_BITS];
+            if ((found & SELF) != 0) {
+                return found;
+            }
+        }
+        return found;
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    private static void addPatterns(List<int[]> trie, List<Integer> kinds, String[] patterns, int kind) {
+        for (String pattern : patterns) {
+            int state = 0;
+            for (char c : fold(pattern).toCharArray()) {
+                if (c >= ALPHABET) {
+                    throw new IllegalArgumentException("Only ASCII patterns are supported: " + pattern);
+                }
+                if (trie.get(state)[c] == 0) {
+                    trie.get(state)[c] = trie.size();
+                    trie.add(newState());
+                    kinds.add(0);
+                }
+                state = trie.get(state)[c];
+            }
+            kinds.set(state, kinds.get(state) | kind);
+        }
+    }
+
+    private static int[] newState() {
+        return new int[ALPHABET];
+    }
+
+    private static boolean startsWithIgnoreCase(CharSequence text, char[] prefix) {
+        if (text.length() < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (foldChar(text.charAt(i)) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean contentEquals(CharSequence a, CharSequence b) {
+        if (a.length() != b.length()) {
+            return false;
+        }
+        for (int i = 0; i < a.length(); i++) {
+            if (a.charAt(i) != b.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char foldChar(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : Character.toLowerCase(c);
+    }
+
+    private static String fold(String pattern) {
+        StringBuilder folded = new StringBuilder(pattern.length());
+        for (int i = 0; i < pattern.length(); i++) {
+            folded.append(foldChar(pattern.charAt(i)));
+        }
+        return folded.toString();
+    }
+}
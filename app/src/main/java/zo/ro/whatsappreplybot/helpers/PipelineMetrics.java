@@ -0,0 +1,234 @@
+package zo.ro.whatsappreplybot.helpers;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide stage timings of the reply pipeline, from the notification to the sent reply.
+ * <p>
+ * Each stage gets one {@link LatencyHistogram} per provider and model, created on first use.
+ * Components with their own counters (scheduler, rate limiter, caches...) register a
+ * {@link StatsSource} while they are alive, so a snapshot shows them next to the timings.
+ */
+public class PipelineMetrics {
+
+    public enum Stage {
+        FILTER, QUOTA_CHECK, HISTORY_LOAD, PROMPT_BUILD, PROVIDER_REQUEST, RESPONSE_PARSE,
+        DB_WRITE, SCHEDULED_DELAY, SEND, END_TO_END
+    }
+
+    private static final PipelineMetrics INSTANCE = new PipelineMetrics();
+    private static final String NONE = "-";
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, StatsSource> sources = new ConcurrentHashMap<>();
+    private volatile long startedAt = System.currentTimeMillis();
+
+    public static PipelineMetrics getInstance() {
+        return INSTANCE;
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * @return a start mark for {@link #record}
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time since {@code startNanos}, taken from {@link #start}.
+     *
+     * @param provider null for stages that don't depend on the provider
+     * @param model    null if unknown
+     */
+    public void record(Stage stage, String provider, String model, long startNanos) {
+        recordMicros(stage, provider, model, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    }
+
+    public void recordMillis(Stage stage, String provider, String model, long millis) {
+        recordMicros(stage, provider, model, TimeUnit.MILLISECONDS.toMicros(millis));
+    }
+
+    private void recordMicros(Stage stage, String provider, String model, long micros) {
+        String providerName = provider == null ? NONE : provider;
+        String modelName = model == null ? NONE : model;
+        String key = Entry.key(stage, providerName, modelName);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(stage, providerName, modelName, new LatencyHistogram());
+            Entry raced = entries.putIfAbsent(key, entry);
+            if (raced != null) {
+                entry = raced;
+            }
+        }
+        entry.histogram.record(micros);
+    }
+
+    public void registerSource(String name, StatsSource source) {
+        sources.put(name, source);
+    }
+
+    public void unregisterSource(String name) {
+        sources.remove(name);
+    }
+
+    public void reset() {
+        entries.clear();
+        startedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Copies the current timings, so {@link #formatSince} can show what was recorded afterwards
+     * without resetting what the diagnostics screen shows.
+     */
+    public Snapshot snapshot() {
+        Map<String, LatencyHistogram> histograms = new HashMap<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            histograms.put(entry.getKey(), entry.getValue().histogram.copy());
+        }
+        return new Snapshot(histograms);
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    public JSONObject toJson() throws JSONException {
+        JSONObject snapshot = new JSONObject();
+        snapshot.put("since", startedAt);
+        snapshot.put("taken_at", System.currentTimeMillis());
+
+        JSONArray stages = new JSONArray();
+        for (Entry entry : getSortedEntries()) {
+            LatencyHistogram histogram = entry.histogram;
+            JSONObject stage = new JSONObject();
+            stage.put("stage", entry.stage.name().toLowerCase(Locale.ROOT));
+            stage.put("provider", entry.provider);
+            stage.put("model", entry.model);
+            stage.put("count", histogram.getCount());
+            stage.put("mean_ms", toMillis(histogram.getMeanMicros()));
+            stage.put("p50_ms", toMillis(histogram.getPercentileMicros(50)));
+            stage.put("p95_ms", toMillis(histogram.getPercentileMicros(95)));
+            stage.put("p99_ms", toMillis(histogram.getPercentileMicros(99)));
+            stage.put("max_ms", toMillis(histogram.getMaxMicros()));
+            stages.put(stage);
+        }
+        snapshot.put("stages", stages);
+
+        JSONObject components = new JSONObject();
+        for (Map.Entry<String, StatsSource> source : sources.entrySet()) {
+            components.put(source.getKey(), source.getValue().getStats());
+        }
+        snapshot.put("components", components);
+        return snapshot;
+    }
+
+    /**
+     * Plain text version of the snapshot for the diagnostics screen.
+     */
+    public String formatSnapshot() {
+        return format(getSortedEntries());
+    }
+
+    /**
+     * Like {@link #formatSnapshot}, but with only the timings recorded since the baseline.
+     * Component counters are shown as they are now.
+     */
+    public String formatSince(Snapshot baseline) {
+        List<Entry> recorded = new ArrayList<>();
+        for (Entry entry : getSortedEntries()) {
+            LatencyHistogram earlier = baseline.histograms.get(Entry.key(entry.stage, entry.provider, entry.model));
+            LatencyHistogram histogram = earlier == null ? entry.histogram : entry.histogram.since(earlier);
+            if (histogram.getCount() > 0) {
+                recorded.add(new Entry(entry.stage, entry.provider, entry.model, histogram));
+            }
+        }
+        return format(recorded);
+    }
+
+    private String format(List<Entry> sortedEntries) {
+        StringBuilder text = new StringBuilder();
+        Stage previous = null;
+        for (Entry entry : sortedEntries) {
+            if (entry.stage != previous) {
+                text.append(previous == null ? "" : "\n").append(entry.stage.name().toLowerCase(Locale.ROOT)).append('\n');
+                previous = entry.stage;
+            }
+            LatencyHistogram histogram = entry.histogram;
+            text.append(String.format(Locale.US, "  %s %s: n=%d p50=%.1f p95=%.1f p99=%.1f max=%.1f ms\n",
+                    entry.provider, entry.model, histogram.getCount(),
+                    toMillis(histogram.getPercentileMicros(50)), toMillis(histogram.getPercentileMicros(95)),
+                    toMillis(histogram.getPercentileMicros(99)), toMillis(histogram.getMaxMicros())));
+        }
+        if (text.length() == 0) {
+            text.append("No replies timed yet\n");
+        }
+        for (Map.Entry<String, StatsSource> source : sources.entrySet()) {
+            text.append('\n').append(source.getKey()).append('\n').append("  ").append(source.getValue().getStats()).append('\n');
+        }
+        return text.toString();
+    }
+
+    private List<Entry> getSortedEntries() {
+        List<Entry> sorted = new ArrayList<>(entries.values());
+        Collections.sort(sorted, (a, b) -> {
+            int byStage = a.stage.compareTo(b.stage);
+            if (byStage != 0) {
+                return byStage;
+            }
+            int byProvider = a.provider.compareTo(b.provider);
+            return byProvider != 0 ? byProvider : a.model.compareTo(b.model);
+        });
+        return sorted;
+    }
+
+    private static double toMillis(long micros) {
+        return Math.round(micros / 100.0) / 10.0;
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    private static class Entry {
+
+        final Stage stage;
+        final String provider;
+        final String model;
+        final LatencyHistogram histogram;
+
+        Entry(Stage stage, String provider, String model, LatencyHistogram histogram) {
+            this.stage = stage;
+            this.provider = provider;
+            this.model = model;
+            this.histogram = histogram;
+        }
+
+        static String key(Stage stage, String provider, String model) {
+            return stage + "/" + provider + "/" + model;
+        }
+    }
+
+    /**
+     * Frozen copy of the timings, from {@link #snapshot}.
+     */
+    public static class Snapshot {
+
+        private final Map<String, LatencyHistogram> histograms;
+
+        Snapshot(Map<String, LatencyHistogram> histograms) {
+            this.histograms = histograms;
+        }
+    }
+
+    public interface StatsSource {
+        String getStats();
+    }
+}
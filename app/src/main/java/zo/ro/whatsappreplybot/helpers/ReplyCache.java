@@ -0,0 +1,145 @@
+package zo.ro.whatsappreplybot.helpers;
+
+import android.util.Log;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent cache of generated replies for short, frequently repeated messages ("hi", "ok",
+ * "thanks"). Entries live in the reply_cache table so they survive restarts, expire after a
+ * TTL and are evicted least recently used first. All reads and writes run on the DB thread.
+ */
+public class ReplyCache {
+
+    private static final String TAG = "MADARA";
+    public static final int MAX_ENTRIES = 500;
+    public static final int MAX_MESSAGE_LENGTH = 64; // Longer messages rarely repeat verbatim
+    private static final int TRIM_EVERY_STORES = 32;
+
+    private final DatabaseHelper dbHelper;
+    private final ReplyExecutors replyExecutors;
+    private final AtomicInteger storesSinceTrim = new AtomicInteger();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ReplyCache(DatabaseHelper dbHelper, ReplyExecutors replyExecutors) {
+        this.dbHelper = dbHelper;
+        this.replyExecutors = replyExecutors;
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * Looks the key up on the DB thread and calls the listener there with the reply, or null.
+     *
+     * @return false if the DB queue is saturated and the listener will not be called
+     */
+    public boolean lookup(String cacheKey, long ttlMillis, OnCacheLookupListener listener) {
+        return replyExecutors.executeDb(() -> {
+            String reply = null;
+            try {
+                long now = System.currentTimeMillis();
+                reply = dbHelper.getCachedReply(cacheKey, now - ttlMillis, now);
+            } catch (Exception e) {
+                Log.e(TAG, "lookup: ", e);
+            }
+            if (reply != null) {
+                hits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+            }
+            listener.onCacheLookup(reply);
+        });
+    }
+
+    public void store(String cacheKey, String reply, long ttlMillis) {
+        replyExecutors.executeDb(() -> {
+            try {
+                long now = System.currentTimeMillis();
+                dbHelper.putCachedReply(cacheKey, reply, now);
+                if (storesSinceTrim.incrementAndGet() >= TRIM_EVERY_STORES) {
+                    storesSinceTrim.set(0);
+                    dbHelper.trimReplyCache(now - ttlMillis, MAX_ENTRIES);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "store: ", e);
+            }
+        });
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * Folds case, whitespace and repeated or trailing punctuation so "Ok!!", "ok " and "OK"
+     * share an entry.
+     *
+     * @return the normalized text, or null if the message is too long to be worth caching
+     */
+    public static String normalize(String message) {
+        if (message == null) {
+            return null;
+        }
+        String text = message.trim().toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+        text = text.replaceAll("([.!?,])\\1+", "$1").replaceAll("[.!,]+$", "").trim();
+        if (text.isEmpty() || text.length() > MAX_MESSAGE_LENGTH) {
+            return null;
+        }
+        return text;
+    }
+
+    /**
+     * Everything that shapes a reply besides the history goes into the key, so changing the
+     * provider, model, prompt or language never serves a stale reply.
+     */
+    public static String buildKey(String normalizedMessage, String provider, String model, String prompt, String language) {
+        String source = provider + '\u0000' + model + '\u0000' + language + '\u0000' + prompt + '\u0000' + normalizedMessage;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(String.format(Locale.ROOT, "%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform ships SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Entries are shared by every sender, so a reply that greets or names its sender ("Hi Alice!")
+     * must not be stored. Each word of the sender's name is looked for, case-insensitively,
+     * so "Family: Bob" also catches "Sure Bob".
+     */
+    public static boolean mentionsSender(String reply, String sender) {
+        if (reply == null || sender == null) {
+            return false;
+        }
+        String text = reply.toLowerCase(Locale.ROOT);
+        for (String word : sender.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (word.length() > 1 && text.contains(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    public interface OnCacheLookupListener {
+        void onCacheLookup(String cachedReply);
+    }
+}
@@ -0,0 +1,157 @@
+package zo.ro.whatsappreplybot.helpers;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded thread pools for the whole reply pipeline, owned by the service.
+ * <p>
+ * DB work runs on a single thread so SQLite sees one writer and reads/writes for a sender
+ * stay in order. Network work (OkHttp dispatcher, Gemini callbacks) has its own small pool.
+ * Both queues are bounded; when a queue is full the task is rejected instead of spawning
+ * more threads, and the caller decides how to shed the message.
+ * Periodic maintenance only uses a timer thread to post its work onto the DB thread; the same
+ * timer thread runs short callbacks such as the message coalescing window.
+ */
+public class ReplyExecutors {
+
+    private static final String TAG = "MADARA";
+    public static final int DB_QUEUE_CAPACITY = 64;
+    public static final int NETWORK_THREADS = 8;
+    public static final int NETWORK_QUEUE_CAPACITY = 32;
+
+    private final ThreadPoolExecutor dbExecutor;
+    private final ThreadPoolExecutor networkExecutor;
+    private final ScheduledThreadPoolExecutor maintenanceScheduler;
+    private final AtomicLong rejectedTasks = new AtomicLong();
+
+    public ReplyExecutors() {
+        this(DB_QUEUE_CAPACITY, NETWORK_THREADS, NETWORK_QUEUE_CAPACITY);
+    }
+
+    public ReplyExecutors(int dbQueueCapacity, int networkThreads, int networkQueueCapacity) {
+        dbExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(dbQueueCapacity), new NamedThreadFactory("reply-db"));
+
+        networkExecutor = new ThreadPoolExecutor(networkThreads, networkThreads, 30L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(networkQueueCapacity), new NamedThreadFactory("reply-net"));
+        networkExecutor.allowCoreThreadTimeOut(true);
+
+        maintenanceScheduler = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("reply-maintenance"));
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * @return false if the DB queue is full and the task was dropped
+     */
+    public boolean executeDb(Runnable task) {
+        return execute(dbExecutor, task);
+    }
+
+    /**
+     * @return false if the network queue is full and the task was dropped
+     */
+    public boolean executeNetwork(Runnable task) {
+        return execute(networkExecutor, task);
+    }
+
+    /**
+     * Periodically queues a task on the DB thread, so it is serialized with inserts and reads.
+     * A tick that finds the DB queue full is skipped rather than piling up.
+     */
+    public ScheduledFuture<?> scheduleDbMaintenance(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        return maintenanceScheduler.scheduleWithFixedDelay(() -> executeDb(task), initialDelay, period, unit);
+    }
+
+    /**
+     * Timer thread for short delayed callbacks, anything heavier must hop to another pool.
+     */
+    public ScheduledExecutorService getScheduler() {
+        return maintenanceScheduler;
+    }
+
+    /**
+     * Executor handed to OkHttp's dispatcher and to SDK callbacks. Submitting to it directly
+     * throws {@link RejectedExecutionException} when saturated.
+     */
+    public ExecutorService getNetworkExecutor() {
+        return networkExecutor;
+    }
+
+    private boolean execute(ThreadPoolExecutor executor, Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejectedTasks.incrementAndGet();
+            Log.w(TAG, "execute: queue full, task rejected (queued=" + executor.getQueue().size() + ")");
+            return false;
+        }
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    public int getDbQueueDepth() {
+        return dbExecutor.getQueue().size();
+    }
+
+    public int getNetworkQueueDepth() {
+        return networkExecutor.getQueue().size();
+    }
+
+    public int getActiveNetworkThreads() {
+        return networkExecutor.getActiveCount();
+    }
+
+    public long getRejectedTaskCount() {
+        return rejectedTasks.get();
+    }
+
+    public void shutdown() {
+        maintenanceScheduler.shutdownNow();
+        dbExecutor.shutdown();
+        networkExecutor.shutdownNow();
+    }
+
+    /**
+     * Waits after {@link #shutdown} until the DB tasks that were already queued have run.
+     *
+     * @return false if the timeout elapsed first
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return dbExecutor.awaitTermination(timeout, unit);
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, prefix + "-" + count.incrementAndGet());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package zo.ro.whatsappreplybot.helpers;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Calendar;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Answers "how many replies has this sender had today" for the max_reply limit.
+ * <p>
+ * Counts live in memory per sender. A sender's first check loads its count with an indexed
+ * COUNT(*) on the DB thread; after that every insert bumps the counter, so the common case
+ * never touches disk. Cold loads and increments both run on the single DB thread, which keeps
+ * them from racing each other. Counters reset when the day rolls over.
+ */
+public class ReplyQuotaService {
+
+    private final DatabaseHelper dbHelper;
+    private final ReplyExecutors replyExecutors;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ConcurrentHashMap<String, AtomicInteger> counters = new ConcurrentHashMap<>();
+    private volatile long windowStart;
+    private volatile long windowEnd;
+
+    public ReplyQuotaService(DatabaseHelper dbHelper, ReplyExecutors replyExecutors) {
+        this.dbHelper = dbHelper;
+        this.replyExecutors = replyExecutors;
+        startWindow();
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * Calls the listener on the main thread, immediately when the sender's count is cached.
+     *
+     * @return false if a cold load was needed and the DB queue is saturated; the listener is not called
+     */
+    public boolean checkQuota(String sender, int maxReplies, OnQuotaCheckedListener listener) {
+        rollWindowIfNeeded();
+        String key = key(sender);
+
+        AtomicInteger counter = counters.get(key);
+        if (counter != null) {
+            listener.onQuotaChecked(counter.get() < maxReplies);
+            return true;
+        }
+
+        long since = windowStart;
+        return replyExecutors.executeDb(() -> {
+            AtomicInteger loaded = counters.get(key);
+            if (loaded == null) {
+                loaded = new AtomicInteger((int) dbHelper.countMessagesSince(sender, since));
+                counters.put(key, loaded);
+            }
+            boolean withinQuota = loaded.get() < maxReplies;
+            mainHandler.post(() -> listener.onQuotaChecked(withinQuota));
+        });
+    }
+
+    /**
+     * Must be called on the DB thread right after the reply was inserted.
+     * Senders that were never checked stay uncached and are counted on their first check.
+     */
+    public void recordReply(String sender) {
+        rollWindowIfNeeded();
+        AtomicInteger counter = counters.get(key(sender));
+        if (counter != null) {
+            counter.incrementAndGet();
+        }
+    }
+
+    public int getCachedSenderCount() {
+        return counters.size();
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    private void rollWindowIfNeeded() {
+        if (System.currentTimeMillis() >= windowEnd) {
+            synchronized (this) {
+                if (System.currentTimeMillis() >= windowEnd) {
+                    startWindow();
+                    counters.clear();
+                }
+            }
+        }
+    }
+
+    private void startWindow() {
+        windowStart = CustomMethods.getStartOfDayMillis();
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(windowStart);
+        calendar.add(Calendar.DAY_OF_MONTH, 1); // Not +24h, days around DST changes are shorter or longer
+        windowEnd = calendar.getTimeInMillis();
+    }
+
+    private static String key(String sender) {
+        // ConcurrentHashMap rejects null keys, notifications without a title share one bucket
+        return sender == null ? "" : sender;
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    public interface OnQuotaCheckedListener {
+        void onQuotaChecked(boolean withinQuota);
+    }
+}
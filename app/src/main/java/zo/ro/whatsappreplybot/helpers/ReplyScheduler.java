@@ -0,0 +1,214 @@
+package zo.ro.whatsappreplybot.helpers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Orders pending reply generation across conversations.
+ * <p>
+ * Jobs are ranked by class (VIP contact, direct chat, group chat) and age: every
+ * {@link #AGING_STEP_MILLIS} a job has waited lifts it one class, so groups are delayed behind
+ * direct chats but never starved. A conversation only ever has one job generating at a time,
+ * which keeps a noisy group from taking every slot, and each provider has its own concurrency limit.
+ * Jobs start on the dispatch executor and must call their finish callback when done; a job
+ * that never finishes releases its slot after {@link #JOB_TIMEOUT_SECONDS}.
+ */
+public class ReplyScheduler {
+
+    public static final int PRIORITY_VIP = 0;
+    public static final int PRIORITY_DIRECT = 1;
+    public static final int PRIORITY_GROUP = 2;
+    public static final long AGING_STEP_MILLIS = 10_000;
+    public static final int MAX_PENDING = 100;
+    public static final long JOB_TIMEOUT_SECONDS = 120;
+
+    private final Executor dispatchExecutor;
+    private final ScheduledExecutorService timeoutScheduler;
+    private final PriorityQueue<Job> pending = new PriorityQueue<>();
+    private final Map<String, Integer> runningPerProvider = new HashMap<>();
+    private final Set<String> runningConversations = new HashSet<>();
+    private long sequence;
+    private long dispatched;
+    private long rejected;
+    private long totalWaitMillis;
+    private long maxWaitMillis;
+
+    public ReplyScheduler(Executor dispatchExecutor, ScheduledExecutorService timeoutScheduler) {
+        this.dispatchExecutor = dispatchExecutor;
+        this.timeoutScheduler = timeoutScheduler;
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * @param conversation   chat the reply goes to, a group counts as one conversation for all its members
+     * @param provider       jobs of one provider share its concurrency limit
+     * @param maxConcurrent  the provider's limit, the latest value submitted wins
+     * @param priorityClass  one of the PRIORITY_ constants, lower runs first
+     * @return false if the queue is full and the job was dropped
+     */
+    public boolean submit(String conversation, String provider, int maxConcurrent, int priorityClass, ReplyJob job) {
+        synchronized (this) {
+            if (pending.size() >= MAX_PENDING) {
+                rejected++;
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            pending.add(new Job(conversation, provider, Math.max(1, maxConcurrent), priorityClass, now, sequence++, job));
+        }
+        dispatch();
+        return true;
+    }
+
+    private void dispatch() {
+        List<Job> ready = new ArrayList<>();
+        synchronized (this) {
+            List<Job> skipped = new ArrayList<>();
+            Job job;
+            while ((job = pending.poll()) != null) {
+                int running = runningCount(job.provider);
+                if (running >= job.maxConcurrent || (job.conversation != null && runningConversations.contains(job.conversation))) {
+                    skipped.add(job);
+                    continue;
+                }
+                runningPerProvider.put(job.provider, running + 1);
+                if (job.conversation != null) {
+                    runningConversations.add(job.conversation);
+                }
+                long waited = System.currentTimeMillis() - job.enqueuedAt;
+                totalWaitMillis += waited;
+                maxWaitMillis = Math.max(maxWaitMillis, waited);
+                dispatched++;
+                ready.add(job);
+            }
+            pending.addAll(skipped);
+        }
+        for (Job job : ready) {
+            start(job);
+        }
+    }
+
+    private void start(Job job) {
+        AtomicBoolean finished = new AtomicBoolean();
+        AtomicReference<ScheduledFuture<?>> timeout = new AtomicReference<>();
+        Runnable onFinished = () -> {
+            if (finished.compareAndSet(false, true)) {
+                ScheduledFuture<?> timer = timeout.get();
+                if (timer != null) {
+                    timer.cancel(false);
+                }
+                release(job);
+            }
+        };
+        timeout.set(timeoutScheduler.schedule(onFinished, JOB_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        dispatchExecutor.execute(() -> job.work.run(onFinished));
+    }
+
+    private void release(Job job) {
+        synchronized (this) {
+            runningPerProvider.put(job.provider, runningCount(job.provider) - 1);
+            if (job.conversation != null) {
+                runningConversations.remove(job.conversation);
+            }
+        }
+        dispatch();
+    }
+
+    private int runningCount(String provider) {
+        Integer running = runningPerProvider.get(provider);
+        return running == null ? 0 : running;
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public synchronized int getPendingCount(int priorityClass) {
+        int count = 0;
+        for (Job job : pending) {
+            if (job.priorityClass == priorityClass) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public synchronized int getRunningCount(String provider) {
+        return runningCount(provider);
+    }
+
+    /**
+     * @return age of the oldest pending job in millis, 0 if nothing is waiting
+     */
+    public synchronized long getOldestPendingAgeMillis() {
+        long oldest = Long.MAX_VALUE;
+        for (Job job : pending) {
+            oldest = Math.min(oldest, job.enqueuedAt);
+        }
+        return oldest == Long.MAX_VALUE ? 0 : System.currentTimeMillis() - oldest;
+    }
+
+    public synchronized long getRejectedCount() {
+        return rejected;
+    }
+
+    public synchronized String getMetricsSummary() {
+        return String.format(Locale.US, "pending %d (vip %d, direct %d, group %d), oldest %d ms, running %s, dispatched %d, avg wait %d ms, max wait %d ms, rejected %d",
+                pending.size(), getPendingCount(PRIORITY_VIP), getPendingCount(PRIORITY_DIRECT), getPendingCount(PRIORITY_GROUP),
+                getOldestPendingAgeMillis(), runningPerProvider, dispatched, dispatched == 0 ? 0 : totalWaitMillis / dispatched,
+                maxWaitMillis, rejected);
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    private static class Job implements Comparable<Job> {
+
+        final String conversation;
+        final String provider;
+        final int maxConcurrent;
+        final int priorityClass;
+        final long enqueuedAt;
+        final long sequence;
+        final ReplyJob work;
+        // Lower runs first; waiting AGING_STEP_MILLIS is worth one priority class
+        final long rank;
+
+        Job(String conversation, String provider, int maxConcurrent, int priorityClass, long enqueuedAt, long sequence, ReplyJob work) {
+            this.conversation = conversation;
+            this.provider = provider;
+            this.maxConcurrent = maxConcurrent;
+            this.priorityClass = priorityClass;
+            this.enqueuedAt = enqueuedAt;
+            this.sequence = sequence;
+            this.work = work;
+            rank = enqueuedAt + priorityClass * AGING_STEP_MILLIS;
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            int byRank = Long.compare(rank, other.rank);
+            return byRank != 0 ? byRank : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    public interface ReplyJob {
+        /**
+         * @param onFinished must be called once the reply is generated or has failed
+         */
+        void run(Runnable onFinished);
+    }
+}
@@ -0,0 +1,231 @@
+package zo.ro.whatsappreplybot.helpers;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * Remembers which messages were already answered, so a re-posted or updated notification doesn't
+ * get a second reply.
+ * <p>
+ * Entries are keyed by the notification key plus a hash of the message text, because WhatsApp
+ * reuses one notification per chat for every new message. Each entry expires after the dedup
+ * window. Past {@code maxEntries} the store is trimmed in one batch to 90% of the bound, the
+ * expired entries first, then the ones closest to expiry, so a full store doesn't scan itself
+ * on every claim. Safe to call from any thread. With a {@link Storage}, answered messages
+ * survive a restart of the service until they expire; saves are coalesced so a burst of
+ * replies writes the storage once.
+ */
+public class RespondedMessageStore {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    public static final long SAVE_DELAY_MILLIS = 2_000;
+
+    private final Map<String, Long> expiries = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final int trimmedEntries;
+    private final Storage storage;
+    private final ScheduledExecutorService saveScheduler;
+    private final LongSupplier clock;
+    private final AtomicBoolean savePending = new AtomicBoolean();
+
+    /**
+     * @param storage null to keep entries in memory only
+     */
+    public RespondedMessageStore(int maxEntries, Storage storage) {
+        this(maxEntries, storage, null, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock wall clock time in millis, persisted expiries must stay valid across restarts
+     */
+    public RespondedMessageStore(int maxEntries, Storage storage, LongSupplier clock) {
+        this(maxEntries, storage, null, clock);
+    }
+
+    /**
+     * @param saveScheduler runs the coalesced save {@link #SAVE_DELAY_MILLIS} after a reply, null saves on every reply
+     */
+    public RespondedMessageStore(int maxEntries, Storage storage, ScheduledExecutorService saveScheduler) {
+        this(maxEntries, storage, saveScheduler, System::currentTimeMillis);
+    }
+
+    public RespondedMessageStore(int maxEntries, Storage storage, ScheduledExecutorService saveScheduler, LongSupplier clock) {
+        this.maxEntries = maxEntries;
+        this.trimmedEntries = maxEntries * 9 / 10;
+        this.storage = storage;
+        this.saveScheduler = saveScheduler;
+        this.clock = clock;
+        if (storage != null) {
+            long now = clock.getAsLong();
+            for (Map.Entry<String, Long> entry : storage.load().entrySet()) {
+                if (entry.getValue() > now) {
+                    expiries.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * @return the dedup key of a message shown in a notification
+     */
+    public static String keyFor(String notificationKey, CharSequence text) {
+        // 64-bit FNV-1a, enough to tell apart the messages of one chat
+        long hash = 0xcbf29ce484222325L;
+        if (text != null) {
+            for (int i = 0; i < text.length(); i++) {
+                hash ^= text.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+        }
+        return notificationKey + "#" + Long.toHexString(hash);
+    }
+
+    /**
+     * Atomically claims a message for answering.
+     *
+     * @return true if the message wasn't answered or claimed within the window; false for a duplicate
+     */
+    public boolean tryClaim(String key, long windowMillis) {
+        long now = clock.getAsLong();
+        long expiresAt = now + windowMillis;
+        Long previous = expiries.putIfAbsent(key, expiresAt);
+        if (previous != null && (previous > now || !expiries.replace(key, previous, expiresAt))) {
+            return false;
+        }
+        if (expiries.size() > maxEntries) {
+            evict(key, now);
+        }
+        return true;
+    }
+
+    /**
+     * Gives a claim back when no reply went out, so a later notification for the message may retry.
+     */
+    public void release(String key) {
+        expiries.remove(key);
+    }
+
+    /**
+     * Keeps the message for the window from now on and queues a save to the storage.
+     */
+    public void markReplied(String key, long windowMillis) {
+        expiries.put(key, clock.getAsLong() + windowMillis);
+        if (storage == null) {
+            return;
+        }
+        if (saveScheduler == null) {
+            save();
+        } else if (savePending.compareAndSet(false, true)) {
+            try {
+                saveScheduler.schedule(this::flush, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Shutting down, save right away instead
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Writes a pending save now, e.g. before the service stops.
+     */
+    public void flush() {
+        if (savePending.compareAndSet(true, false)) {
+            save();
+        }
+    }
+
+    public int size() {
+        return expiries.size();
+    }
+
+    public void clear() {
+        expiries.clear();
+        save();
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * Drops the expired entries, then the ones closest to expiry until the store is at 90% of
+     * the bound. The key just claimed is never dropped.
+     */
+    private synchronized void evict(String claimedKey, long now) {
+        if (expiries.size() <= maxEntries) {
+            // Another thread trimmed it already
+            return;
+        }
+        expiries.values().removeIf(expiry -> expiry <= now);
+        int excess = expiries.size() - trimmedEntries;
+        if (excess <= 0) {
+            return;
+        }
+        long[] sorted = new long[expiries.size()];
+        int count = 0;
+        for (Long expiry : expiries.values()) {
+            if (count == sorted.length) {
+                break;
+            }
+            sorted[count++] = expiry;
+        }
+        Arrays.sort(sorted, 0, count);
+        long cutoff = sorted[Math.min(excess, count) - 1];
+        // Entries expiring exactly at the cutoff only go until the excess is made up
+        int tiesToDrop = excess;
+        for (int i = 0; i < count && sorted[i] < cutoff; i++) {
+            tiesToDrop--;
+        }
+        Iterator<Map.Entry<String, Long>> iterator = expiries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            long expiry = entry.getValue();
+            if (expiry > cutoff || entry.getKey().equals(claimedKey)) {
+                continue;
+            }
+            if (expiry < cutoff) {
+                iterator.remove();
+            } else if (tiesToDrop > 0) {
+                iterator.remove();
+                tiesToDrop--;
+            }
+        }
+    }
+
+    private void save() {
+        if (storage == null) {
+            return;
+        }
+        long now = clock.getAsLong();
+        Map<String, Long> live = new HashMap<>();
+        for (Map.Entry<String, Long> entry : expiries.entrySet()) {
+            if (entry.getValue() > now) {
+                live.put(entry.getKey(), entry.getValue());
+            }
+        }
+        storage.save(live);
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * Where answered messages are kept between service restarts.
+     */
+    public interface Storage {
+
+        /**
+         * @return dedup keys mapped to their wall clock expiry
+         */
+        Map<String, Long> load();
+
+        void save(Map<String, Long> expiries);
+    }
+}
@@ -0,0 +1,130 @@
+package zo.ro.whatsappreplybot.helpers;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the chat history retention policies in the background, so the reply path only inserts.
+ * <p>
+ * Policies (from settings, 0 disables a policy):
+ * <ul>
+ *     <li>retention_days: keep messages from the last N calendar days (1 = today only)</li>
+ *     <li>retention_max_per_sender: keep only the newest K messages of each sender</li>
+ *     <li>retention_max_db_size_mb: delete oldest messages while the database is larger than this</li>
+ * </ul>
+ * Rows are deleted in small batches, then freed pages are handed back with incremental vacuum.
+ * A database from before incremental vacuum is only converted while it is small and nothing
+ * else waits for the DB thread, since the conversion rewrites the whole file.
+ */
+public class RetentionCompactor {
+
+    private static final String TAG = "MADARA";
+    private static final int BATCH_SIZE = 500;
+    private static final int MAX_BATCHES_PER_RUN = 20; // Bounds how long one run keeps the DB thread busy
+    private static final int VACUUM_PAGES_PER_RUN = 256;
+    private static final long MAX_VACUUM_CONVERSION_BYTES = 2L * 1024 * 1024; // A full VACUUM of this much stays well under a second
+    private static final long INITIAL_DELAY_MINUTES = 1;
+    private static final long PERIOD_MINUTES = 60;
+
+    private final DatabaseHelper dbHelper;
+    private final SharedPreferences sharedPreferences;
+    private final ReplyExecutors replyExecutors;
+    private final ConversationCache conversationCache;
+    private ScheduledFuture<?> scheduledRun;
+    private boolean incrementalVacuumEnabled;
+
+    public RetentionCompactor(DatabaseHelper dbHelper, SharedPreferences sharedPreferences, ReplyExecutors replyExecutors, ConversationCache conversationCache) {
+        this.dbHelper = dbHelper;
+        this.sharedPreferences = sharedPreferences;
+        this.replyExecutors = replyExecutors;
+        this.conversationCache = conversationCache;
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    public synchronized void start() {
+        if (scheduledRun == null) {
+            scheduledRun = replyExecutors.scheduleDbMaintenance(this::compact, INITIAL_DELAY_MINUTES, PERIOD_MINUTES, TimeUnit.MINUTES);
+        }
+    }
+
+    public synchronized void stop() {
+        if (scheduledRun != null) {
+            scheduledRun.cancel(false);
+            scheduledRun = null;
+        }
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * Runs on the DB thread.
+     */
+    private void compact() {
+        try {
+            // Retention may shrink a large database under the limit, so it is tried again on later runs
+            if (!incrementalVacuumEnabled && replyExecutors.getDbQueueDepth() == 0) {
+                incrementalVacuumEnabled = dbHelper.enableIncrementalVacuum(MAX_VACUUM_CONVERSION_BYTES);
+            }
+
+            int budget = MAX_BATCHES_PER_RUN;
+            int deleted = 0;
+
+            int keepDays = CustomMethods.getIntPreference(sharedPreferences, "retention_days", 1);
+            if (keepDays > 0) {
+                long cutoff = getCutoffMillis(keepDays);
+                int count;
+                while (budget > 0 && (count = dbHelper.deleteMessagesOlderThan(cutoff, BATCH_SIZE)) > 0) {
+                    deleted += count;
+                    budget--;
+                }
+            }
+
+            int keepPerSender = CustomMethods.getIntPreference(sharedPreferences, "retention_max_per_sender", 0);
+            if (keepPerSender > 0 && budget > 0) {
+                List<String> senders = dbHelper.getSendersWithMoreThan(keepPerSender);
+                for (String sender : senders) {
+                    int count;
+                    while (budget > 0 && (count = dbHelper.deleteMessagesBeyondPerSender(sender, keepPerSender, BATCH_SIZE)) > 0) {
+                        deleted += count;
+                        budget--;
+                    }
+                }
+            }
+
+            int maxSizeMb = CustomMethods.getIntPreference(sharedPreferences, "retention_max_db_size_mb", 0);
+            if (maxSizeMb > 0) {
+                long maxBytes = maxSizeMb * 1024L * 1024L;
+                while (budget > 0 && dbHelper.getDatabaseSizeBytes() > maxBytes) {
+                    int count = dbHelper.deleteOldestMessages(BATCH_SIZE);
+                    if (count == 0) {
+                        break;
+                    }
+                    deleted += count;
+                    budget--;
+                }
+            }
+
+            if (deleted > 0) {
+                // Cached histories may still hold deleted rows, let them reload from SQLite
+                conversationCache.invalidateAll();
+                dbHelper.incrementalVacuum(VACUUM_PAGES_PER_RUN);
+            }
+            Log.d(TAG, "compact: deleted " + deleted + " messages");
+        } catch (Exception e) {
+            Log.e(TAG, "compact: ", e);
+        }
+    }
+
+    private static long getCutoffMillis(int keepDays) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(CustomMethods.getStartOfDayMillis());
+        calendar.add(Calendar.DAY_OF_MONTH, -(keepDays - 1));
+        return calendar.getTimeInMillis();
+    }
+}
@@ -1,46 +1,110 @@
 package zo.ro.whatsappreplybot.helpers;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
-import android.os.Handler;
-import android.os.Looper;
+import android.util.Log;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
 import java.util.List;
 
 import zo.ro.whatsappreplybot.models.Message;
 
 public class WhatsAppMessageHandler {
 
+    private static final String TAG = "MADARA";
     private final DatabaseHelper dbHelper;
+    private final ReplyExecutors replyExecutors;
+    private final ReplyQuotaService replyQuotaService;
+    private final ConversationCache conversationCache = new ConversationCache(DatabaseHelper.HISTORY_LIMIT);
+    private final ReplyCache replyCache;
+    private final NearDuplicateIndex nearDuplicateIndex = new NearDuplicateIndex();
+
+    public WhatsAppMessageHandler(Context context, ReplyExecutors replyExecutors) {
+        this(DatabaseHelper.getInstance(context), replyExecutors);
+    }
 
-    public WhatsAppMessageHandler(Context context) {
-        dbHelper = new DatabaseHelper(context);
+    /**
+     * @param dbHelper a database other than the app's, so a test harness never writes to the user's history
+     */
+    @VisibleForTesting
+    public WhatsAppMessageHandler(DatabaseHelper dbHelper, ReplyExecutors replyExecutors) {
+        this.dbHelper = dbHelper;
+        this.replyExecutors = replyExecutors;
+        replyQuotaService = new ReplyQuotaService(dbHelper, replyExecutors);
+        replyCache = new ReplyCache(dbHelper, replyExecutors);
     }
 
 //    ----------------------------------------------------------------------------------------------
 
-    public void handleIncomingMessage(String sender, String message, String reply) {
-        @SuppressLint("SimpleDateFormat") String timestamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
-        dbHelper.insertMessage(sender, message, timestamp, reply);
-        dbHelper.deleteOldMessages(); // Clean up old messages
+    /**
+     * @param provider name of the reply provider that generated the reply, null for the default reply
+     */
+    public void handleIncomingMessage(String sender, String message, String reply, String provider) {
+        long timestamp = System.currentTimeMillis();
+        boolean queued = replyExecutors.executeDb(() -> {
+            long writeStart = PipelineMetrics.start();
+            long rowId = dbHelper.insertMessage(sender, message, timestamp, reply, DatabaseHelper.DIRECTION_INCOMING, provider);
+            replyQuotaService.recordReply(sender);
+            if (rowId != -1 && sender != null) {
+                conversationCache.append(sender, new Message((int) rowId, sender, message, timestamp, reply, DatabaseHelper.DIRECTION_INCOMING, provider));
+            }
+            PipelineMetrics.getInstance().record(PipelineMetrics.Stage.DB_WRITE, provider, null, writeStart);
+        });
+        if (!queued) {
+            Log.w(TAG, "handleIncomingMessage: DB queue full, reply from " + sender + " not stored");
+        }
     }
 
 //    ----------------------------------------------------------------------------------------------
 
+    /**
+     * Delivers the recent history (newest first). A cached sender is answered straight away on
+     * the calling thread; a cold miss is loaded on the DB thread, which also fills the cache.
+     * If the DB queue is saturated the listener gets an empty history.
+     */
     public void getMessagesHistory(String sender, OnMessagesRetrievedListener listener) {
-        new Thread(() -> {
+        if (sender == null) {
+            listener.onMessagesRetrieved(new ArrayList<>());
+            return;
+        }
+
+        List<Message> cached = conversationCache.get(sender);
+        if (cached != null) {
+            listener.onMessagesRetrieved(cached);
+            return;
+        }
+
+        boolean queued = replyExecutors.executeDb(() -> {
+            // Cold loads and inserts share the single DB thread, so nothing can slip in between
             List<Message> messages = dbHelper.getChatHistoryBySender(sender);
+            conversationCache.put(sender, messages);
             listener.onMessagesRetrieved(messages);
-        }).start();
+        });
+        if (!queued) {
+            listener.onMessagesRetrieved(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Checks whether the sender is still under maxReplies for today, see {@link ReplyQuotaService}.
+     *
+     * @return false if the DB queue is saturated and the listener will not be called
+     */
+    public boolean checkReplyQuota(String sender, int maxReplies, ReplyQuotaService.OnQuotaCheckedListener listener) {
+        return replyQuotaService.checkQuota(sender, maxReplies, listener);
+    }
+
+    public ConversationCache getConversationCache() {
+        return conversationCache;
+    }
+
+    public ReplyCache getReplyCache() {
+        return replyCache;
     }
 
-    public void getAllMessagesBySender(String sender, OnMessagesRetrievedListener listener) {
-        new Thread(() -> {
-            List<Message> messages = dbHelper.getAllMessagesBySender(sender);
-            new Handler(Looper.getMainLooper()).post(() -> listener.onMessagesRetrieved(messages));
-        }).start();
+    public NearDuplicateIndex getNearDuplicateIndex() {
+        return nearDuplicateIndex;
     }
 
     public interface OnMessagesRetrievedListener {
@@ -4,15 +4,19 @@ public class Message {
     private int id;
     private String sender;
     private String message;
-    private String timestamp;
+    private long timestamp; // Epoch millis
     private String reply;
+    private int direction;
+    private String provider;
 
-    public Message(int id, String sender, String message, String timestamp, String reply) {
+    public Message(int id, String sender, String message, long timestamp, String reply, int direction, String provider) {
         this.id = id;
         this.sender = sender;
         this.message = message;
         this.timestamp = timestamp;
         this.reply = reply;
+        this.direction = direction;
+        this.provider = provider;
     }
 
     // Getters and Setters
@@ -40,11 +44,11 @@ public class Message {
         this.message = message;
     }
 
-    public String getTimestamp() {
+    public long getTimestamp() {
         return timestamp;
     }
 
-    public void setTimestamp(String timestamp) {
+    public void setTimestamp(long timestamp) {
         this.timestamp = timestamp;
     }
 
@@ -55,5 +59,20 @@ public class Message {
     public void setReply(String reply) {
         this.reply = reply;
     }
-}
 
+    public int getDirection() {
+        return direction;
+    }
+
+    public void setDirection(int direction) {
+        this.direction = direction;
+    }
+
+    public String getProvider() {
+        return provider;
+    }
+
+    public void setProvider(String provider) {
+        this.provider = provider;
+    }
+}
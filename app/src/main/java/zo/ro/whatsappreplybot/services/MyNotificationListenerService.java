@@ -13,29 +13,51 @@ import android.os.Handler;
 import android.os.Looper;
 import android.service.notification.NotificationListenerService;
 import android.service.notification.StatusBarNotification;
+import android.text.TextUtils;
 import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
 import androidx.preference.PreferenceManager;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 import zo.ro.whatsappreplybot.R;
-import zo.ro.whatsappreplybot.apis.ChatGPTReplyGenerator;
-import zo.ro.whatsappreplybot.apis.CustomReplyGenerator;
-import zo.ro.whatsappreplybot.apis.DeepSeekReplyGenerator;
-import zo.ro.whatsappreplybot.apis.GeminiReplyGenerator;
-import zo.ro.whatsappreplybot.apis.OllamaReplyGenerator;
+import zo.ro.whatsappreplybot.apis.HttpTransport;
+import zo.ro.whatsappreplybot.apis.ReplyEngine;
+import zo.ro.whatsappreplybot.apis.ReplyEngineRegistry;
+import zo.ro.whatsappreplybot.apis.ReplyProvider;
+import zo.ro.whatsappreplybot.helpers.CustomMethods;
+import zo.ro.whatsappreplybot.helpers.DatabaseHelper;
+import zo.ro.whatsappreplybot.helpers.MessageCoalescer;
+import zo.ro.whatsappreplybot.helpers.NotificationPreFilter;
+import zo.ro.whatsappreplybot.helpers.PipelineMetrics;
+import zo.ro.whatsappreplybot.helpers.ReplyExecutors;
+import zo.ro.whatsappreplybot.helpers.ReplyScheduler;
+import zo.ro.whatsappreplybot.helpers.RespondedMessageStore;
+import zo.ro.whatsappreplybot.helpers.RetentionCompactor;
 import zo.ro.whatsappreplybot.helpers.WhatsAppMessageHandler;
 
 public class MyNotificationListenerService extends NotificationListenerService {
 
     private static final String TAG = "MADARA";
     private final String notificationChannelId = "wa_auto_reply_channel";
-    private final Set<String> respondedMessages = new HashSet<>();
+    private RespondedMessageStore respondedMessages;
     private SharedPreferences sharedPreferences;
     private WhatsAppMessageHandler messageHandler;
+    private ReplyExecutors replyExecutors;
+    private HttpTransport httpTransport;
+    private ReplyEngineRegistry replyEngineRegistry;
+    private RetentionCompactor retentionCompactor;
+    private MessageCoalescer<StatusBarNotification> messageCoalescer;
+    private ReplyScheduler replyScheduler;
+    private final NotificationPreFilter preFilter = new NotificationPreFilter();
+    private final PipelineMetrics metrics = PipelineMetrics.getInstance();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private String botReplyMessage;
 
     @Override
@@ -44,52 +66,33 @@ public class MyNotificationListenerService extends NotificationListenerService {
 
         if (statusBarNotification.getPackageName().equalsIgnoreCase("com.whatsapp")) {
 
+            long filterStart = PipelineMetrics.start();
+
             Bundle extras = statusBarNotification.getNotification().extras;
-            String messageId = statusBarNotification.getKey();
             String title = extras.getString(Notification.EXTRA_TITLE);
             CharSequence text = extras.getCharSequence(Notification.EXTRA_TEXT);
 
-            // Check if we've already responded to this message
-            if (respondedMessages.contains(messageId)) {
-                return;
-            }
-
-            // Skip if message is from the user themselves
-            if (isMessageFromUser(text)) {
-                Log.d(TAG, "Skipping reply: Message is from user");
+            // Self, status, active-chat and no-reply notifications are dropped in one pass over the text
+            Notification notification = statusBarNotification.getNotification();
+            int verdict = preFilter.check(title, text, notification.flags, Notification.FLAG_ONGOING_EVENT, hasReplyAction(notification.actions));
+            if (verdict != NotificationPreFilter.PASS) {
+                Log.d(TAG, "Skipping reply: pre-filter verdict " + verdict);
                 return;
             }
 
-            // Skip if notification is for an active/foreground chat
-            if (isChatActive(statusBarNotification)) {
-                Log.d(TAG, "Skipping reply: Chat is currently active");
+            // Claim the message before anything else so a re-posted notification is never answered twice
+            String messageId = RespondedMessageStore.keyFor(statusBarNotification.getKey(), text);
+            if (!respondedMessages.tryClaim(messageId, getDedupWindowMillis())) {
                 return;
             }
 
-            // Check if notification has reply action - if not, we can't reply anyway
-            Notification.Action[] actions = statusBarNotification.getNotification().actions;
-            if (actions == null || actions.length == 0) {
-                Log.d(TAG, "Skipping reply: No reply actions available");
+            // A burst from a sender already waiting for a reply joins that reply
+            if (text != null && !text.toString().isEmpty()
+                    && messageCoalescer.appendIfPending(title, text.toString(), statusBarNotification, getCoalescingWindowMillis(), getCoalescingMaxWaitMillis())) {
+                Log.d(TAG, "Coalescing message into pending reply");
                 return;
             }
 
-            // Check if any action has remote input (reply capability)
-            boolean hasReplyAction = false;
-            for (Notification.Action action : actions) {
-                if (action.getRemoteInputs() != null && action.getRemoteInputs().length > 0) {
-                    hasReplyAction = true;
-                    break;
-                }
-            }
-            
-            if (!hasReplyAction) {
-                Log.d(TAG, "Skipping reply: No reply action found in notification");
-                return;
-            }
-
-            // Add this message to the set of responded messages to avoid looping
-            respondedMessages.add(messageId);
-
             // Process the message and send auto-reply
             if (text != null && !text.toString().isEmpty()) {
 
@@ -99,34 +102,107 @@ public class MyNotificationListenerService extends NotificationListenerService {
 
                     int maxReply = Integer.parseInt(sharedPreferences.getString("max_reply", "100"));
 
-                    messageHandler.getAllMessagesBySender(title, messages -> {
+                    metrics.record(PipelineMetrics.Stage.FILTER, null, null, filterStart);
+                    long quotaStart = PipelineMetrics.start();
+
+                    boolean queued = messageHandler.checkReplyQuota(title, maxReply, withinQuota -> {
+
+                        metrics.record(PipelineMetrics.Stage.QUOTA_CHECK, null, null, quotaStart);
 
-                        if (messages != null && messages.size() < maxReply) {
+                        if (withinQuota) {
 
                             boolean groupReplyEnabled = sharedPreferences.getBoolean("is_group_reply_enabled", false);
 
                             if (groupReplyEnabled) {
-                                processAutoReply(statusBarNotification, title, senderMessage, messageId);
+                                scheduleAutoReply(statusBarNotification, title, senderMessage, messageId);
                             } else {
                                 if (!isGroupMessage(title)) {
-                                    processAutoReply(statusBarNotification, title, senderMessage, messageId);
+                                    scheduleAutoReply(statusBarNotification, title, senderMessage, messageId);
                                 }
                             }
                         }
                     });
+
+                    if (!queued) {
+                        // Shed the message while the pipeline is saturated, a later update may retry it
+                        Log.w(TAG, "Skipping reply: reply pipeline is saturated");
+                        respondedMessages.release(messageId);
+                    }
                 }
             }
+        }
+    }
 
-            // Clear the set if it reaches size 50 for ram memory free // but no necessary currently
-            if (respondedMessages.size() > 50) {
-                respondedMessages.clear();
-            }
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * Replies straight away, or opens a coalescing window so a burst from the sender gets one reply.
+     */
+    private void scheduleAutoReply(StatusBarNotification statusBarNotification, String sender, String message, String messageId) {
+        long windowMillis = getCoalescingWindowMillis();
+        if (windowMillis <= 0 || sender == null) {
+            processAutoReply(statusBarNotification, sender, message, messageId, statusBarNotification.getPostTime());
+            return;
         }
+        messageCoalescer.submit(sender, message, statusBarNotification, windowMillis, getCoalescingMaxWaitMillis());
+    }
+
+    /**
+     * Answers a coalesced burst on the main thread: the messages are joined into one prompt and
+     * the reply goes out through the newest notification's reply action.
+     */
+    private void onCoalescedBatch(String sender, List<String> messages, List<StatusBarNotification> notifications) {
+        StatusBarNotification first = notifications.get(0);
+        StatusBarNotification latest = notifications.get(notifications.size() - 1);
+        String combinedMessage = TextUtils.join("\n", messages);
+        if (messages.size() > 1) {
+            Log.d(TAG, "onCoalescedBatch: " + messages.size() + " messages from " + sender + " answered with one reply");
+        }
+        // Timed from the first message, waiting out the burst is part of what the sender sees
+        String messageId = RespondedMessageStore.keyFor(first.getKey(), messages.get(0));
+        mainHandler.post(() -> processAutoReply(latest, sender, combinedMessage, messageId, first.getPostTime()));
+    }
+
+    /**
+     * Contacts listed in {@code vip_contacts} come first, then direct chats, then groups.
+     */
+    private int getReplyPriority(String sender) {
+        Set<String> vipContacts = CustomMethods.parseContactList(sharedPreferences.getString("vip_contacts", ""));
+        if (sender != null && (vipContacts.contains(sender.trim().toLowerCase(Locale.ROOT))
+                || vipContacts.contains(getConversationKey(sender).toLowerCase(Locale.ROOT)))) {
+            return ReplyScheduler.PRIORITY_VIP;
+        }
+        return isGroupMessage(sender) ? ReplyScheduler.PRIORITY_GROUP : ReplyScheduler.PRIORITY_DIRECT;
+    }
+
+    /**
+     * Group notifications are titled "Group: Member", every member of a group shares one conversation.
+     */
+    private String getConversationKey(String sender) {
+        if (sender == null) {
+            return null;
+        }
+        return isGroupMessage(sender) ? sender.substring(0, sender.indexOf(':')).trim() : sender.trim();
+    }
+
+    private long getCoalescingWindowMillis() {
+        return CustomMethods.getIntPreference(sharedPreferences, "coalescing_window_seconds", 3) * 1000L;
+    }
+
+    private long getCoalescingMaxWaitMillis() {
+        return CustomMethods.getIntPreference(sharedPreferences, "coalescing_max_wait_seconds", 10) * 1000L;
+    }
+
+    private long getDedupWindowMillis() {
+        return CustomMethods.getIntPreference(sharedPreferences, "dedup_window_minutes", 10) * 60_000L;
     }
 
 //    ----------------------------------------------------------------------------------------------
 
-    private void processAutoReply(StatusBarNotification statusBarNotification, String sender, String message, String messageId) {
+    /**
+     * @param receivedAt wall clock time the message was posted, for the end-to-end timing
+     */
+    private void processAutoReply(StatusBarNotification statusBarNotification, String sender, String message, String messageId, long receivedAt) {
 
         Notification.Action[] actions = statusBarNotification.getNotification().actions;
 
@@ -143,70 +219,35 @@ public class MyNotificationListenerService extends NotificationListenerService {
 
                     if (isAIConfigured()) {
 
-                        String llmModel = sharedPreferences.getString("llm_model", "gpt-4o-mini").toLowerCase();
-
-                        if (llmModel.startsWith("gpt")) {
-
-                            ChatGPTReplyGenerator chatGPTReplyGenerator = new ChatGPTReplyGenerator(this, sharedPreferences, messageHandler);
-
-                            chatGPTReplyGenerator.generateReply(sender, message, reply -> {
-                                botReplyMessage = replyPrefix + " " + reply;
-                                String botReplyWithoutPrefix = botReplyMessage.replace(replyPrefix, "").trim();
-                                messageHandler.handleIncomingMessage(sender, message, botReplyWithoutPrefix);
-                                sendWithNaturalDelay(action, botReplyMessage, messageId);
-                            });
-
-                        } else if (llmModel.startsWith("custom")) {
-
-                            CustomReplyGenerator customReplyGenerator = new CustomReplyGenerator(this, sharedPreferences, messageHandler);
+                        ReplyEngine replyEngine = replyEngineRegistry.getEngine();
 
-                            customReplyGenerator.generateReply(sender, message, reply -> {
-                                botReplyMessage = replyPrefix + " " + reply;
-                                String botReplyWithoutPrefix = botReplyMessage.replace(replyPrefix, "").trim();
-                                messageHandler.handleIncomingMessage(sender, message, botReplyWithoutPrefix);
-                                sendWithNaturalDelay(action, botReplyMessage, messageId);
-                            });
+                        ReplyProvider provider = replyEngineRegistry.getActiveProvider();
 
-                        } else if (llmModel.startsWith("gemini")) {
+                        if (replyEngine != null) {
 
-                            GeminiReplyGenerator geminiReplyGenerator = new GeminiReplyGenerator(this, sharedPreferences, messageHandler);
+                            // Generation waits its turn behind higher priority chats and the provider's concurrency limit
+                            boolean queued = replyScheduler.submit(getConversationKey(sender), provider.name(), provider.getMaxConcurrentReplies(), getReplyPriority(sender), onFinished ->
+                                    replyEngine.generateReply(sender, message, reply -> {
+                                        onFinished.run();
+                                        botReplyMessage = replyPrefix + " " + reply;
+                                        String botReplyWithoutPrefix = botReplyMessage.replace(replyPrefix, "").trim();
+                                        messageHandler.handleIncomingMessage(sender, message, botReplyWithoutPrefix, provider.name());
+                                        sendWithNaturalDelay(action, botReplyMessage, messageId, provider.name(), receivedAt);
+                                    }));
 
-                            geminiReplyGenerator.generateReply(sender, message, reply -> {
-                                botReplyMessage = replyPrefix + " " + reply;
-                                String botReplyWithoutPrefix = botReplyMessage.replace(replyPrefix, "").trim();
-                                messageHandler.handleIncomingMessage(sender, message, botReplyWithoutPrefix);
-                                sendWithNaturalDelay(action, botReplyMessage, messageId);
-                            });
-
-                        } else if (llmModel.startsWith("deepseek")) {
-
-                            DeepSeekReplyGenerator deepSeekReplyGenerator = new DeepSeekReplyGenerator(this, sharedPreferences, messageHandler);
-
-                            deepSeekReplyGenerator.generateReply(sender, message, reply -> {
-                                botReplyMessage = replyPrefix + " " + reply;
-                                String botReplyWithoutPrefix = botReplyMessage.replace(replyPrefix, "").trim();
-                                messageHandler.handleIncomingMessage(sender, message, botReplyWithoutPrefix);
-                                sendWithNaturalDelay(action, botReplyMessage, messageId);
-                            });
-
-                        } else if (llmModel.startsWith("llama") || llmModel.startsWith("mistral") || 
-                                   llmModel.startsWith("codellama") || llmModel.startsWith("phi")) {
-
-                            OllamaReplyGenerator ollamaReplyGenerator = new OllamaReplyGenerator(this, sharedPreferences, messageHandler);
-
-                            ollamaReplyGenerator.generateReply(sender, message, reply -> {
-                                botReplyMessage = replyPrefix + " " + reply;
-                                String botReplyWithoutPrefix = botReplyMessage.replace(replyPrefix, "").trim();
-                                messageHandler.handleIncomingMessage(sender, message, botReplyWithoutPrefix);
-                                sendWithNaturalDelay(action, botReplyMessage, messageId);
-                            });
+                            if (!queued) {
+                                Log.w(TAG, "Skipping reply: reply scheduler is full, " + replyScheduler.getMetricsSummary());
+                                respondedMessages.release(messageId);
+                            } else if (replyScheduler.getPendingCount() > 0) {
+                                Log.d(TAG, "processAutoReply: " + replyScheduler.getMetricsSummary());
+                            }
                         }
 
                     } else {
                         botReplyMessage = (replyPrefix + " " + sharedPreferences.getString("default_reply_message", getString(R.string.default_bot_message))).trim();
                         String botReplyWithoutPrefix = botReplyMessage.replace(replyPrefix, "").trim();
-                        messageHandler.handleIncomingMessage(sender, message, botReplyWithoutPrefix);
-                        sendWithNaturalDelay(action, botReplyMessage, messageId);
+                        messageHandler.handleIncomingMessage(sender, message, botReplyWithoutPrefix, null);
+                        sendWithNaturalDelay(action, botReplyMessage, messageId, null, receivedAt);
                     }
 
                     //..............................................................................
@@ -253,7 +294,9 @@ public class MyNotificationListenerService extends NotificationListenerService {
 
 //    ----------------------------------------------------------------------------------------------
 
-    private void send(Notification.Action action, String botReplyMessage) {
+    private void send(Notification.Action action, String botReplyMessage, String provider, long receivedAt) {
+
+        long sendStart = PipelineMetrics.start();
 
         RemoteInput remoteInput = action.getRemoteInputs()[0];
 
@@ -269,15 +312,21 @@ public class MyNotificationListenerService extends NotificationListenerService {
         } catch (PendingIntent.CanceledException e) {
             Log.e(TAG, "sendAutoReply: ", e);
         }
+
+        String model = provider == null ? null : sharedPreferences.getString("llm_model", null);
+        metrics.record(PipelineMetrics.Stage.SEND, provider, model, sendStart);
+        metrics.recordMillis(PipelineMetrics.Stage.END_TO_END, provider, model, System.currentTimeMillis() - receivedAt);
     }
 
 //    ----------------------------------------------------------------------------------------------
 
     /**
      * Sends reply with delay (custom delay takes priority, then natural delay, then instant)
-     * Removes messageId from respondedMessages after sending to prevent duplicates
+     * Keeps messageId in respondedMessages for the dedup window after sending to prevent duplicates
+     *
+     * @param provider provider that generated the reply, null for the default reply
      */
-    private void sendWithNaturalDelay(Notification.Action action, String botReplyMessage, String messageId) {
+    private void sendWithNaturalDelay(Notification.Action action, String botReplyMessage, String messageId, String provider, long receivedAt) {
         long delay = 0;
         boolean customDelaySet = false;
         
@@ -307,16 +356,16 @@ public class MyNotificationListenerService extends NotificationListenerService {
         
         // Send with calculated delay (or instantly if delay is 0)
         if (delay > 0) {
+            long delayStart = PipelineMetrics.start();
             new Handler(Looper.getMainLooper()).postDelayed(() -> {
-                send(action, botReplyMessage);
-                // Remove messageId after sending (wait additional 2 seconds to prevent duplicates from notification updates)
-                new Handler(Looper.getMainLooper()).postDelayed(() -> respondedMessages.remove(messageId), 2000);
+                metrics.record(PipelineMetrics.Stage.SCHEDULED_DELAY, provider, null, delayStart);
+                send(action, botReplyMessage, provider, receivedAt);
+                respondedMessages.markReplied(messageId, getDedupWindowMillis());
             }, delay);
         } else {
             // Send instantly if no delay
-            send(action, botReplyMessage);
-            // Remove messageId after a short delay to prevent immediate duplicates
-            new Handler(Looper.getMainLooper()).postDelayed(() -> respondedMessages.remove(messageId), 2000);
+            send(action, botReplyMessage, provider, receivedAt);
+            respondedMessages.markReplied(messageId, getDedupWindowMillis());
         }
     }
 
@@ -326,8 +375,17 @@ public class MyNotificationListenerService extends NotificationListenerService {
     public void onCreate() {
         super.onCreate();
 
-        messageHandler = new WhatsAppMessageHandler(this);
+        replyExecutors = new ReplyExecutors();
+        messageHandler = new WhatsAppMessageHandler(this, replyExecutors);
         sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
+        httpTransport = new HttpTransport(replyExecutors.getNetworkExecutor());
+        replyEngineRegistry = new ReplyEngineRegistry(this, sharedPreferences, messageHandler, httpTransport, replyExecutors);
+        retentionCompactor = new RetentionCompactor(DatabaseHelper.getInstance(this), sharedPreferences, replyExecutors, messageHandler.getConversationCache());
+        retentionCompactor.start();
+        messageCoalescer = new MessageCoalescer<>(replyExecutors.getScheduler(), this::onCoalescedBatch);
+        replyScheduler = new ReplyScheduler(mainHandler::post, replyExecutors.getScheduler());
+        respondedMessages = new RespondedMessageStore(RespondedMessageStore.DEFAULT_MAX_ENTRIES, createDedupStorage(), replyExecutors.getScheduler());
+        registerStatsSources();
 
         createNotificationChannel();
 
@@ -340,6 +398,96 @@ public class MyNotificationListenerService extends NotificationListenerService {
         startForeground(1, builder.build());
     }
 
+//    ----------------------------------------------------------------------------------------------
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+
+        unregisterStatsSources();
+        if (retentionCompactor != null) {
+            retentionCompactor.stop();
+        }
+        if (messageCoalescer != null) {
+            messageCoalescer.clear();
+        }
+        if (respondedMessages != null) {
+            respondedMessages.flush();
+        }
+        if (replyEngineRegistry != null) {
+            replyEngineRegistry.release();
+        }
+        if (httpTransport != null) {
+            httpTransport.shutdown();
+        }
+        if (replyExecutors != null) {
+            replyExecutors.shutdown();
+        }
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * Shows the pipeline components' own counters on the diagnostics screen while the service runs.
+     */
+    private void registerStatsSources() {
+        metrics.registerSource("reply_scheduler", replyScheduler::getMetricsSummary);
+        metrics.registerSource("coalescer", () -> messageCoalescer.getPendingSenderCount() + " senders waiting");
+        metrics.registerSource("rate_limiter", () -> httpTransport.getRateLimiter().getStatsSummary());
+        metrics.registerSource("circuit_breakers", () -> TextUtils.join("; ", replyEngineRegistry.getCircuitBreakerSummaries()));
+        metrics.registerSource("failover", () -> TextUtils.join("; ", replyEngineRegistry.getFailoverSummaries()));
+        metrics.registerSource("reply_cache", () -> messageHandler.getReplyCache().getHitCount() + " hits, " + messageHandler.getReplyCache().getMissCount() + " misses");
+        metrics.registerSource("near_duplicates", () -> messageHandler.getNearDuplicateIndex().getStatsSummary());
+        metrics.registerSource("dedup", () -> respondedMessages.size() + " messages remembered");
+        metrics.registerSource("http_connections", () -> httpTransport.getConnectionCount() + " open, " + httpTransport.getIdleConnectionCount() + " idle");
+    }
+
+    private void unregisterStatsSources() {
+        for (String name : new String[]{"reply_scheduler", "coalescer", "rate_limiter", "circuit_breakers", "failover", "reply_cache", "near_duplicates", "dedup", "http_connections"}) {
+            metrics.unregisterSource(name);
+        }
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    /**
+     * Answered messages go to their own preferences file, one "expiry|key" entry each, so a
+     * restarted service doesn't answer notifications that are still showing.
+     *
+     * @return null when persistence is off
+     */
+    private RespondedMessageStore.Storage createDedupStorage() {
+        SharedPreferences dedupPreferences = getSharedPreferences("responded_messages", MODE_PRIVATE);
+        if (!sharedPreferences.getBoolean("is_dedup_persistent", true)) {
+            dedupPreferences.edit().clear().apply();
+            return null;
+        }
+        return new RespondedMessageStore.Storage() {
+            @Override
+            public Map<String, Long> load() {
+                Map<String, Long> expiries = new HashMap<>();
+                for (String entry : dedupPreferences.getStringSet("entries", new HashSet<>())) {
+                    int separator = entry.indexOf('|');
+                    try {
+                        expiries.put(entry.substring(separator + 1), Long.parseLong(entry.substring(0, separator)));
+                    } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                        Log.w(TAG, "createDedupStorage: dropping malformed entry " + entry);
+                    }
+                }
+                return expiries;
+            }
+
+            @Override
+            public void save(Map<String, Long> expiries) {
+                Set<String> entries = new HashSet<>();
+                for (Map.Entry<String, Long> expiry : expiries.entrySet()) {
+                    entries.add(expiry.getValue() + "|" + expiry.getKey());
+                }
+                dedupPreferences.edit().putStringSet("entries", entries).apply();
+            }
+        };
+    }
+
 //    ----------------------------------------------------------------------------------------------
 
     private void createNotificationChannel() {
@@ -362,72 +510,14 @@ public class MyNotificationListenerService extends NotificationListenerService {
 
 //    ----------------------------------------------------------------------------------------------
 
-    /**
-     * Checks if the chat is currently active/foreground
-     * When WhatsApp chat is open, notifications might still be posted but shouldn't trigger auto-reply
-     */
-    private boolean isChatActive(StatusBarNotification statusBarNotification) {
-        Notification notification = statusBarNotification.getNotification();
-        
-        if (notification != null) {
-            Bundle extras = notification.extras;
-            if (extras != null) {
-                CharSequence text = extras.getCharSequence(Notification.EXTRA_TEXT);
-                String title = extras.getString(Notification.EXTRA_TITLE);
-                
-                // If title and text are the same, it might be a status update or system message
-                if (title != null && text != null && title.equals(text.toString())) {
+    private static boolean hasReplyAction(Notification.Action[] actions) {
+        if (actions != null) {
+            for (Notification.Action action : actions) {
+                if (action.getRemoteInputs() != null && action.getRemoteInputs().length > 0) {
                     return true;
                 }
-                
-                // Check if notification is silent (no sound/vibration) - might indicate active chat
-                // When chat is open, WhatsApp might post silent notifications
-                if ((notification.flags & Notification.FLAG_ONLY_ALERT_ONCE) != 0) {
-                    // This flag is set when notification should only alert once
-                    // Combined with other checks, this might indicate active chat
-                }
-            }
-            
-            // Check if notification is marked as ongoing (less likely to be a new message)
-            if ((notification.flags & Notification.FLAG_ONGOING_EVENT) != 0) {
-                return true;
             }
         }
-        
-        return false;
-    }
-
-//    ----------------------------------------------------------------------------------------------
-
-    /**
-     * Checks if the message is from the user themselves
-     * WhatsApp notifications for user's own messages often have specific patterns
-     */
-    private boolean isMessageFromUser(CharSequence text) {
-        if (text == null || text.toString().isEmpty()) {
-            return false;
-        }
-        
-        String messageText = text.toString().toLowerCase();
-        
-        // Check for common patterns indicating user's own messages
-        // WhatsApp might show "You:" prefix or similar indicators
-        if (messageText.startsWith("you:") || 
-            messageText.startsWith("you ") ||
-            messageText.contains("you sent") ||
-            messageText.contains("your message")) {
-            return true;
-        }
-        
-        // Also check for status update patterns
-        if (messageText.contains("read") || 
-            messageText.contains("delivered") ||
-            messageText.contains("typing...") ||
-            messageText.contains("online") ||
-            messageText.contains("last seen")) {
-            return true;
-        }
-        
         return false;
     }
 
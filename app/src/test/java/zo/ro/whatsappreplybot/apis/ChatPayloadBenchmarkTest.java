@@ -0,0 +1,119 @@
+package zo.ro.whatsappreplybot.apis;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import okio.Buffer;
+import zo.ro.whatsappreplybot.helpers.DatabaseHelper;
+import zo.ro.whatsappreplybot.models.Message;
+
+import static org.junit.Assert.*;
+
+/**
+ * How much of two consecutive requests is a shared prefix that a provider-side prompt cache
+ * could reuse, with the old flattened history layout and with native chat turns. While the
+ * history window fills up, chat turns share the whole previous request. Once the window is
+ * full every new message pushes the oldest turn out, and only the system message is shared.
+ */
+public class ChatPayloadBenchmarkTest {
+
+    private static final String INSTRUCTIONS = PromptBuilder.defaultInstructions("English");
+
+    private static final String[][] CONVERSATION = {
+            {"Hey, are you free this evening?", "Hi! I'm busy right now, I'll get back to you soon."},
+            {"Okay, let me know when you can talk", "Sure, I'll ping you once I'm done."},
+            {"Also did you get the tickets for Saturday?", "Not yet, I'll book them tonight."},
+            {"Great, get two please", "Got it, two tickets."},
+            {"And can you bring the charger I left at your place?", "Yes, I'll bring it along."},
+            {"Thanks! What time should we meet?", "Let's meet at 6 near the station."},
+            {"Perfect, see you then", "See you!"},
+            {"Wait, is it the north exit or south?", "North exit, next to the cafe."},
+            {"Got it. Running a bit late", "No problem, I'll wait."},
+    };
+
+    private static List<Message> history(int newestIndex) {
+        // Newest first, at most the history window, as the database returns it
+        List<Message> messages = new ArrayList<>();
+        for (int i = newestIndex; i >= 0 && messages.size() < DatabaseHelper.HISTORY_LIMIT; i--) {
+            messages.add(new Message(i, "Alice", CONVERSATION[i][0], 1_700_000_000_000L + i * 60_000L,
+                    CONVERSATION[i][1], DatabaseHelper.DIRECTION_INCOMING, "CHATGPT"));
+        }
+        return messages;
+    }
+
+    private static byte[] flattenedRequest(PromptBuilder.Prompt prompt, String sender) throws Exception {
+        JSONArray messages = new JSONArray();
+        messages.put(new JSONObject().put("role", "system").put("content", prompt.getInstructions()));
+        messages.put(new JSONObject().put("role", "user").put("content", "Previous chat history:\n" + prompt.getHistory()));
+        messages.put(new JSONObject().put("role", "user").put("content", "Most recent message (from " + sender + "): " + prompt.getMessage()));
+        return new JSONObject().put("model", "gpt-4o-mini").put("messages", messages).put("stream", true)
+                .toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] chatRequest(PromptBuilder.Prompt prompt) throws Exception {
+        Buffer buffer = new Buffer();
+        new ChatRequestWriter("gpt-4o-mini", true, INSTRUCTIONS).newBody("Alice", prompt).writeTo(buffer);
+        return buffer.readByteArray();
+    }
+
+    private static int commonPrefix(byte[] a, byte[] b) {
+        int i = 0;
+        while (i < a.length && i < b.length && a[i] == b[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    @Test
+    public void chatTurnsShareThePreviousRequestWhileTheWindowGrows() throws Exception {
+        PromptBuilder builder = new PromptBuilder(4000);
+        int first = 2;
+
+        PromptBuilder.Prompt before = builder.build(INSTRUCTIONS, history(first - 1), CONVERSATION[first][0]);
+        PromptBuilder.Prompt after = builder.build(INSTRUCTIONS, history(first), CONVERSATION[first + 1][0]);
+        byte[] chatBefore = chatRequest(before);
+
+        assertTrue(after.getIncludedTurns() < DatabaseHelper.HISTORY_LIMIT);
+        // Everything but the closing "]}"
+        assertEquals(chatBefore.length - 2, commonPrefix(chatBefore, chatRequest(after)));
+        assertTrue(commonPrefix(flattenedRequest(before, "Alice"), flattenedRequest(after, "Alice")) < chatBefore.length - 2);
+    }
+
+    @Test
+    public void fullWindowSharesOnlyTheSystemMessage() throws Exception {
+        PromptBuilder builder = new PromptBuilder(4000);
+        int first = DatabaseHelper.HISTORY_LIMIT;
+
+        PromptBuilder.Prompt before = builder.build(INSTRUCTIONS, history(first - 1), CONVERSATION[first][0]);
+        PromptBuilder.Prompt after = builder.build(INSTRUCTIONS, history(first), CONVERSATION[first + 1][0]);
+        byte[] chatBefore = chatRequest(before);
+        String request = new String(chatBefore, StandardCharsets.UTF_8);
+        int firstTurnStart = request.indexOf(",{\"role\":\"user\"");
+        int firstTurnEnd = request.indexOf("},{", firstTurnStart);
+
+        assertEquals(DatabaseHelper.HISTORY_LIMIT, before.getIncludedTurns());
+        assertEquals(DatabaseHelper.HISTORY_LIMIT, after.getIncludedTurns());
+        // The oldest turn was pushed out, so the requests part ways inside the first user turn
+        int shared = commonPrefix(chatBefore, chatRequest(after));
+        assertTrue(shared > firstTurnStart);
+        assertTrue(shared < firstTurnEnd);
+    }
+
+    @Test
+    public void turnsAlternateOldestFirst() throws Exception {
+        PromptBuilder.Prompt prompt = new PromptBuilder(4000).build(INSTRUCTIONS, history(1), "latest");
+        JSONArray messages = new JSONObject(new String(chatRequest(prompt), StandardCharsets.UTF_8)).getJSONArray("messages");
+
+        assertEquals(6, messages.length());
+        assertEquals("system", messages.getJSONObject(0).getString("role"));
+        assertEquals("Alice: " + CONVERSATION[0][0], messages.getJSONObject(1).getString("content"));
+        assertEquals("assistant", messages.getJSONObject(2).getString("role"));
+        assertEquals(CONVERSATION[1][1], messages.getJSONObject(4).getString("content"));
+        assertEquals("Alice: latest", messages.getJSONObject(5).getString("content"));
+    }
+}
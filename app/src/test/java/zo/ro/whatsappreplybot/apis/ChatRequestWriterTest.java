@@ -0,0 +1,121 @@
+package zo.ro.whatsappreplybot.apis;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.RequestBody;
+import okio.Buffer;
+import zo.ro.whatsappreplybot.helpers.DatabaseHelper;
+import zo.ro.whatsappreplybot.models.Message;
+
+import static org.junit.Assert.*;
+
+public class ChatRequestWriterTest {
+
+    private static final String INSTRUCTIONS = "You are a WhatsApp auto-reply bot.\nAlways respond in \"English\".";
+
+    private static List<Message> history(String... turns) {
+        // Newest first, as the database returns it
+        List<Message> messages = new ArrayList<>();
+        for (int i = turns.length - 2; i >= 0; i -= 2) {
+            messages.add(new Message(i, "Alice", turns[i], 1_700_000_000_000L + i, turns[i + 1],
+                    DatabaseHelper.DIRECTION_INCOMING, "CHATGPT"));
+        }
+        return messages;
+    }
+
+    // The messages array built as a JSON tree, what the generators sent before the writer
+    private static JSONArray chatMessages(String sender, PromptBuilder.Prompt prompt) throws Exception {
+        JSONArray chatMessages = new JSONArray();
+        chatMessages.put(new JSONObject().put("role", "system").put("content", prompt.getInstructions()));
+        List<Message> turns = prompt.getTurns();
+        for (int i = turns.size() - 1; i >= 0; i--) {
+            chatMessages.put(new JSONObject().put("role", "user").put("content", turns.get(i).getSender() + ": " + turns.get(i).getMessage()));
+            if (turns.get(i).getReply() != null) {
+                chatMessages.put(new JSONObject().put("role", "assistant").put("content", turns.get(i).getReply()));
+            }
+        }
+        chatMessages.put(new JSONObject().put("role", "user").put("content", sender == null ? prompt.getMessage() : sender + ": " + prompt.getMessage()));
+        return chatMessages;
+    }
+
+    private static Buffer write(RequestBody body) throws Exception {
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+        return buffer;
+    }
+
+    @Test
+    public void writesTheSameRequestAsTheJsonTree() throws Exception {
+        PromptBuilder.Prompt prompt = new PromptBuilder(4000).build(INSTRUCTIONS, history(
+                "Are we still on for 6?", "Yes! North exit \\ south exit?",
+                "Tab\there, bell\u0007, caf\u00e9 \u2615", "\ud83d\ude00 see you",
+                "No reply yet", null), "Where are you\r\n?");
+        RequestBody body = new ChatRequestWriter("gpt-4o-mini", true, INSTRUCTIONS, "keep_alive", "30m").newBody("Team \"A\": Alice", prompt);
+
+        Buffer written = write(body);
+        assertEquals(body.contentLength(), written.size());
+
+        JSONObject request = new JSONObject(written.readUtf8());
+        assertEquals("gpt-4o-mini", request.getString("model"));
+        assertTrue(request.getBoolean("stream"));
+        assertEquals("30m", request.getString("keep_alive"));
+        assertEquals(chatMessages("Team \"A\": Alice", prompt).toString(), request.getJSONArray("messages").toString());
+    }
+
+    @Test
+    public void contentLengthMatchesForAnyText() throws Exception {
+        String[] texts = {"", "plain", "\"quoted\"", "\u0000\u001f\u007f", "\u00e9\u0800\uffff", "\ud83d\ude00",
+                "lone \ud83d high", "lone \ude00 low", "ends high \ud83d", "\ud83d\ud83d\ude00"};
+        for (String text : texts) {
+            Buffer buffer = new Buffer();
+            ChatRequestWriter.writeString(buffer, text);
+            assertEquals(text, ChatRequestWriter.stringSize(text), buffer.size());
+        }
+    }
+
+    @Test
+    public void canBeWrittenAgainForARetryAndKeepsTheSystemPrefix() throws Exception {
+        ChatRequestWriter writer = new ChatRequestWriter("deepseek-chat", false, INSTRUCTIONS);
+        PromptBuilder builder = new PromptBuilder(4000);
+        RequestBody first = writer.newBody("Alice", builder.build(INSTRUCTIONS, history(), "Hi"));
+        RequestBody second = writer.newBody("Alice", builder.build(INSTRUCTIONS, history("Hi", "Hello!"), "How are you?"));
+
+        String once = write(first).readUtf8();
+        assertEquals(once, write(first).readUtf8());
+
+        JSONArray messages = new JSONObject(write(second).readUtf8()).getJSONArray("messages");
+        assertEquals(4, messages.length());
+        String fixedFields = "{\"model\":\"deepseek-chat\",\"stream\":false,\"messages\":[{\"role\":\"system\",\"content\":";
+        assertTrue(once.startsWith(fixedFields));
+        // The latest message is labelled as it will be in the history, so the whole first request
+        // except its closing bracket is a prefix of the next one
+        assertTrue(write(second).readUtf8().startsWith(once.substring(0, once.length() - 2)));
+    }
+
+    @Test
+    public void labelsUserTurnsWithTheSender() throws Exception {
+        PromptBuilder.Prompt prompt = new PromptBuilder(4000).build(INSTRUCTIONS, history("Hi", "Hello!"), "Free tonight?");
+        RequestBody body = new ChatRequestWriter("gpt-4o-mini", true, INSTRUCTIONS).newBody("Family: Bob", prompt);
+
+        Buffer written = write(body);
+        assertEquals(body.contentLength(), written.size());
+        JSONArray messages = new JSONObject(written.readUtf8()).getJSONArray("messages");
+        assertEquals("Alice: Hi", messages.getJSONObject(1).getString("content"));
+        assertEquals("Hello!", messages.getJSONObject(2).getString("content"));
+        assertEquals("Family: Bob: Free tonight?", messages.getJSONObject(3).getString("content"));
+        assertEquals(chatMessages(null, prompt).toString(),
+                new JSONObject(write(new ChatRequestWriter("gpt-4o-mini", true, INSTRUCTIONS).newBody(null, prompt)).readUtf8())
+                        .getJSONArray("messages").toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAPromptBuiltFromOtherInstructions() {
+        new ChatRequestWriter("gpt-4o-mini", true, INSTRUCTIONS)
+                .newBody("Alice", new PromptBuilder(4000).build("Something else", history(), "Hi"));
+    }
+}
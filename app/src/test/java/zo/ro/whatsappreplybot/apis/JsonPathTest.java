@@ -0,0 +1,75 @@
+package zo.ro.whatsappreplybot.apis;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+public class JsonPathTest {
+
+    private static final String CHAT_COMPLETION = "{\"id\":\"chatcmpl-1\",\"choices\":[{\"index\":0,\"logprobs\":{\"content\":" +
+            "[{\"token\":\"Hi\",\"logprob\":-0.1,\"top_logprobs\":[]}]},\"message\":{\"role\":\"assistant\"," +
+            "\"content\":\"Hi! I'll call you back.\"},\"finish_reason\":\"stop\"}],\"usage\":{\"total_tokens\":42}}";
+
+    private static Buffer body(String json) {
+        return new Buffer().writeUtf8(json);
+    }
+
+    @Test
+    public void readsChatCompletionPastSkippedMembersAndStopsAtTheReply() throws IOException {
+        Buffer source = body(CHAT_COMPLETION);
+
+        assertEquals("Hi! I'll call you back.", ReplyParsers.parseChatCompletion(source));
+        // Nothing after the reply was consumed
+        assertEquals("},\"finish_reason\":\"stop\"}],\"usage\":{\"total_tokens\":42}}", source.readUtf8());
+    }
+
+    @Test
+    public void readsNestedArrayPathsAndDecodesEscapes() throws IOException {
+        JsonPath path = JsonPath.compile("data.choices[1].text");
+        String json = "{\"data\":{\"choices\":[{\"text\":\"first\"},{\"note\":\"a \\\"quoted\\\" } ]\",\"text\":" +
+                "\"line\\nbreak \\u00e9 \\ud83d\\ude00 \\/\"}]}}";
+
+        assertEquals("line\nbreak \u00e9 \ud83d\ude00 /", path.readString(body(json)));
+        assertEquals("first", JsonPath.compile("data.choices[0].text").readString(body(json)));
+    }
+
+    @Test
+    public void missingPathsAndOtherTypesReadAsNull() throws IOException {
+        assertNull(JsonPath.compile("choices[3].message.content").readString(body(CHAT_COMPLETION)));
+        assertNull(JsonPath.compile("usage.total_tokens").readString(body(CHAT_COMPLETION)));
+        assertNull(ReplyParsers.parseChatCompletion(body("{\"choices\":[],\"usage\":null}")));
+        assertNull(ReplyParsers.parseChatCompletion(body("{\"choices\":[{\"message\":{\"content\":null}}]}")));
+    }
+
+    @Test
+    public void customResponseFallsBackToCommonKeysInPriorityOrder() throws IOException {
+        String json = "{\"answer\":\"from answer\",\"meta\":{\"reply\":\"nested\"},\"reply\":\"from reply\",\"text\":\"\"}";
+
+        assertEquals("from reply", ReplyParsers.parseCustomResponse(body(json), JsonPath.compile("output")));
+        assertEquals("nested", ReplyParsers.parseCustomResponse(body(json), JsonPath.compile("meta.reply")));
+        // A configured key holding an empty reply is no reply at all, as before
+        assertNull(ReplyParsers.parseCustomResponse(body(json), JsonPath.compile("text")));
+    }
+
+    @Test
+    public void rejectsBadPathsAndTruncatedBodies() {
+        for (String expression : new String[]{"", "a..b", "a.", "a[x]", "a[-1]", "a[0"}) {
+            try {
+                JsonPath.compile(expression);
+                fail("accepted '" + expression + "'");
+            } catch (IllegalArgumentException expected) {
+                // Expected
+            }
+        }
+        try {
+            ReplyParsers.parseChatCompletion(body(CHAT_COMPLETION.substring(0, 60)));
+            fail("read a truncated body");
+        } catch (IOException expected) {
+            // Expected
+        }
+    }
+}
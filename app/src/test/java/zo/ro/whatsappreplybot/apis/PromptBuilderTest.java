@@ -0,0 +1,73 @@
+package zo.ro.whatsappreplybot.apis;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import zo.ro.whatsappreplybot.helpers.DatabaseHelper;
+import zo.ro.whatsappreplybot.models.Message;
+
+import static org.junit.Assert.*;
+
+public class PromptBuilderTest {
+
+    private static Message message(int id, String text) {
+        return new Message(id, "alice", text, id * 1000L, "reply " + id, DatabaseHelper.DIRECTION_INCOMING, null);
+    }
+
+    private static String repeat(String text, int times) {
+        return String.join("", Collections.nCopies(times, text));
+    }
+
+    @Test
+    public void estimatesAsciiAndOtherScripts() {
+        assertEquals(0, PromptBuilder.estimateTokens(""));
+        assertEquals(3, PromptBuilder.estimateTokens("hello world!"));
+        assertEquals(4, PromptBuilder.estimateTokens("\u0928\u092E\u0938\u094D"));
+    }
+
+    @Test
+    public void keepsEverythingWithinBudget() {
+        List<Message> history = new ArrayList<>();
+        history.add(message(2, "how are you"));
+        history.add(message(1, "hi"));
+
+        PromptBuilder.Prompt prompt = new PromptBuilder(1000).build("Be nice.", history, "hello?");
+
+        assertEquals(2, prompt.getIncludedTurns());
+        assertEquals(0, prompt.getDroppedTurns());
+        assertTrue(prompt.getHistory().startsWith("alice: how are you\n"));
+        assertEquals("hello?", prompt.getMessage());
+        assertTrue(prompt.getTokenCount() <= 1000);
+    }
+
+    @Test
+    public void dropsOldestTurnsFirst() {
+        List<Message> history = new ArrayList<>();
+        for (int id = 7; id >= 1; id--) {
+            history.add(message(id, repeat("word ", 30)));
+        }
+
+        PromptBuilder.Prompt prompt = new PromptBuilder(200, 100).build("Be nice.", history, "hello?");
+
+        assertTrue(prompt.getIncludedTurns() > 0);
+        assertTrue(prompt.getDroppedTurns() > 0);
+        assertEquals(7, prompt.getIncludedTurns() + prompt.getDroppedTurns());
+        assertTrue(prompt.getHistory().contains("reply 7"));
+        assertFalse(prompt.getHistory().contains("reply 1\n"));
+        assertTrue(prompt.getTokenCount() <= 200);
+    }
+
+    @Test
+    public void truncatesOversizedMessage() {
+        String pasted = repeat("lorem ipsum ", 500);
+
+        PromptBuilder.Prompt prompt = new PromptBuilder(400).build("Be nice.", null, pasted);
+
+        assertTrue(prompt.getMessage().endsWith(PromptBuilder.ELLIPSIS));
+        assertTrue(PromptBuilder.estimateTokens(prompt.getMessage()) <= 100);
+        assertTrue(prompt.getTokenCount() <= 400);
+    }
+}
@@ -0,0 +1,53 @@
+package zo.ro.whatsappreplybot.apis;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RateLimiterTest {
+
+    private long now = 1_000_000;
+    private final RateLimiter rateLimiter = new RateLimiter(() -> now);
+
+    @Test
+    public void requestBucketAllowsBurstThenPaces() {
+        rateLimiter.setLimits("CHATGPT", 60, 0);
+
+        for (int i = 0; i < 60; i++) {
+            assertEquals(0, rateLimiter.tryAcquire("CHATGPT", 100));
+        }
+        // One request refills every second
+        assertEquals(1000, rateLimiter.tryAcquire("CHATGPT", 100));
+        now += 1000;
+        assertEquals(0, rateLimiter.tryAcquire("CHATGPT", 100));
+        assertEquals(1, rateLimiter.getThrottledCount());
+    }
+
+    @Test
+    public void tokenBucketLimitsLargePrompts() {
+        rateLimiter.setLimits("CHATGPT", 0, 6000);
+
+        assertEquals(0, rateLimiter.tryAcquire("CHATGPT", 5000));
+        assertEquals(40_000, rateLimiter.tryAcquire("CHATGPT", 5000));
+        // A prompt over the whole budget waits for a full bucket instead of forever
+        now += 60_000;
+        assertEquals(0, rateLimiter.tryAcquire("CHATGPT", 50_000));
+        assertEquals(0, rateLimiter.tryAcquire("OLLAMA", 50_000));
+    }
+
+    @Test
+    public void pauseAndRetryAfterAreHonored() {
+        rateLimiter.setLimits("DEEPSEEK", 0, 0);
+        rateLimiter.pause("DEEPSEEK", 2000);
+
+        assertEquals(2000, rateLimiter.tryAcquire("DEEPSEEK", 1));
+        assertEquals(3000, rateLimiter.getRetryDelayMillis(0, "3"));
+        assertEquals(-1, RateLimiter.parseRetryAfterMillis("Wed, 21 Oct 2015 07:28:00 GMT"));
+
+        for (int attempt = 0; attempt < 8; attempt++) {
+            long delay = rateLimiter.getRetryDelayMillis(attempt, null);
+            long ceiling = Math.min(RateLimiter.MAX_BACKOFF_MILLIS, RateLimiter.BASE_BACKOFF_MILLIS << attempt);
+            assertTrue(delay >= ceiling / 2 && delay <= ceiling);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package zo.ro.whatsappreplybot.apis;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.*;
+
+public class StreamingReplyReaderTest {
+
+    private MockWebServer server;
+    private final OkHttpClient client = new OkHttpClient();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    private static String sseChunk(String content) {
+        return "data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\"" + content + "\"}}]}\n\n";
+    }
+
+    private static String ndjsonChunk(String content, boolean done) {
+        return "{\"message\":{\"role\":\"assistant\",\"content\":\"" + content + "\"},\"done\":" + done + "}\n";
+    }
+
+    private String read(StreamingReplyReader reader, String body, boolean sse) throws IOException {
+        server.enqueue(new MockResponse().setBody(body));
+        Request request = new Request.Builder().url(server.url("/v1/chat/completions")).build();
+        try (Response response = client.newCall(request).execute()) {
+            return sse ? reader.readSse(response.body().source()) : reader.readNdjson(response.body().source());
+        }
+    }
+
+//    ----------------------------------------------------------------------------------------------
+
+    @Test
+    public void sseAssemblesDeltasUntilDone() throws IOException {
+        String body = "data: {\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\"}}]}\n\n"
+                + sseChunk("Hello")
+                + ": keep-alive\n\n"
+                + sseChunk(" there!")
+                + "data: [DONE]\n\n"
+                + sseChunk(" ignored");
+
+        assertEquals("Hello there!", read(new StreamingReplyReader(0, 0), body, true));
+    }
+
+    @Test
+    public void sseSkipsNoiseAndDecodesEscapes() throws IOException {
+        String body = "data: {\"error\":{\"message\":\"overloaded\"\r\n"
+                + "data: {\"choices\":[{\"delta\":{\"content\":null}}]}\r\n\r\n"
+                + "data:{\"choices\":[{\"delta\":{\"content\":\"Caf\\u00e9 \\\"ok\\\"\"}}]}\r\n\r\n"
+                + sseChunk(" \\\\ done")
+                + "data: [DONE]\r\n\r\n";
+
+        assertEquals("Caf\u00e9 \"ok\" \\ done", read(new StreamingReplyReader(0, 0), body, true));
+    }
+
+    @Test
+    public void sseStopsAfterSentenceLimit() throws IOException {
+        String body = sseChunk("Sure, I will call")
+                + sseChunk(" you soon. Right now I am")
+                + sseChunk(" busy. Talk later.")
+                + "data: [DONE]\n\n";
+
+        assertEquals("Sure, I will call you soon.", read(new StreamingReplyReader(1, 0), body, true));
+    }
+
+    @Test
+    public void ndjsonStopsAtCharacterLimitOnWordBoundary() throws IOException {
+        String body = ndjsonChunk("I am driving ", false)
+                + ndjsonChunk("right now and will reply later", false)
+                + ndjsonChunk("", true);
+
+        assertEquals("I am driving right", read(new StreamingReplyReader(0, 20), body, false));
+    }
+
+    @Test
+    public void ndjsonStopsAtTheDoneChunk() throws IOException {
+        String body = ndjsonChunk("See you ", false)
+                + ndjsonChunk("at \\\"done\\\":true", false)
+                + ndjsonChunk("", true)
+                + ndjsonChunk(" ignored", false);
+
+        assertEquals("See you at \"done\":true", read(new StreamingReplyReader(0, 0), body, false));
+    }
+
+    @Test
+    public void ndjsonWithoutContentIsNull() throws IOException {
+        assertNull(read(new StreamingReplyReader(0, 0), ndjsonChunk("", true), false));
+    }
+
+    @Test
+    public void limitAppliesToCompleteReply() {
+        StreamingReplyReader reader = new StreamingReplyReader(2, 0);
+
+        assertEquals("One. Two!", reader.limit("One. Two! Three? Four."));
+        assertEquals("No terminator at all", reader.limit("No terminator at all"));
+        assertNull(reader.limit(null));
+    }
+}
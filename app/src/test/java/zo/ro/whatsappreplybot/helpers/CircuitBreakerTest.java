@@ -0,0 +1,64 @@
+package zo.ro.whatsappreplybot.helpers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+
+    private long now = 1_000_000;
+    private final List<CircuitBreaker.State> transitions = new ArrayList<>();
+
+    private CircuitBreaker breaker(int failureRate) {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("OLLAMA", failureRate, 30_000, () -> now);
+        circuitBreaker.setOnStateChangeListener((name, state) -> transitions.add(state));
+        return circuitBreaker;
+    }
+
+    @Test
+    public void opensAtFailureRateAndProbesAfterOpenPeriod() {
+        CircuitBreaker circuitBreaker = breaker(50);
+
+        circuitBreaker.onSuccess();
+        circuitBreaker.onSuccess();
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+
+        // 3 of 5 calls failed
+        circuitBreaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.allowRequest());
+
+        now += 30_000;
+        assertTrue(circuitBreaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        // Only one probe at a time
+        assertFalse(circuitBreaker.allowRequest());
+
+        circuitBreaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        now += 30_000;
+        assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.allowRequest());
+
+        assertEquals(5, transitions.size());
+        assertEquals(2, circuitBreaker.getRejectedCount());
+    }
+
+    @Test
+    public void zeroThresholdNeverOpens() {
+        CircuitBreaker circuitBreaker = breaker(0);
+        for (int i = 0; i < 50; i++) {
+            circuitBreaker.onFailure();
+        }
+        assertTrue(circuitBreaker.allowRequest());
+        assertTrue(transitions.isEmpty());
+    }
+}
@@ -0,0 +1,79 @@
+package zo.ro.whatsappreplybot.helpers;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import zo.ro.whatsappreplybot.models.Message;
+
+import static org.junit.Assert.*;
+
+public class ConversationCacheTest {
+
+    private static Message message(int id, String sender) {
+        return new Message(id, sender, "message " + id, id * 1000L, "reply " + id, DatabaseHelper.DIRECTION_INCOMING, null);
+    }
+
+    @Test
+    public void missThenHitAfterPut() {
+        ConversationCache cache = new ConversationCache(3);
+
+        assertNull(cache.get("alice"));
+        cache.put("alice", Arrays.asList(message(2, "alice"), message(1, "alice")));
+
+        List<Message> history = cache.get("alice");
+        assertEquals(2, history.size());
+        assertEquals(2, history.get(0).getId());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void appendKeepsNewestFirstAndDropsOldest() {
+        ConversationCache cache = new ConversationCache(2);
+        cache.put("bob", Arrays.asList(message(2, "bob"), message(1, "bob")));
+
+        cache.append("bob", message(3, "bob"));
+
+        List<Message> history = cache.get("bob");
+        assertEquals(2, history.size());
+        assertEquals(3, history.get(0).getId());
+        assertEquals(2, history.get(1).getId());
+    }
+
+    @Test
+    public void appendIgnoresUncachedSender() {
+        ConversationCache cache = new ConversationCache(2);
+
+        cache.append("carol", message(1, "carol"));
+
+        assertNull(cache.get("carol"));
+    }
+
+    @Test
+    public void putDoesNotOverwriteNewerEntry() {
+        ConversationCache cache = new ConversationCache(3);
+        cache.put("dave", Collections.singletonList(message(1, "dave")));
+        cache.append("dave", message(2, "dave"));
+
+        cache.put("dave", Collections.singletonList(message(1, "dave")));
+
+        assertEquals(2, cache.get("dave").size());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedSender() {
+        ConversationCache cache = new ConversationCache(3, 2);
+        cache.put("a", Collections.singletonList(message(1, "a")));
+        cache.put("b", Collections.singletonList(message(2, "b")));
+        cache.get("a");
+
+        cache.put("c", Collections.singletonList(message(3, "c")));
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+}
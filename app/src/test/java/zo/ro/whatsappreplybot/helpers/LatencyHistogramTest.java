@@ -0,0 +1,66 @@
+package zo.ro.whatsappreplybot.helpers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverEveryValueWithBoundedError() {
+        for (long value = 0; value < 1_000_000; value += 7) {
+            int index = LatencyHistogram.bucketIndex(value);
+            long upper = LatencyHistogram.bucketUpperBound(index);
+            assertTrue(value + " -> " + upper, upper >= value);
+            assertTrue(value + " -> " + upper, upper - value <= Math.max(1, value / 16));
+        }
+        assertEquals(LatencyHistogram.bucketIndex(32) - 1, LatencyHistogram.bucketIndex(31));
+    }
+
+    @Test
+    public void percentilesAreWithinBucketPrecision() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 1; i <= 10_000; i++) {
+                    histogram.record(i * 100L);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40_000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMaxMicros());
+        assertEquals(500_050, histogram.getMeanMicros());
+        long p95 = histogram.getPercentileMicros(95);
+        assertTrue("p95 " + p95, p95 >= 950_000 && p95 <= 950_000 * 17 / 16);
+        assertEquals(1_000_000, histogram.getPercentileMicros(100));
+    }
+
+    @Test
+    public void sinceKeepsOnlyValuesRecordedAfterTheCopy() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 100; i++) {
+            histogram.record(5_000_000);
+        }
+        LatencyHistogram baseline = histogram.copy();
+        histogram.record(1_000);
+        histogram.record(3_000);
+
+        LatencyHistogram recent = histogram.since(baseline);
+        assertEquals(2, recent.getCount());
+        assertEquals(2_000, recent.getMeanMicros());
+        long max = recent.getMaxMicros();
+        assertTrue("max " + max, max >= 3_000 && max <= 3_000 * 17 / 16);
+        assertEquals(0, histogram.copy().since(histogram).getCount());
+        assertEquals(102, histogram.getCount());
+    }
+}
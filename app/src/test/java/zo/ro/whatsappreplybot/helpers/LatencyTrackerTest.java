@@ -0,0 +1,27 @@
+package zo.ro.whatsappreplybot.helpers;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyTrackerTest {
+
+    @Test
+    public void percentilesFollowRecentSamples() {
+        LatencyTracker tracker = new LatencyTracker(100);
+        assertEquals(-1, tracker.getPercentile(95));
+
+        for (int i = 1; i <= 100; i++) {
+            tracker.record(i * 10);
+        }
+        assertEquals(950, tracker.getPercentile(95));
+        assertEquals(500, tracker.getPercentile(50));
+
+        // A degraded provider pushes old fast samples out of the window
+        for (int i = 0; i < 100; i++) {
+            tracker.record(4000);
+        }
+        assertEquals(4000, tracker.getPercentile(50));
+        assertEquals(100, tracker.size());
+    }
+}
@@ -0,0 +1,101 @@
+package zo.ro.whatsappreplybot.helpers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MessageCoalescerTest {
+
+    private final List<List<String>> batches = new ArrayList<>();
+    private final List<List<Integer>> payloads = new ArrayList<>();
+    private final ManualTimer timer = new ManualTimer();
+    private final MessageCoalescer<Integer> coalescer = new MessageCoalescer<>(timer, () -> timer.now, (sender, messages, batchPayloads) -> {
+        batches.add(messages);
+        payloads.add(batchPayloads);
+    });
+
+    // Time only moves when a test advances it, due tasks run on the test thread
+    private static class ManualTimer implements MessageCoalescer.DelayedExecutor {
+
+        long now;
+        private final List<Long> dueTimes = new ArrayList<>();
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void executeAfter(Runnable task, long delayMillis) {
+            dueTimes.add(now + delayMillis);
+            tasks.add(task);
+        }
+
+        void advance(long millis) {
+            long until = now + millis;
+            while (true) {
+                int next = -1;
+                for (int i = 0; i < tasks.size(); i++) {
+                    if (dueTimes.get(i) <= until && (next < 0 || dueTimes.get(i) < dueTimes.get(next))) {
+                        next = i;
+                    }
+                }
+                if (next < 0) {
+                    break;
+                }
+                now = dueTimes.remove(next);
+                tasks.remove(next).run();
+            }
+            now = until;
+        }
+    }
+
+    @Test
+    public void burstIsAnsweredOnce() {
+        coalescer.submit("alice", "hey", 1, 200, 5000);
+        timer.advance(100);
+        assertTrue(coalescer.appendIfPending("alice", "are you there?", 2, 200, 5000));
+        assertTrue(coalescer.appendIfPending("alice", "are you there?", 3, 200, 5000));
+        assertFalse(coalescer.appendIfPending("bob", "hi", 4, 200, 5000));
+
+        // The quiet window restarted with the last message
+        timer.advance(199);
+        assertTrue(batches.isEmpty());
+        timer.advance(1);
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.get(0).size());
+        assertEquals("are you there?", batches.get(0).get(1));
+        assertEquals(Integer.valueOf(3), payloads.get(0).get(2));
+        assertEquals(0, coalescer.getPendingSenderCount());
+
+        timer.advance(10_000);
+        assertEquals(1, batches.size());
+    }
+
+    @Test
+    public void maxWaitBoundsAContinuousBurst() {
+        coalescer.submit("alice", "message 0", 0, 150, 400);
+        for (int i = 1; i <= 7; i++) {
+            // Each message restarts the quiet window, only the max wait can end the batch
+            timer.advance(50);
+            coalescer.submit("alice", "message " + i, i, 150, 400);
+        }
+        assertTrue(batches.isEmpty());
+
+        timer.advance(49);
+        assertTrue(batches.isEmpty());
+        timer.advance(1);
+        assertEquals(1, batches.size());
+        assertEquals(8, batches.get(0).size());
+        assertEquals(0, coalescer.getPendingSenderCount());
+    }
+
+    @Test
+    public void clearDropsOpenBatches() {
+        coalescer.submit("alice", "hey", 1, 200, 5000);
+        coalescer.clear();
+        timer.advance(10_000);
+
+        assertTrue(batches.isEmpty());
+        assertEquals(0, coalescer.getPendingSenderCount());
+    }
+}
@@ -0,0 +1,80 @@
+package zo.ro.whatsappreplybot.helpers;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class NearDuplicateIndexTest {
+
+    private static final long TTL = TimeUnit.HOURS.toMillis(1);
+
+    @Test
+    public void foldIgnoresCasePunctuationAndSpacing() {
+        assertEquals("hello there", NearDuplicateIndex.fold("Hello  there!!"));
+        assertEquals(NearDuplicateIndex.fold("hello there"), NearDuplicateIndex.fold(" HELLO there?? "));
+        assertNull(NearDuplicateIndex.fold("hi"));
+    }
+
+    @Test
+    public void reusesReplyForNearDuplicate() {
+        NearDuplicateIndex index = new NearDuplicateIndex();
+        index.add("gpt", "Are you coming to the party tonight?", "Yes, see you there!");
+
+        assertEquals("Yes, see you there!", index.findSimilar("gpt", "are you coming to the party tonight", 6, TTL));
+        assertEquals("Yes, see you there!", index.findSimilar("gpt", "Are you coming to the party tonite?", 10, TTL));
+        assertNull(index.findSimilar("gpt", "Can you send me the invoice for March?", 6, TTL));
+        assertEquals(2, index.getHitCount());
+        assertEquals(3, index.getLookupCount());
+    }
+
+    @Test
+    public void refusesEditsThatChangeTheMeaning() {
+        String[][] pairs = {
+                {"I am not coming to the wedding on Sunday, sorry", "I am coming to the wedding on Sunday, sorry"},
+                {"I don't want the blue one", "I want the blue one"},
+                {"Please transfer 500 rupees today", "Please transfer 5000 rupees today"},
+                {"My new number is 9876543210", "My new number is 9876543211"},
+                {"Let's meet at 5 pm near the station", "Let's meet at 6 pm near the station"},
+        };
+        for (String[] pair : pairs) {
+            NearDuplicateIndex index = new NearDuplicateIndex();
+            index.add("gpt", pair[0], "reply");
+            // Even with the old, loose default distance
+            assertNull(pair[1], index.findSimilar("gpt", pair[1], 6, TTL));
+        }
+    }
+
+    @Test
+    public void sameNumbersAndNegationsStillMatch() {
+        NearDuplicateIndex index = new NearDuplicateIndex();
+        index.add("gpt", "I can't make it at 5 pm", "No worries.");
+
+        assertEquals("No worries.", index.findSimilar("gpt", "i CANT make it at 5 pm!!", NearDuplicateIndex.MAX_SAFE_DISTANCE, TTL));
+        assertEquals("!cant 5 ", NearDuplicateIndex.guard(NearDuplicateIndex.fold("I can't make it at 5 pm")));
+    }
+
+    @Test
+    public void scopesAndCapacityAreRespected() {
+        NearDuplicateIndex index = new NearDuplicateIndex(2);
+        index.add("gpt", "hello there my friend", "Hi!");
+
+        assertNull(index.findSimilar("gemini", "hello there my friend", 6, TTL));
+
+        index.add("gpt", "what time is the meeting", "At 5.");
+        index.add("gpt", "where are you right now", "At home.");
+
+        assertEquals(2, index.size());
+        assertNull(index.findSimilar("gpt", "hello there my friend", 6, TTL));
+    }
+
+    @Test
+    public void similarTextsHaveCloseSignatures() {
+        long a = NearDuplicateIndex.simHash("i will call you back in ten minutes");
+        long b = NearDuplicateIndex.simHash("i will call you back in 10 minutes");
+        long c = NearDuplicateIndex.simHash("please share the document by evening");
+
+        assertTrue(Long.bitCount(a ^ b) < Long.bitCount(a ^ c));
+    }
+}
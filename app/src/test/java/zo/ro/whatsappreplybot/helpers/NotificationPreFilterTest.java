@@ -0,0 +1,80 @@
+package zo.ro.whatsappreplybot.helpers;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class NotificationPreFilterTest {
+
+    private static final int ONGOING = 0x02;
+
+    private static final String[] TEXTS = {
+            "Hey, are you free this evening?",
+            "You: see you at 6",
+            "you sent a photo",
+            "Typing...",
+            "Last seen today at 10:42",
+            "Can you bring the charger I left at your place? Also did you get the tickets for Saturday?",
+            "\u0645\u0631\u062d\u0628\u0627\u060c \u0643\u064a\u0641 \u062d\u0627\u0644\u0643\u061f",
+            "Okay, let me know when you can talk",
+            "Your message was deleted",
+            "North exit, next to the cafe. I'll wait there until you show up, don't be late this time!",
+    };
+
+    // The checks the service ran before the pre-filter, kept to compare verdicts
+    private static boolean legacyIsSelfOrStatus(CharSequence text) {
+        if (text == null || text.toString().isEmpty()) {
+            return false;
+        }
+        String messageText = text.toString().toLowerCase(Locale.ROOT);
+        return messageText.startsWith("you:") || messageText.startsWith("you ")
+                || messageText.contains("you sent") || messageText.contains("your message")
+                || messageText.contains("read") || messageText.contains("delivered")
+                || messageText.contains("typing...") || messageText.contains("online")
+                || messageText.contains("last seen");
+    }
+
+    @Test
+    public void rejectsSelfAndStatusMessages() {
+        NotificationPreFilter filter = new NotificationPreFilter();
+
+        assertEquals(NotificationPreFilter.REJECT_SELF, filter.check("Alice", "You: on my way", 0, ONGOING, true));
+        assertEquals(NotificationPreFilter.REJECT_SELF, filter.check("Alice", "Photo - YOU SENT it", 0, ONGOING, true));
+        assertEquals(NotificationPreFilter.REJECT_STATUS, filter.check("Alice", "Delivered", 0, ONGOING, true));
+        assertEquals(NotificationPreFilter.REJECT_STATUS, filter.check("Alice", "I already read it", 0, ONGOING, true));
+        // A self pattern found after a status one still wins
+        assertEquals(NotificationPreFilter.REJECT_SELF, filter.check("Alice", "online now, your message came", 0, ONGOING, true));
+    }
+
+    @Test
+    public void rejectsActiveChatAndMissingReplyAction() {
+        NotificationPreFilter filter = new NotificationPreFilter();
+
+        assertEquals(NotificationPreFilter.REJECT_ACTIVE_CHAT, filter.check("Alice", "Alice", 0, ONGOING, true));
+        assertEquals(NotificationPreFilter.REJECT_ACTIVE_CHAT, filter.check("Alice", "Hi there", ONGOING, ONGOING, true));
+        assertEquals(NotificationPreFilter.REJECT_NO_REPLY_ACTION, filter.check("Alice", "Hi there", 0, ONGOING, false));
+        assertEquals(NotificationPreFilter.PASS, filter.check("Alice", "Hi there", 0, ONGOING, true));
+        assertEquals(NotificationPreFilter.PASS, filter.check(null, null, 0, ONGOING, true));
+    }
+
+    @Test
+    public void matchesOverlappingPatterns() {
+        // "yo" fails over into "you sent" without losing the match
+        NotificationPreFilter filter = new NotificationPreFilter(new String[0], new String[]{"you sent"}, new String[]{"ou s", "sen"});
+
+        // "ou s" ends first, the scan goes on until the self pattern completes
+        assertEquals(3, filter.classify("yoyou sent"));
+        assertEquals(2, filter.classify("you se"));
+        assertEquals(0, filter.classify("y o u"));
+    }
+
+    @Test
+    public void agreesWithLegacyChecks() {
+        NotificationPreFilter filter = new NotificationPreFilter();
+        for (String text : TEXTS) {
+            assertEquals(text, legacyIsSelfOrStatus(text), filter.classify(text) != 0);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package zo.ro.whatsappreplybot.helpers;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class ReplyCacheTest {
+
+    @Test
+    public void normalizeFoldsCaseWhitespaceAndPunctuation() {
+        assertEquals("ok", ReplyCache.normalize("Ok!!"));
+        assertEquals("ok", ReplyCache.normalize("  OK. "));
+        assertEquals("good morning", ReplyCache.normalize("Good   morning!"));
+        assertEquals("?", ReplyCache.normalize("???"));
+        assertEquals("are you there?", ReplyCache.normalize("Are you there??"));
+    }
+
+    @Test
+    public void normalizeSkipsEmptyAndLongMessages() {
+        assertNull(ReplyCache.normalize(null));
+        assertNull(ReplyCache.normalize(" ... "));
+        assertNull(ReplyCache.normalize(String.join("", Collections.nCopies(ReplyCache.MAX_MESSAGE_LENGTH + 1, "a"))));
+    }
+
+    @Test
+    public void keyChangesWithEverythingThatShapesTheReply() {
+        String key = ReplyCache.buildKey("hi", "CHATGPT", "gpt-4o-mini", "prompt", "English");
+
+        assertEquals(key, ReplyCache.buildKey("hi", "CHATGPT", "gpt-4o-mini", "prompt", "English"));
+        assertEquals(64, key.length());
+        assertNotEquals(key, ReplyCache.buildKey("hello", "CHATGPT", "gpt-4o-mini", "prompt", "English"));
+        assertNotEquals(key, ReplyCache.buildKey("hi", "DEEPSEEK", "gpt-4o-mini", "prompt", "English"));
+        assertNotEquals(key, ReplyCache.buildKey("hi", "CHATGPT", "gpt-4o", "prompt", "English"));
+        assertNotEquals(key, ReplyCache.buildKey("hi", "CHATGPT", "gpt-4o-mini", "other prompt", "English"));
+        assertNotEquals(key, ReplyCache.buildKey("hi", "CHATGPT", "gpt-4o-mini", "prompt", "Hindi"));
+    }
+
+    @Test
+    public void repliesNamingTheSenderAreNotShared() {
+        assertTrue(ReplyCache.mentionsSender("Hi Alice!", "Alice"));
+        assertTrue(ReplyCache.mentionsSender("hey ALICE, what's up?", "alice"));
+        assertTrue(ReplyCache.mentionsSender("Sure Bob, see you", "Family: Bob"));
+        assertTrue(ReplyCache.mentionsSender("Hola Jos\u00e9", "Jos\u00e9 Garc\u00eda"));
+        assertFalse(ReplyCache.mentionsSender("Hi there!", "Alice"));
+        assertFalse(ReplyCache.mentionsSender("Hi there!", null));
+    }
+}
@@ -0,0 +1,72 @@
+package zo.ro.whatsappreplybot.helpers;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+public class ReplySchedulerTest {
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final List<String> started = new ArrayList<>();
+    private final List<Runnable> finishers = new ArrayList<>();
+    // Runs jobs inline so the start order is deterministic
+    private final ReplyScheduler scheduler = new ReplyScheduler(Runnable::run, timer);
+
+    private void submit(String conversation, int maxConcurrent, int priorityClass) {
+        scheduler.submit(conversation, "gpt", maxConcurrent, priorityClass, onFinished -> {
+            started.add(conversation);
+            finishers.add(onFinished);
+        });
+    }
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void higherPriorityRunsFirstWithinProviderLimit() {
+        submit("busy", 1, ReplyScheduler.PRIORITY_DIRECT);
+        submit("family group", 1, ReplyScheduler.PRIORITY_GROUP);
+        submit("alice", 1, ReplyScheduler.PRIORITY_DIRECT);
+        submit("boss", 1, ReplyScheduler.PRIORITY_VIP);
+
+        assertEquals(1, scheduler.getRunningCount("gpt"));
+        assertEquals(3, scheduler.getPendingCount());
+
+        finishers.get(0).run();
+        finishers.get(1).run();
+        finishers.get(2).run();
+
+        assertEquals("busy", started.get(0));
+        assertEquals("boss", started.get(1));
+        assertEquals("alice", started.get(2));
+        assertEquals("family group", started.get(3));
+        assertEquals(0, scheduler.getPendingCount());
+    }
+
+    @Test
+    public void noisyGroupRunsOneJobAtATime() {
+        for (int i = 0; i < 6; i++) {
+            submit("family group", 3, ReplyScheduler.PRIORITY_GROUP);
+        }
+        submit("alice", 3, ReplyScheduler.PRIORITY_DIRECT);
+
+        // The provider has free slots but the group already has a reply in flight
+        assertEquals(2, started.size());
+        assertEquals("alice", started.get(1));
+        assertEquals(5, scheduler.getPendingCount(ReplyScheduler.PRIORITY_GROUP));
+
+        // Finishing twice must not free a second slot
+        finishers.get(0).run();
+        finishers.get(0).run();
+        assertEquals(3, started.size());
+        assertEquals(2, scheduler.getRunningCount("gpt"));
+    }
+}
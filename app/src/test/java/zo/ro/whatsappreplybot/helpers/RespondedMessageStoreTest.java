@@ -0,0 +1,133 @@
+package zo.ro.whatsappreplybot.helpers;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class RespondedMessageStoreTest {
+
+    private static final long WINDOW = 60_000;
+
+    private static class MemoryStorage implements RespondedMessageStore.Storage {
+
+        Map<String, Long> saved = new HashMap<>();
+        int saves;
+
+        @Override
+        public Map<String, Long> load() {
+            return new HashMap<>(saved);
+        }
+
+        @Override
+        public void save(Map<String, Long> expiries) {
+            saved = new HashMap<>(expiries);
+            saves++;
+        }
+    }
+
+    @Test
+    public void claimsEachMessageOnceWithinTheWindow() {
+        AtomicLong now = new AtomicLong(1_000);
+        RespondedMessageStore store = new RespondedMessageStore(10, null, now::get);
+        String key = RespondedMessageStore.keyFor("0|com.whatsapp|1|chat|0", "Hi");
+
+        assertTrue(store.tryClaim(key, WINDOW));
+        assertFalse(store.tryClaim(key, WINDOW));
+        // Same notification, new message
+        assertTrue(store.tryClaim(RespondedMessageStore.keyFor("0|com.whatsapp|1|chat|0", "Are you there?"), WINDOW));
+
+        now.addAndGet(WINDOW);
+        assertTrue(store.tryClaim(key, WINDOW));
+    }
+
+    @Test
+    public void releasedClaimCanBeRetried() {
+        RespondedMessageStore store = new RespondedMessageStore(10, null, () -> 0);
+
+        assertTrue(store.tryClaim("a", WINDOW));
+        store.release("a");
+        assertTrue(store.tryClaim("a", WINDOW));
+    }
+
+    @Test
+    public void evictsExpiredThenSoonestToExpire() {
+        AtomicLong now = new AtomicLong(0);
+        RespondedMessageStore store = new RespondedMessageStore(10, null, now::get);
+
+        store.tryClaim("expired", 10);
+        for (int i = 0; i < 9; i++) {
+            store.tryClaim("chat " + i, WINDOW + i);
+        }
+        now.set(100);
+        store.tryClaim("newest", 2 * WINDOW);
+
+        // Trimmed to 9: the expired entry, then the one closest to expiry
+        assertEquals(9, store.size());
+        assertFalse(store.tryClaim("newest", WINDOW));
+        assertFalse(store.tryClaim("chat 1", WINDOW));
+        assertTrue(store.tryClaim("chat 0", WINDOW));
+    }
+
+    @Test
+    public void trimsInBatchesWhenNothingHasExpired() {
+        RespondedMessageStore store = new RespondedMessageStore(100, null, () -> 0);
+
+        for (int i = 0; i <= 100; i++) {
+            store.tryClaim("chat " + i, WINDOW);
+        }
+        assertEquals(90, store.size());
+        assertFalse(store.tryClaim("chat 100", WINDOW));
+
+        // The next claims fill the room made by the batch without trimming again
+        for (int i = 101; i < 111; i++) {
+            store.tryClaim("chat " + i, WINDOW);
+        }
+        assertEquals(100, store.size());
+    }
+
+    @Test
+    public void savesOfABurstOfRepliesAreCoalesced() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            MemoryStorage storage = new MemoryStorage();
+            RespondedMessageStore store = new RespondedMessageStore(10, storage, scheduler, () -> 0);
+            for (int i = 0; i < 5; i++) {
+                store.tryClaim("chat " + i, WINDOW);
+                store.markReplied("chat " + i, WINDOW);
+            }
+            assertEquals(0, storage.saves);
+
+            store.flush();
+            assertEquals(1, storage.saves);
+            assertEquals(5, storage.saved.size());
+            // Nothing left to write
+            store.flush();
+            assertEquals(1, storage.saves);
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void repliedMessagesSurviveARestartUntilTheyExpire() {
+        AtomicLong now = new AtomicLong(0);
+        MemoryStorage storage = new MemoryStorage();
+        RespondedMessageStore store = new RespondedMessageStore(10, storage, now::get);
+        store.tryClaim("replied", WINDOW);
+        store.markReplied("replied", WINDOW);
+        store.tryClaim("in flight", WINDOW);
+
+        RespondedMessageStore restarted = new RespondedMessageStore(10, storage, now::get);
+        assertFalse(restarted.tryClaim("replied", WINDOW));
+        assertTrue(restarted.tryClaim("in flight", WINDOW));
+
+        now.set(WINDOW);
+        assertEquals(0, new RespondedMessageStore(10, storage, now::get).size());
+    }
+}
@@ -0,0 +1,70 @@
+package zo.ro.whatsappreplybot.benchmarks;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.List;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import zo.ro.whatsappreplybot.apis.ChatRequestWriter;
+import zo.ro.whatsappreplybot.apis.PromptBuilder;
+import zo.ro.whatsappreplybot.models.Message;
+
+/**
+ * Serializing a chat completions request with a full history window into the connection's
+ * sink. The sink is cleared after every request, the way a socket drains it.
+ */
+@State(Scope.Benchmark)
+public class ChatRequestBenchmark {
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    private final List<Message> history = Fixtures.history();
+    private final PromptBuilder.Prompt prompt = new PromptBuilder(4000).build(Fixtures.INSTRUCTIONS, history, Fixtures.latestMessage());
+    private final ChatRequestWriter requestWriter = new ChatRequestWriter("gpt-4o-mini", true, Fixtures.INSTRUCTIONS);
+    private final Buffer sink = new Buffer();
+
+    @Benchmark
+    public long chatRequestWriter() throws IOException {
+        return send(requestWriter.newBody("Alice", prompt));
+    }
+
+    @Benchmark
+    public long legacyJsonTree() throws JSONException, IOException {
+        // What the generators did before: build the tree, then a String, then the bytes
+        JSONArray messages = new JSONArray();
+        messages.put(chatMessage("system", prompt.getInstructions()));
+        // The whole window fits the budget, so the prompt kept every turn
+        for (int i = history.size() - 1; i >= 0; i--) {
+            messages.put(chatMessage("user", history.get(i).getSender() + ": " + history.get(i).getMessage()));
+            messages.put(chatMessage("assistant", history.get(i).getReply()));
+        }
+        messages.put(chatMessage("user", "Alice: " + prompt.getMessage()));
+        JSONObject container = new JSONObject();
+        container.put("model", "gpt-4o-mini");
+        container.put("messages", messages);
+        container.put("stream", true);
+        return send(RequestBody.create(container.toString(), JSON));
+    }
+
+    private static JSONObject chatMessage(String role, String content) throws JSONException {
+        JSONObject chatMessage = new JSONObject();
+        chatMessage.put("role", role);
+        chatMessage.put("content", content);
+        return chatMessage;
+    }
+
+    private long send(RequestBody body) throws IOException {
+        body.writeTo(sink);
+        long size = sink.size();
+        sink.clear();
+        return size + body.contentLength();
+    }
+}
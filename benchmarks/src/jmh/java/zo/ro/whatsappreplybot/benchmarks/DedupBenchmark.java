@@ -0,0 +1,92 @@
+package zo.ro.whatsappreplybot.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import zo.ro.whatsappreplybot.helpers.RespondedMessageStore;
+
+/**
+ * The duplicate check on every notification that passed the filter, against the plain set it
+ * replaced. Keys cycle through more chats than the store keeps, so eviction is part of the cost.
+ */
+@State(Scope.Benchmark)
+public class DedupBenchmark {
+
+    private static final int KEY_COUNT = 4096;
+    private static final long WINDOW_MILLIS = 10 * 60_000L;
+
+    private final String[] keys = new String[KEY_COUNT];
+    private RespondedMessageStore store;
+    private Set<String> legacySet;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keys[i] = RespondedMessageStore.keyFor("0|com.whatsapp|1|" + i + "@s.whatsapp.net|10123", Fixtures.CONVERSATION[i % Fixtures.CONVERSATION.length][0]);
+        }
+        store = new RespondedMessageStore(RespondedMessageStore.DEFAULT_MAX_ENTRIES, null);
+        store.tryClaim(keys[0], WINDOW_MILLIS);
+        legacySet = new HashSet<>();
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        int advance() {
+            next = (next + 1) & (KEY_COUNT - 1);
+            return next;
+        }
+    }
+
+    @Benchmark
+    public String keyFor() {
+        return RespondedMessageStore.keyFor("0|com.whatsapp|1|491701234567@s.whatsapp.net|10123", Fixtures.latestMessage());
+    }
+
+    @Benchmark
+    public boolean claimDuplicate() {
+        return store.tryClaim(keys[0], WINDOW_MILLIS);
+    }
+
+    @Benchmark
+    public boolean claimNewMessage(Cursor cursor) {
+        // Released again so the key is new on its next turn, like a shed message
+        String key = keys[cursor.advance()];
+        boolean claimed = store.tryClaim(key, WINDOW_MILLIS);
+        store.release(key);
+        return claimed;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean claimNewMessageContended(Cursor cursor) {
+        String key = keys[cursor.advance()];
+        boolean claimed = store.tryClaim(key, WINDOW_MILLIS);
+        store.release(key);
+        return claimed;
+    }
+
+    @Benchmark
+    public boolean claimWithEviction(Cursor cursor) {
+        // Kept claimed: past the bound every claim evicts the entry closest to expiry
+        return store.tryClaim(keys[cursor.advance()], WINDOW_MILLIS);
+    }
+
+    @Benchmark
+    public boolean legacyHashSet(Cursor cursor) {
+        String key = keys[cursor.advance()];
+        boolean claimed = !legacySet.contains(key);
+        legacySet.add(key);
+        if (legacySet.size() > 50) {
+            legacySet.clear();
+        }
+        return claimed;
+    }
+}
@@ -0,0 +1,104 @@
+package zo.ro.whatsappreplybot.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import zo.ro.whatsappreplybot.models.Message;
+
+/**
+ * Inputs shaped like what the app sees: a chat with a full history window, provider response
+ * bodies as sent over the wire, and a mix of message and status notifications.
+ */
+final class Fixtures {
+
+    // DatabaseHelper.HISTORY_LIMIT, the history window handed to the generators
+    static final int HISTORY_LIMIT = 7;
+    static final int DIRECTION_INCOMING = 0;
+
+    static final String INSTRUCTIONS = "You are a WhatsApp auto-reply bot. Your task is to read the provided previous chat history " +
+            "and reply to the most recent incoming message. Always respond in English. " +
+            "Be polite, context-aware, and ensure your replies are relevant to the conversation.\n\n";
+
+    static final String[][] CONVERSATION = {
+            {"Hey, are you free this evening?", "Hi! I'm busy right now, I'll get back to you soon."},
+            {"Okay, let me know when you can talk", "Sure, I'll ping you once I'm done."},
+            {"Also did you get the tickets for Saturday?", "Not yet, I'll book them tonight."},
+            {"Great, get two please", "Got it, two tickets."},
+            {"And can you bring the charger I left at your place?", "Yes, I'll bring it along."},
+            {"Thanks! What time should we meet?", "Let's meet at 6 near the station."},
+            {"Perfect, see you then", "See you!"},
+            {"Wait, is it the north exit or south?", "North exit, next to the cafe."},
+    };
+
+    static final String CHAT_COMPLETION_RESPONSE = "{\"id\":\"chatcmpl-9xK2mPqR7sT4vW1yZ3aB5cD\",\"object\":\"chat.completion\"," +
+            "\"created\":1727000000,\"model\":\"gpt-4o-mini-2024-07-18\",\"choices\":[{\"index\":0,\"message\":" +
+            "{\"role\":\"assistant\",\"content\":\"North exit, next to the cafe. I'll be there at 6, see you!\"," +
+            "\"refusal\":null},\"logprobs\":null,\"finish_reason\":\"stop\"}],\"usage\":{\"prompt_tokens\":312," +
+            "\"completion_tokens\":17,\"total_tokens\":329},\"system_fingerprint\":\"fp_1b2c3d4e5f\"}";
+
+    static final String CHAT_COMPLETION_LOGPROBS_RESPONSE = chatCompletionWithLogprobs();
+
+    static final String OLLAMA_RESPONSE = "{\"model\":\"llama3.2\",\"created_at\":\"2024-09-22T10:15:30.123Z\"," +
+            "\"message\":{\"role\":\"assistant\",\"content\":\"North exit, next to the cafe. I'll be there at 6, see you!\"}," +
+            "\"done_reason\":\"stop\",\"done\":true,\"total_duration\":1834567890,\"load_duration\":12345678," +
+            "\"prompt_eval_count\":312,\"prompt_eval_duration\":456789012,\"eval_count\":17,\"eval_duration\":987654321}";
+
+    static final String CUSTOM_RESPONSE = "{\"status\":\"ok\",\"request_id\":\"a1b2c3\",\"latency_ms\":842," +
+            "\"reply\":\"North exit, next to the cafe. I'll be there at 6, see you!\"}";
+
+    static final String[] NOTIFICATION_TEXTS = {
+            "Hey, are you free this evening?",
+            "You: see you at 6",
+            "you sent a photo",
+            "Typing...",
+            "Last seen today at 10:42",
+            "Can you bring the charger I left at your place? Also did you get the tickets for Saturday?",
+            "\u0645\u0631\u062d\u0628\u0627\u060c \u0643\u064a\u0641 \u062d\u0627\u0644\u0643\u061f",
+            "Okay, let me know when you can talk",
+            "Your message was deleted",
+            "North exit, next to the cafe. I'll wait there until you show up, don't be late this time!",
+    };
+
+    private Fixtures() {
+    }
+
+    /**
+     * @return the history window before the newest message, newest first as the database returns it
+     */
+    static List<Message> history() {
+        List<Message> messages = new ArrayList<>();
+        for (int i = CONVERSATION.length - 2; i >= 0 && messages.size() < HISTORY_LIMIT; i--) {
+            messages.add(new Message(i, "Alice", CONVERSATION[i][0], 1_700_000_000_000L + i * 60_000L,
+                    CONVERSATION[i][1], DIRECTION_INCOMING, "CHATGPT"));
+        }
+        return messages;
+    }
+
+    /**
+     * The same completion requested with {@code logprobs} and 5 {@code top_logprobs}, which puts
+     * a large block in front of the reply.
+     */
+    private static String chatCompletionWithLogprobs() {
+        String[] tokens = {"North", " exit", ",", " next", " to", " the", " cafe", ".", " I", "'ll", " be", " there",
+                " at", " ", "6", ",", " see", " you", "!"};
+        StringBuilder logprobs = new StringBuilder();
+        for (int i = 0; i < tokens.length; i++) {
+            logprobs.append(i == 0 ? "" : ",").append("{\"token\":\"").append(tokens[i])
+                    .append("\",\"logprob\":-0.0").append(i + 1).append(",\"bytes\":[78,111],\"top_logprobs\":[");
+            for (int j = 0; j < 5; j++) {
+                logprobs.append(j == 0 ? "" : ",").append("{\"token\":\"").append(tokens[(i + j) % tokens.length])
+                        .append("\",\"logprob\":-").append(j + 1).append(".25,\"bytes\":[32,101]}");
+            }
+            logprobs.append("]}");
+        }
+        return "{\"id\":\"chatcmpl-9xK2mPqR7sT4vW1yZ3aB5cD\",\"object\":\"chat.completion\",\"created\":1727000000," +
+                "\"model\":\"gpt-4o-mini-2024-07-18\",\"choices\":[{\"index\":0,\"logprobs\":{\"content\":[" + logprobs +
+                "],\"refusal\":null},\"message\":{\"role\":\"assistant\",\"content\":\"North exit, next to the cafe. " +
+                "I'll be there at 6, see you!\",\"refusal\":null},\"finish_reason\":\"stop\"}],\"usage\":" +
+                "{\"prompt_tokens\":312,\"completion_tokens\":17,\"total_tokens\":329}}";
+    }
+
+    static String latestMessage() {
+        return CONVERSATION[CONVERSATION.length - 1][0];
+    }
+}
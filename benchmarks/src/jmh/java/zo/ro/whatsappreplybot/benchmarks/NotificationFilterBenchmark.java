@@ -0,0 +1,51 @@
+package zo.ro.whatsappreplybot.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Locale;
+
+import zo.ro.whatsappreplybot.helpers.NotificationPreFilter;
+
+/**
+ * The check every WhatsApp notification goes through, against the lower-case and contains
+ * checks it replaced. One operation is one notification.
+ */
+@State(Scope.Benchmark)
+public class NotificationFilterBenchmark {
+
+    private static final int ONGOING = 0x02;
+
+    private final NotificationPreFilter preFilter = new NotificationPreFilter();
+
+    @Benchmark
+    @OperationsPerInvocation(10)
+    public void preFilter(Blackhole blackhole) {
+        for (String text : Fixtures.NOTIFICATION_TEXTS) {
+            blackhole.consume(preFilter.check("Alice", text, 0, ONGOING, true));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(10)
+    public void lowerCaseContains(Blackhole blackhole) {
+        for (String text : Fixtures.NOTIFICATION_TEXTS) {
+            blackhole.consume(isSelfOrStatus(text));
+        }
+    }
+
+    private static boolean isSelfOrStatus(CharSequence text) {
+        if (text == null || text.toString().isEmpty()) {
+            return false;
+        }
+        String messageText = text.toString().toLowerCase(Locale.ROOT);
+        return messageText.startsWith("you:") || messageText.startsWith("you ")
+                || messageText.contains("you sent") || messageText.contains("your message")
+                || messageText.contains("read") || messageText.contains("delivered")
+                || messageText.contains("typing...") || messageText.contains("online")
+                || messageText.contains("last seen");
+    }
+}
@@ -0,0 +1,33 @@
+package zo.ro.whatsappreplybot.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+import zo.ro.whatsappreplybot.apis.PromptBuilder;
+import zo.ro.whatsappreplybot.models.Message;
+
+/**
+ * Prompt assembly for every reply: the history window turned into text within the token budget,
+ * then the custom prompt template around it.
+ */
+@State(Scope.Benchmark)
+public class PromptBenchmark {
+
+    private final PromptBuilder promptBuilder = new PromptBuilder(4000);
+    private final List<Message> history = Fixtures.history();
+    private final String message = Fixtures.latestMessage();
+    private final PromptBuilder.Prompt prompt = promptBuilder.build(Fixtures.INSTRUCTIONS, history, message);
+
+    @Benchmark
+    public PromptBuilder.Prompt buildChatHistory() {
+        return promptBuilder.build(Fixtures.INSTRUCTIONS, history, message);
+    }
+
+    @Benchmark
+    public String processPromptTemplate() {
+        return PromptBuilder.processPromptTemplate(Fixtures.INSTRUCTIONS, "English", "Yuji", "Alice", prompt);
+    }
+}
@@ -0,0 +1,96 @@
+package zo.ro.whatsappreplybot.benchmarks;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+import okio.Buffer;
+import okio.ByteString;
+import zo.ro.whatsappreplybot.apis.JsonPath;
+import zo.ro.whatsappreplybot.apis.ReplyParsers;
+
+/**
+ * Reading the reply out of a non-streaming response body, per provider format. Each operation
+ * starts from the raw bytes, as the body arrives from the network. Reading stops at the reply
+ * and the generators then close the body, releasing the unread bytes; clearing the buffer does
+ * the same here.
+ */
+@State(Scope.Benchmark)
+public class ReplyParsingBenchmark {
+
+    private static final ByteString CHAT_COMPLETION = ByteString.encodeUtf8(Fixtures.CHAT_COMPLETION_RESPONSE);
+    private static final ByteString CHAT_COMPLETION_LOGPROBS = ByteString.encodeUtf8(Fixtures.CHAT_COMPLETION_LOGPROBS_RESPONSE);
+    private static final ByteString OLLAMA = ByteString.encodeUtf8(Fixtures.OLLAMA_RESPONSE);
+    private static final ByteString CUSTOM = ByteString.encodeUtf8(Fixtures.CUSTOM_RESPONSE);
+
+    private final JsonPath replyKey = JsonPath.compile("reply");
+    private final JsonPath missingKey = JsonPath.compile("output");
+
+    @Benchmark
+    public String openAiChatCompletion() throws IOException {
+        Buffer body = new Buffer().write(CHAT_COMPLETION);
+        try {
+            return ReplyParsers.parseChatCompletion(body);
+        } finally {
+            body.clear();
+        }
+    }
+
+    @Benchmark
+    public String openAiChatCompletionLogprobs() throws IOException {
+        Buffer body = new Buffer().write(CHAT_COMPLETION_LOGPROBS);
+        try {
+            return ReplyParsers.parseChatCompletion(body);
+        } finally {
+            body.clear();
+        }
+    }
+
+    @Benchmark
+    public String ollamaChat() throws IOException {
+        Buffer body = new Buffer().write(OLLAMA);
+        try {
+            return ReplyParsers.parseOllamaChat(body);
+        } finally {
+            body.clear();
+        }
+    }
+
+    @Benchmark
+    public String customConfiguredKey() throws IOException {
+        Buffer body = new Buffer().write(CUSTOM);
+        try {
+            return ReplyParsers.parseCustomResponse(body, replyKey);
+        } finally {
+            body.clear();
+        }
+    }
+
+    @Benchmark
+    public String customFallbackKey() throws IOException {
+        // Configured key missing, found through the common keys
+        Buffer body = new Buffer().write(CUSTOM);
+        try {
+            return ReplyParsers.parseCustomResponse(body, missingKey);
+        } finally {
+            body.clear();
+        }
+    }
+
+    @Benchmark
+    public String legacyTreeChatCompletion() throws JSONException {
+        // What parseChatCompletion did before: decode the whole body, then build the tree
+        return new JSONObject(new Buffer().write(CHAT_COMPLETION).readUtf8())
+                .getJSONArray("choices").getJSONObject(0).getJSONObject("message").getString("content");
+    }
+
+    @Benchmark
+    public String legacyTreeChatCompletionLogprobs() throws JSONException {
+        return new JSONObject(new Buffer().write(CHAT_COMPLETION_LOGPROBS).readUtf8())
+                .getJSONArray("choices").getJSONObject(0).getJSONObject("message").getString("content");
+    }
+}